@@ -51,6 +51,8 @@ public class QueryResponse implements Event {
 	private Map<String, List<Path<Feature, String>>> results;
 	private JSONObject jsonResults;
 	private long elapsedTime;
+	private long blocksScanned;
+	private long blocksPruned;
 
 	public QueryResponse(String id, Map<String, List<Path<Feature, String>>> results) {
 		this.id = id;
@@ -71,6 +73,26 @@ public class QueryResponse implements Event {
 		this.elapsedTime = time;
 	}
 
+	/**
+	 * Number of blocks that were read while answering the query.
+	 */
+	public long getBlocksScanned() {
+		return this.blocksScanned;
+	}
+
+	/**
+	 * Number of blocks that were skipped because their statistics showed they
+	 * could not contain any matches.
+	 */
+	public long getBlocksPruned() {
+		return this.blocksPruned;
+	}
+
+	public void addBlockCounts(long scanned, long pruned) {
+		this.blocksScanned += scanned;
+		this.blocksPruned += pruned;
+	}
+
 	public boolean isInteractive() {
 		return this.interactive;
 	}
@@ -92,6 +114,8 @@ public class QueryResponse implements Event {
 		id = in.readString();
 		interactive = in.readBoolean();
 		elapsedTime = in.readLong();
+		blocksScanned = in.readLong();
+		blocksPruned = in.readLong();
 		if (isInteractive()) {
 			int numResults = in.readInt();
 			results = new HashMap<>(3 * numResults / 2); // initial capacity = 1.5*size of the map.
@@ -127,6 +151,8 @@ public class QueryResponse implements Event {
 		out.writeString(id);
 		out.writeBoolean(interactive);
 		out.writeLong(elapsedTime);
+		out.writeLong(blocksScanned);
+		out.writeLong(blocksPruned);
 		if (isInteractive()) {
 			out.writeInt(results.size());
 			for (String key : results.keySet()) {
@@ -263,7 +263,7 @@ public class Metadata implements ByteSerializable {
 		}
 		
 		out.writeBoolean(hasSearchIndex());
-		if (hasSpatialHint()) {
+		if (hasSearchIndex()) {
 			out.writeSerializable(sIndex);
 		}
 
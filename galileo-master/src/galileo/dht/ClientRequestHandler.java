@@ -135,6 +135,7 @@ public class ClientRequestHandler implements MessageListener {
 					QueryResponse actualResponse = (QueryResponse) this.response;
 					actualResponse.setElapsedTime(elapsedTime);
 					QueryResponse eventResponse = (QueryResponse) event;
+					actualResponse.addBlockCounts(eventResponse.getBlocksScanned(), eventResponse.getBlocksPruned());
 					if (actualResponse.isInteractive() && eventResponse.isInteractive()) {
 						Map<String, List<Path<Feature, String>>> actualResults = actualResponse.getResults();
 						Map<String, List<Path<Feature, String>>> eventResults = eventResponse.getResults();
@@ -172,6 +173,8 @@ public class ClientRequestHandler implements MessageListener {
 									}
 								}
 							}
+							responseJSON.put("blocksScanned", actualResponse.getBlocksScanned());
+							responseJSON.put("blocksPruned", actualResponse.getBlocksPruned());
 						}
 					}
 				} else if (event instanceof MetaResponse && this.response instanceof MetaResponse) {
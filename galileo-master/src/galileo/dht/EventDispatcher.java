@@ -0,0 +1,224 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.dht;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the work associated with incoming events on behalf of the
+ * {@link StorageNode}.  Events are still dequeued by a single reactor thread,
+ * which preserves their arrival order; the dispatcher then decides where the
+ * work runs:
+ * <ul>
+ *   <li>Writes (storage, file system creation and deletion) are queued on a
+ *   single-threaded executor owned by the target file system, so all writes to
+ *   a file system are applied in the order they arrived.</li>
+ *   <li>Reads (queries, metadata requests) are executed on a shared pool and
+ *   may run in parallel with each other and with writes.</li>
+ * </ul>
+ * In the default (non-concurrent) mode, tasks are executed inline on the
+ * calling thread, which reproduces the original single-threaded behavior.
+ * <p>
+ * The mode is selected with the galileo.dht.StorageNode.dispatch system
+ * property ("single" or "concurrent"), and the size of the read pool with
+ * galileo.dht.StorageNode.readThreads.
+ */
+public class EventDispatcher {
+
+    private static final Logger logger = Logger.getLogger("galileo");
+
+    public static final String DISPATCH_PROPERTY
+        = "galileo.dht.StorageNode.dispatch";
+    public static final String READ_THREADS_PROPERTY
+        = "galileo.dht.StorageNode.readThreads";
+
+    /**
+     * A unit of work produced by an event handler.
+     */
+    public interface Task {
+        public void execute() throws Exception;
+    }
+
+    private boolean concurrent;
+    private ExecutorService readPool;
+    private Map<String, ExecutorService> writers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an EventDispatcher configured from the system properties.
+     */
+    public static EventDispatcher fromSystemProperties() {
+        String mode = System.getProperty(DISPATCH_PROPERTY, "single");
+        int threads = Integer.parseInt(System.getProperty(
+                    READ_THREADS_PROPERTY,
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        if ("concurrent".equalsIgnoreCase(mode)) {
+            return new EventDispatcher(threads);
+        }
+        return new EventDispatcher();
+    }
+
+    /**
+     * Creates a dispatcher that runs every task inline on the calling thread.
+     */
+    public EventDispatcher() {
+        this.concurrent = false;
+    }
+
+    /**
+     * Creates a concurrent dispatcher.
+     *
+     * @param readThreads number of threads used to service read events.
+     */
+    public EventDispatcher(int readThreads) {
+        if (readThreads < 1) {
+            throw new IllegalArgumentException(
+                    "At least one read thread is required");
+        }
+
+        this.concurrent = true;
+        this.readPool = Executors.newFixedThreadPool(readThreads,
+                new NamedThreadFactory("galileo-read"));
+        logger.log(Level.INFO, "Concurrent event dispatch enabled; "
+                + "{0} read threads", readThreads);
+    }
+
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * Submits a task that only reads file system state.  Read tasks may run
+     * in parallel with each other and with writes.
+     */
+    public void submitRead(Task task) {
+        if (concurrent == false) {
+            runTask(task);
+            return;
+        }
+
+        readPool.execute(wrap(task));
+    }
+
+    /**
+     * Submits a task that modifies the given file system.  Writes to the same
+     * file system are executed one at a time, in submission order.
+     *
+     * @param fsName name of the file system being modified.
+     * @param task the work to perform.
+     */
+    public void submitWrite(String fsName, Task task) {
+        if (concurrent == false) {
+            runTask(task);
+            return;
+        }
+
+        ExecutorService writer = writers.get(fsName);
+        if (writer == null) {
+            ExecutorService newWriter = Executors.newSingleThreadExecutor(
+                    new NamedThreadFactory("galileo-write-" + fsName));
+            writer = writers.putIfAbsent(fsName, newWriter);
+            if (writer == null) {
+                writer = newWriter;
+            } else {
+                newWriter.shutdown();
+            }
+        }
+
+        writer.execute(wrap(task));
+    }
+
+    /**
+     * Stops accepting new tasks and waits (briefly) for queued writes to be
+     * applied.
+     */
+    public void shutdown() {
+        if (concurrent == false) {
+            return;
+        }
+
+        readPool.shutdown();
+        for (ExecutorService writer : writers.values()) {
+            writer.shutdown();
+        }
+
+        try {
+            for (ExecutorService writer : writers.values()) {
+                writer.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Runnable wrap(final Task task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                runTask(task);
+            }
+        };
+    }
+
+    /**
+     * Executes a task, logging (rather than propagating) any failures so that
+     * a single bad event does not take down a worker thread.
+     */
+    private void runTask(Task task) {
+        try {
+            task.execute();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "An exception occurred while processing "
+                    + "an event. Storage node is still up and running. "
+                    + "Exception details follow:", e);
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private String prefix;
+        private AtomicInteger counter = new AtomicInteger();
+
+        public NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
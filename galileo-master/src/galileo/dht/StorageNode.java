@@ -30,6 +30,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.file.FileVisitResult;
@@ -82,6 +83,9 @@ import galileo.event.EventReactor;
 import galileo.fs.FileSystemException;
 import galileo.fs.GeospatialFileSystem;
 import galileo.graph.Path;
+import galileo.graph.PathVisitor;
+import galileo.graph.StorageUsage;
+import galileo.graph.Vertex;
 import galileo.net.ClientConnectionPool;
 import galileo.net.MessageListener;
 import galileo.net.NetworkDestination;
@@ -119,6 +123,7 @@ public class StorageNode implements RequestListener {
 
 	private GalileoEventMap eventMap = new GalileoEventMap();
 	private EventReactor eventReactor = new EventReactor(this, eventMap);
+	private EventDispatcher dispatcher;
 	private List<ClientRequestHandler> requestHandlers;
 	private List<JoinRequestHandler> joinRequestHandlers;
 
@@ -194,7 +199,8 @@ public class StorageNode implements RequestListener {
 			throw new Exception(
 					"Failed to identify the group of the storage node. Type 'hostname' in the terminal and make sure that it matches the hostnames specified in the network configuration files.");
 
-		this.fsMap = new HashMap<>();
+		this.fsMap = new ConcurrentHashMap<>();
+		this.dispatcher = EventDispatcher.fromSystemProperties();
 		nodeStatus.set("Initializing communications");
 
 		/* Set up our Shutdown hook */
@@ -257,7 +263,17 @@ public class StorageNode implements RequestListener {
 	}
 
 	@EventHandler
-	public void handleFileSystem(FileSystemEvent event, EventContext context) throws FileSystemException, IOException {
+	public void handleFileSystem(final FileSystemEvent event, EventContext context) {
+		/* Creation and deletion are ordered with the writes to the file system */
+		dispatcher.submitWrite(event.getName(), new EventDispatcher.Task() {
+			@Override
+			public void execute() throws Exception {
+				performFileSystemAction(event);
+			}
+		});
+	}
+
+	private void performFileSystemAction(FileSystemEvent event) throws FileSystemException, IOException {
 		logger.log(Level.INFO,
 				"Performing action " + event.getAction().getAction() + " for file system " + event.getName());
 		if (event.getAction() == FileSystemAction.CREATE) {
@@ -315,8 +331,17 @@ public class StorageNode implements RequestListener {
 	}
 
 	@EventHandler
-	public void handleStorage(StorageEvent store, EventContext context) throws FileSystemException, IOException {
-		String fsName = store.getBlock().getFileSystem();
+	public void handleStorage(final StorageEvent store, EventContext context) {
+		final String fsName = store.getBlock().getFileSystem();
+		dispatcher.submitWrite(fsName, new EventDispatcher.Task() {
+			@Override
+			public void execute() throws Exception {
+				storeBlock(fsName, store);
+			}
+		});
+	}
+
+	private void storeBlock(String fsName, StorageEvent store) throws FileSystemException, IOException {
 		GeospatialFileSystem fs = fsMap.get(fsName);
 		if (fs != null) {
 			logger.log(Level.INFO, "Storing block " + store.getBlock() + " to filesystem " + fsName);
@@ -340,6 +365,8 @@ public class StorageNode implements RequestListener {
 				JSONArray names = new JSONArray();
 				for(String fsName : fsMap.keySet()){
 					GeospatialFileSystem fs = fsMap.get(fsName);
+					if (fs == null)
+						continue;
 					names.put(new JSONObject().put("name", fsName).put("lastModified", fs.getLastUpdated()).put("readOnly", fs.isReadOnly()));
 				}
 				response.put("result", names);
@@ -351,6 +378,8 @@ public class StorageNode implements RequestListener {
 				ClientRequestHandler reqHandler = new ClientRequestHandler(network.getAllDestinations(), context, this);
 				reqHandler.handleRequest(new MetaEvent(request.getRequest()), new MetaResponse(response));
 				this.requestHandlers.add(reqHandler);
+			} else if ("galileo#storage".equalsIgnoreCase(request.getRequest().getString("kind"))) {
+				context.sendReply(new MetaResponse(getStorageUsage(request.getRequest())));
 			} else {
 				JSONObject response = new JSONObject();
 				response.put("kind", request.getRequest().getString("kind"));
@@ -368,8 +397,61 @@ public class StorageNode implements RequestListener {
 		}
 	}
 
+	/**
+	 * Reports the blocks and bytes stored on this node, either under a
+	 * directory ("path", relative to each file system's storage directory)
+	 * or in the spatial directories with a geohash prefix ("geohash").
+	 * Usage is reported for the file systems named in the "filesystem" array
+	 * of the request, or for all of them.
+	 */
+	private JSONObject getStorageUsage(JSONObject request) {
+		List<String> fsNames = new ArrayList<String>();
+		if (request.has("filesystem") && request.get("filesystem") instanceof JSONArray) {
+			JSONArray names = request.getJSONArray("filesystem");
+			for (int i = 0; i < names.length(); i++)
+				fsNames.add(names.getString(i));
+		} else {
+			fsNames.addAll(fsMap.keySet());
+		}
+
+		JSONArray result = new JSONArray();
+		for (String fsName : fsNames) {
+			GeospatialFileSystem fs = fsMap.get(fsName);
+			if (fs == null)
+				continue;
+			JSONObject fsUsage = new JSONObject().put("name", fsName);
+			StorageUsage usage;
+			if (request.has("geohash")) {
+				fsUsage.put("geohash", request.getString("geohash"));
+				usage = fs.getGeohashUsage(request.getString("geohash"));
+			} else {
+				String path = request.optString("path", "");
+				fsUsage.put("path", path);
+				usage = fs.getStorageUsage(path);
+			}
+			fsUsage.put("blocks", usage == null ? 0 : usage.getBlocks());
+			fsUsage.put("bytes", usage == null ? 0 : usage.getBytes());
+			result.put(fsUsage);
+		}
+
+		JSONObject response = new JSONObject();
+		response.put("kind", "galileo#storage");
+		response.put("hostName", this.hostname);
+		response.put("result", result);
+		return response;
+	}
+
 	@EventHandler
-	public void handleMeta(MetaEvent event, EventContext context) throws IOException {
+	public void handleMeta(final MetaEvent event, final EventContext context) {
+		dispatcher.submitRead(new EventDispatcher.Task() {
+			@Override
+			public void execute() throws Exception {
+				answerMeta(event, context);
+			}
+		});
+	}
+
+	private void answerMeta(MetaEvent event, EventContext context) throws IOException {
 		if ("galileo#features".equalsIgnoreCase(event.getRequest().getString("kind"))) {
 			JSONObject request = event.getRequest();
 			JSONObject response = new JSONObject();
@@ -487,8 +569,19 @@ public class StorageNode implements RequestListener {
 	 * Handles an internal Query request (from another StorageNode)
 	 */
 	@EventHandler
-	public void handleQuery(QueryEvent event, EventContext context) throws IOException {
+	public void handleQuery(final QueryEvent event, final EventContext context) {
+		dispatcher.submitRead(new EventDispatcher.Task() {
+			@Override
+			public void execute() throws Exception {
+				answerQuery(event, context);
+			}
+		});
+	}
+
+	private void answerQuery(QueryEvent event, EventContext context) throws IOException {
 		long resultSize = 0;
+		long blocksScanned = 0;
+		long blocksPruned = 0;
 		Map<String, List<Path<Feature, String>>> results = new HashMap<String, List<Path<Feature, String>>>();
 		JSONObject resultsJSON = new JSONObject();
 		try {
@@ -506,35 +599,40 @@ public class StorageNode implements RequestListener {
 				System.out.println(blockMap);
 				for(String blockKey: blockMap.keySet()){
 					List<String> blocks = blockMap.get(blockKey);
-					List<Path<Feature, String>> resultPaths = new ArrayList<Path<Feature, String>>();
-					if(event.isInteractive())
-						results.put(blockKey, resultPaths);
+					final List<Path<Feature, String>> resultPaths = new ArrayList<Path<Feature, String>>();
 					FileWriter resultFile = null;
-					if (!event.isInteractive()) {
+					PathVisitor<String> visitor;
+					ResultFileVisitor fileVisitor = null;
+					if (event.isInteractive()) {
+						results.put(blockKey, resultPaths);
+						visitor = new PathVisitor<String>() {
+							@Override
+							public boolean visit(Path<Feature, String> path) {
+								resultPaths.add(path);
+								return true;
+							}
+						};
+					} else {
 						resultFile = new FileWriter(getQueryResultFileName(event.getQueryId(), blockKey));
 						resultFile.append("[");
+						fileVisitor = new ResultFileVisitor(resultFile);
+						visitor = fileVisitor;
 					}
-					int blockCount = 0;
 					for (String block : blocks) {
-						blockCount++;
-						List<Path<Feature, String>> qResults = fs.query(block,
-								new GeoavailabilityQuery(event.getQuery(), event.getPolygon()));
-						resultSize += qResults.size();
-						if (event.isInteractive())
-							resultPaths.addAll(qResults);
-						else {
-							int resultCount = 0;
-							for (Path<Feature, String> path : qResults) {
-								resultCount++;
-								JSONObject jsonPath = new JSONObject();
-								for (Feature feature : path.getLabels()) {
-									jsonPath.put(feature.getName(), feature.getString());
-								}
-								resultFile.append(jsonPath.toString());
-								if (blockCount != blocks.size() || resultCount != qResults.size())
-									resultFile.append(",");
+						if (fs.mayMatch(block, event.getQuery())) {
+							blocksScanned++;
+							try {
+								resultSize += fs.query(block,
+										new GeoavailabilityQuery(event.getQuery(), event.getPolygon()), visitor);
+							} catch (IOException e) {
+								/* A single unreadable block should not discard
+								 * the results of the rest of the query */
+								logger.log(Level.WARNING, "Failed to query block " + block + "; skipping it", e);
 							}
-
+							if (fileVisitor != null)
+								fileVisitor.checkError();
+						} else {
+							blocksPruned++;
 						}
 					}
 					if (resultFile != null) {
@@ -561,20 +659,69 @@ public class StorageNode implements RequestListener {
 					"Something went wrong while querying the filesystem. No results obtained. Sending blank list to the client. Issue details follow:",
 					e);
 		}
-		logger.info("Got " + resultSize + " results");
+		logger.info("Got " + resultSize + " results; scanned " + blocksScanned + " blocks, pruned " + blocksPruned);
+		GeospatialFileSystem queriedFS = fsMap.get(event.getFileSystemName());
+		if (queriedFS != null)
+			logger.fine("Block cache: " + queriedFS.getBlockCache());
 		if (event.isInteractive()) {
 			QueryResponse response = new QueryResponse(event.getQueryId(), results);
+			response.addBlockCounts(blocksScanned, blocksPruned);
 			context.sendReply(response);
 		} else {
 			JSONObject responseJSON = new JSONObject();
 			responseJSON.put("filesystem", event.getFileSystemName());
 			responseJSON.put("queryId", event.getQueryId());
 			responseJSON.put("result", resultsJSON);
+			responseJSON.put("blocksScanned", blocksScanned);
+			responseJSON.put("blocksPruned", blocksPruned);
 			QueryResponse response = new QueryResponse(event.getQueryId(), responseJSON);
+			response.addBlockCounts(blocksScanned, blocksPruned);
 			context.sendReply(response);
 		}
 	}
 
+	/**
+	 * Writes query results to a result file as a JSON array while a block is
+	 * being scanned, so non-interactive queries never hold a full result set
+	 * in memory.
+	 */
+	private static class ResultFileVisitor implements PathVisitor<String> {
+		private Writer writer;
+		private boolean first = true;
+		private IOException error;
+
+		public ResultFileVisitor(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public boolean visit(Path<Feature, String> path) {
+			JSONObject jsonPath = new JSONObject();
+			for (Vertex<Feature, String> vertex : path) {
+				Feature feature = vertex.getLabel();
+				jsonPath.put(feature.getName(), feature.getString());
+			}
+			try {
+				if (!first)
+					writer.append(",");
+				writer.append(jsonPath.toString());
+				first = false;
+				return true;
+			} catch (IOException e) {
+				error = e;
+				return false;
+			}
+		}
+
+		/**
+		 * Rethrows the first error encountered while writing results, if any.
+		 */
+		public void checkError() throws IOException {
+			if (error != null)
+				throw error;
+		}
+	}
+
 	@EventHandler
 	public void handleQueryResponse(QueryResponse response, EventContext context) throws IOException {
 		QueryTracker tracker = queryTrackers.get(response.getId());
@@ -625,6 +772,9 @@ public class StorageNode implements RequestListener {
 
 			nodeStatus.close();
 
+			if (dispatcher != null)
+				dispatcher.shutdown();
+
 			if (pidFile != null && pidFile.exists()) {
 				pidFile.delete();
 			}
@@ -3,6 +3,7 @@ package galileo.dht;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -103,66 +104,79 @@ public class TemporalHierarchyPartitioner extends Partitioner<Metadata> {
 		return info;
 	}
 
+	/**
+	 * Determines the nodes that may hold data matching the given metadata.  A
+	 * temporal range is sent to every group whose part of the temporal cycle
+	 * (e.g. day of the month) overlaps the range, and a spatial polygon to the
+	 * nodes responsible for the geohashes it intersects.
+	 */
 	public List<NodeInfo> findDestinations(Metadata data) throws HashException {
 		if (data == null)
 			return network.getAllNodes();
 
 		TemporalProperties tp = data.getTemporalProperties();
 		SpatialProperties sp = data.getSpatialProperties();
+		if (tp == null && sp == null)
+			return network.getAllNodes();
+
+		String[] hashes = null;
+		if (sp != null && sp.hasRange() && sp.getSpatialRange().hasPolygon()) {
+			List<Coordinates> polygon = sp.getSpatialRange().getPolygon();
+			//Spatial range
+			logger.info("Polygon - " + polygon);
+			// Geohash precision for spatial ring is 2.
+			hashes = GeoHash.getIntersectingGeohashes(polygon, 2);
+			logger.info("intersecting geohashes - " + Arrays.toString(hashes));
+		}
+
+		Set<BigInteger> groups = tp == null ? groupHashRing.getPositions() : locateGroups(tp);
 		Set<NodeInfo> destinations = new HashSet<NodeInfo>();
-		if (tp == null) {
-			Set<BigInteger> positions = groupHashRing.getPositions();
-			if (sp == null) {
-				return network.getAllNodes();
-			} else {
-				if (sp.hasRange() && sp.getSpatialRange().hasPolygon()) {
-					List<Coordinates> polygon = sp.getSpatialRange().getPolygon();
-					//Spatial range
-					logger.info("Polygon - " + polygon);
-					// Geohash precision for spatial ring is 2.
-					String[] hashes = GeoHash.getIntersectingGeohashes(polygon, 2);
-					logger.info("intersecting geohashes - " + Arrays.toString(hashes));
-					Metadata metadata = new Metadata();
-					for (BigInteger position : positions) {
-						HashRing<Metadata> nodeRing = nodeHashRings.get(position);
-						for (String hash : hashes) {
-							metadata.setSpatialProperties(new SpatialProperties(GeoHash.decodeHash(hash)));
-							BigInteger node = nodeRing.locate(metadata);
-							destinations.add(nodePositions.get(position).get(node));
-						}
-					}
-				} else {
-					for (BigInteger position : positions) {
-						HashRing<Metadata> nodeRing = nodeHashRings.get(position);
-						BigInteger node = nodeRing.locate(data);
-						destinations.add(nodePositions.get(position).get(node));
-					}
-				}
-			}
-		} else {
-			BigInteger groupPosition = groupHashRing.locate(data);
+		Metadata metadata = new Metadata();
+		for (BigInteger groupPosition : groups) {
+			HashRing<Metadata> nodeRing = nodeHashRings.get(groupPosition);
 			if (sp == null) {
-				HashRing<Metadata> nodeRing = nodeHashRings.get(groupPosition);
-				Set<BigInteger> npositions = nodeRing.getPositions();
-				for (BigInteger nposition : npositions)
+				for (BigInteger nposition : nodeRing.getPositions())
 					destinations.add(nodePositions.get(groupPosition).get(nposition));
-			} else {
-				HashRing<Metadata> nodeRing = nodeHashRings.get(groupPosition);
-				if (sp.hasRange() && sp.getSpatialRange().hasPolygon()) {
-					List<Coordinates> polygon = sp.getSpatialRange().getPolygon();
-					String[] hashes = GeoHash.getIntersectingGeohashes(polygon, 2);
-					Metadata metadata = new Metadata();
-					for (String hash : hashes) {
-						metadata.setSpatialProperties(new SpatialProperties(GeoHash.decodeHash(hash)));
-						BigInteger node = nodeRing.locate(metadata);
-						destinations.add(nodePositions.get(groupPosition).get(node));
-					}
-				} else {
-					BigInteger node = nodeRing.locate(data);
+			} else if (hashes != null) {
+				for (String hash : hashes) {
+					metadata.setSpatialProperties(new SpatialProperties(GeoHash.decodeHash(hash)));
+					BigInteger node = nodeRing.locate(metadata);
 					destinations.add(nodePositions.get(groupPosition).get(node));
 				}
+			} else {
+				BigInteger node = nodeRing.locate(data);
+				destinations.add(nodePositions.get(groupPosition).get(node));
 			}
 		}
 		return new ArrayList<NodeInfo>(destinations);
 	}
+
+	/**
+	 * Determines the positions of the groups holding data for a time range.
+	 * Groups are assigned by the calendar field of a block's start time that
+	 * the group hash uses, so the range is walked one unit of that field at a
+	 * time; once it spans a full cycle of the field, every group is included.
+	 */
+	private Set<BigInteger> locateGroups(TemporalProperties tp) throws HashException {
+		Set<BigInteger> positions = groupHashRing.getPositions();
+		Set<BigInteger> groups = new HashSet<BigInteger>();
+		Metadata metadata = new Metadata();
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(tp.getStart());
+		int cycle = groupHash.maxValue().intValue();
+		for (int i = 0; i <= cycle; ++i) {
+			if (c.getTimeInMillis() > tp.getEnd()) {
+				/* The last unit of the range may only be partly covered */
+				metadata.setTemporalProperties(new TemporalProperties(tp.getEnd()));
+				groups.add(groupHashRing.locate(metadata));
+				return groups;
+			}
+			metadata.setTemporalProperties(new TemporalProperties(c.getTimeInMillis()));
+			groups.add(groupHashRing.locate(metadata));
+			if (groups.size() == positions.size())
+				return groups;
+			c.add(groupHash.getTemporalType(), 1);
+		}
+		return new HashSet<BigInteger>(positions);
+	}
 }
@@ -29,6 +29,13 @@ public class TemporalHash implements HashFunction<Metadata> {
 		}
 	}
 
+	/**
+	 * Returns the java.util.Calendar field of the start time that is hashed.
+	 */
+	public int getTemporalType() {
+		return temporalType;
+	}
+
 	@Override
 	public BigInteger hash(Metadata data) throws HashException {
 		TemporalProperties temporalProps = data.getTemporalProperties();
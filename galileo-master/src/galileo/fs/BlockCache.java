@@ -0,0 +1,260 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.fs;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import galileo.bmp.GeoavailabilityMap;
+import galileo.dataset.Coordinates;
+
+/**
+ * A bounded, least-recently-used cache of decoded blocks.  Capacity is
+ * specified in bytes and entries are charged by the estimated heap footprint
+ * of their decoded columns and, once built, their geoavailability maps.
+ * <p>
+ * Blocks are removed from the cache with {@link #invalidate(String)} whenever
+ * they are modified.  Since a block may be modified while another thread is
+ * reading it from disk, loaders must obtain the block's generation number with
+ * {@link #getGeneration(String)} before reading and pass it to
+ * {@link #put(String, BlockFile, long)}; a block loaded before it was
+ * invalidated is not cached.  Generations are tracked per block, so writes to
+ * other blocks do not prevent a block from being cached.
+ */
+public class BlockCache {
+
+    /**
+     * A decoded block, along with lazily-built structures derived from it.
+     */
+    public class Entry {
+        private String blockPath;
+        private BlockFile blockFile;
+        private GeoavailabilityMap<Integer> geoMap;
+        private long size;
+
+        private Entry(String blockPath, BlockFile blockFile) {
+            this.blockPath = blockPath;
+            this.blockFile = blockFile;
+            this.size = blockFile.estimateSize();
+        }
+
+        public BlockFile getBlockFile() {
+            return blockFile;
+        }
+
+        /**
+         * Retrieves a {@link GeoavailabilityMap} of every row in the block
+         * with valid coordinates, keyed by the row's position within the
+         * block.  The map is built on first use.
+         *
+         * @param blockHash geohash covered by the block.
+         * @param precision precision of the geoavailability grid.
+         * @param latitude name of the latitude feature.
+         * @param longitude name of the longitude feature.
+         */
+        public synchronized GeoavailabilityMap<Integer> getGeoMap(
+                String blockHash, int precision,
+                String latitude, String longitude) {
+            if (geoMap != null) {
+                return geoMap;
+            }
+
+            geoMap = new GeoavailabilityMap<>(blockHash, precision);
+            int rowOffset = 0;
+            int points = 0;
+            for (ColumnSegment segment : blockFile.getSegments()) {
+                int latColumn = segment.getColumnIndex(latitude);
+                int lonColumn = segment.getColumnIndex(longitude);
+                if (latColumn != -1 && lonColumn != -1) {
+                    for (int r = 0; r < segment.getRowCount(); ++r) {
+                        float lat = segment.getFeature(latColumn, r).getFloat();
+                        float lon = segment.getFeature(lonColumn, r).getFloat();
+                        if (Float.isNaN(lat) == false
+                                && Float.isNaN(lon) == false) {
+                            geoMap.addPoint(new Coordinates(lat, lon),
+                                    rowOffset + r);
+                            points++;
+                        }
+                    }
+                }
+                rowOffset += segment.getRowCount();
+            }
+
+            /* Each point costs a boxed Integer plus its list slot, and each
+             * grid cell a map entry and list. */
+            resize(this, size + points * 24L
+                    + (long) geoMap.getGrid().getWidth()
+                    * geoMap.getGrid().getHeight() / 8);
+            return geoMap;
+        }
+    }
+
+    private long capacity;
+    private long size;
+
+    /* Number of times each modified block has been invalidated */
+    private Map<String, Long> generations = new HashMap<String, Long>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private Map<String, Entry> entries
+        = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Creates a new BlockCache.
+     *
+     * @param capacity maximum size of the cache, in bytes.  A capacity of zero
+     * disables caching.
+     */
+    public BlockCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Retrieves a cached block.
+     *
+     * @return the cache entry for the block, or null if it is not cached.
+     */
+    public synchronized Entry get(String blockPath) {
+        Entry entry = entries.get(blockPath);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a decoded block to the cache, evicting the least recently used
+     * blocks as necessary.
+     *
+     * @param generation generation of the block obtained before it was read.
+     *
+     * @return the cache entry for the block, or a standalone entry if the block
+     * could not be cached.
+     */
+    public synchronized Entry put(String blockPath, BlockFile blockFile,
+            long generation) {
+        Entry entry = new Entry(blockPath, blockFile);
+        if (generation != getGeneration(blockPath) || entry.size > capacity) {
+            return entry;
+        }
+
+        Entry previous = entries.put(blockPath, entry);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += entry.size;
+        evict();
+        return entry;
+    }
+
+    /**
+     * Removes a block from the cache.  This must be called whenever a block is
+     * modified.
+     */
+    public synchronized void invalidate(String blockPath) {
+        generations.put(blockPath, getGeneration(blockPath) + 1);
+        Entry entry = entries.remove(blockPath);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    /**
+     * Retrieves the generation of a block, which changes whenever the block
+     * is invalidated.
+     */
+    public synchronized long getGeneration(String blockPath) {
+        Long generation = generations.get(blockPath);
+        return generation == null ? 0 : generation;
+    }
+
+    private synchronized void resize(Entry entry, long newSize) {
+        if (entries.get(entry.blockPath) == entry) {
+            size += newSize - entry.size;
+        }
+        entry.size = newSize;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > capacity && it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            size -= entry.size;
+            evictions++;
+        }
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized JSONObject getMetricsJSON() {
+        JSONObject metrics = new JSONObject();
+        metrics.put("capacity", capacity);
+        metrics.put("size", size);
+        metrics.put("entries", entries.size());
+        metrics.put("hits", hits);
+        metrics.put("misses", misses);
+        metrics.put("evictions", evictions);
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return getMetricsJSON().toString();
+    }
+}
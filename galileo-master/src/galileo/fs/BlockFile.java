@@ -0,0 +1,616 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.fs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import galileo.dataset.Block;
+import galileo.dataset.Metadata;
+import galileo.serialization.SerializationException;
+import galileo.serialization.SerializationInputStream;
+import galileo.serialization.SerializationOutputStream;
+
+/**
+ * Append-only, columnar on-disk block format.  A block file is laid out as:
+ * <ol>
+ * <li>A fixed-size header: magic number, version, length of the metadata
+ * section, capacity of the segment table, and the number of committed
+ * segments.</li>
+ * <li>The metadata section: the owning file system name and the block
+ * {@link Metadata}.</li>
+ * <li>The segment table: the offset and length of each committed segment
+ * record.</li>
+ * <li>{@link ColumnSegment} records, each prefixed with a CRC32 checksum and
+ * its length in the same fashion as the {@link PathJournal}.</li>
+ * </ol>
+ * Since the metadata and the segment table sit at the front of the file,
+ * {@link #readMetadata(String)} only has to read the first few kilobytes of a
+ * block regardless of how much data it holds.
+ * <p>
+ * New rows are appended as additional segments, so the cost of an insert is
+ * proportional to the size of the new data rather than the size of the block.
+ * A segment only becomes visible once its table entry and the segment count
+ * in the header have been updated, and the file is synced once per append,
+ * after the commit.  A record left incomplete by a crash is ignored and
+ * overwritten by the next append.  Since a crash may also leave a committed
+ * table entry whose record (or the entry itself) never reached the disk,
+ * committed records that are out of bounds or fail their checksum are skipped
+ * without hiding the segments after them.  When the segment table fills
+ * up, or during compaction, the file is rewritten and replaced atomically.
+ */
+public class BlockFile {
+
+    private static final Logger logger = Logger.getLogger("galileo");
+
+    /** Magic number identifying columnar block files ("GBLK") */
+    public static final int MAGIC = 0x47424c4b;
+    public static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int SEGMENT_COUNT_OFFSET = 16;
+    private static final int TABLE_ENTRY_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int MIN_TABLE_CAPACITY = 64;
+
+    private String fileSystem;
+    private Metadata metadata;
+    private List<ColumnSegment> segments;
+
+    private BlockFile(String fileSystem, Metadata metadata,
+            List<ColumnSegment> segments) {
+        this.fileSystem = fileSystem;
+        this.metadata = metadata;
+        this.segments = segments;
+    }
+
+    public String getFileSystem() {
+        return fileSystem;
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    public List<ColumnSegment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    public int getRowCount() {
+        int rows = 0;
+        for (ColumnSegment segment : segments) {
+            rows += segment.getRowCount();
+        }
+        return rows;
+    }
+
+    /**
+     * Estimates the heap space occupied by the decoded contents of this block.
+     */
+    public long estimateSize() {
+        /* Rough allowance for the header Metadata */
+        long size = 512;
+        for (ColumnSegment segment : segments) {
+            size += segment.estimateSize();
+        }
+        return size;
+    }
+
+    /**
+     * Converts the contents of this block file to a legacy {@link Block}, with
+     * rows rendered as comma-separated lines.
+     */
+    public Block toBlock()
+    throws IOException {
+        StringBuilder data = new StringBuilder();
+        for (ColumnSegment segment : segments) {
+            for (int r = 0; r < segment.getRowCount(); ++r) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                for (int c = 0; c < segment.getColumnCount(); ++c) {
+                    if (c > 0) {
+                        data.append(',');
+                    }
+                    data.append(segment.getString(c, r));
+                }
+            }
+        }
+        return new Block(fileSystem, metadata,
+                data.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * Creates an in-memory BlockFile from its components, e.g. when adapting a
+     * block stored in the legacy format.
+     */
+    public static BlockFile fromSegments(String fileSystem, Metadata metadata,
+            List<ColumnSegment> segments) {
+        return new BlockFile(fileSystem, metadata, segments);
+    }
+
+    /**
+     * Determines whether the file at the given path is a columnar block file.
+     * Files written in the legacy serialized {@link Block} format return false.
+     */
+    public static boolean isBlockFile(String path)
+    throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                    new FileInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the header and all committed segments of a block file.
+     */
+    public static BlockFile read(String path)
+    throws IOException, SerializationException {
+        return read(path, false);
+    }
+
+    /**
+     * Reads the header and all committed segments of a block file.
+     *
+     * @param mapped if true, the file is memory-mapped and decoded directly
+     * from the mapping rather than being copied onto the heap first.  Repeated
+     * reads are then served from the OS page cache.
+     */
+    public static BlockFile read(String path, boolean mapped)
+    throws IOException, SerializationException {
+        if (mapped) {
+            return read(map(path), path);
+        }
+        return read(ByteBuffer.wrap(Files.readAllBytes(Paths.get(path))),
+                path);
+    }
+
+    /**
+     * Maps a block file into memory.  The mapping remains valid after the
+     * channel is closed and is released when the buffer is garbage collected.
+     */
+    private static MappedByteBuffer map(String path)
+    throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path),
+                    StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+        }
+    }
+
+    /**
+     * Decodes a block file from a buffer containing its full contents.
+     *
+     * @param buffer block file contents
+     * @param path location the contents were read from, used in diagnostics.
+     */
+    public static BlockFile read(ByteBuffer buffer, String path)
+    throws IOException, SerializationException {
+        Layout layout = readLayout(buffer, path);
+        BlockFile blockFile = decodeMetadata(buffer, layout, path);
+
+        for (int i = 0; i < layout.segmentCount; ++i) {
+            int entry = layout.tableStart + i * TABLE_ENTRY_SIZE;
+            long offset = buffer.getLong(entry);
+            int length = buffer.getInt(entry + 8);
+            if (offset < layout.dataStart || length < 0
+                    || offset + length > buffer.limit()) {
+                logger.warning("Segment table entry " + i + " of block "
+                        + path + " points outside of the file; ignoring "
+                        + "segment.");
+                continue;
+            }
+            buffer.limit((int) (offset + length));
+            buffer.position((int) offset);
+            ByteBuffer record = readRecord(buffer, path);
+            buffer.limit(buffer.capacity());
+            if (record == null) {
+                continue;
+            }
+            blockFile.segments.add(ColumnSegment.decode(record));
+        }
+        return blockFile;
+    }
+
+    /**
+     * Reads only the {@link Metadata} stored in the header of a block file.
+     * Only the fixed header and the metadata section are read from disk.
+     */
+    public static Metadata readMetadata(String path)
+    throws IOException, SerializationException {
+        return readMetadata(path, false);
+    }
+
+    /**
+     * Reads only the {@link Metadata} stored in the header of a block file.
+     *
+     * @param mapped if true, the header is decoded from a memory mapping of
+     * the file.
+     */
+    public static Metadata readMetadata(String path, boolean mapped)
+    throws IOException, SerializationException {
+        if (mapped) {
+            ByteBuffer buffer = map(path);
+            return decodeMetadata(buffer, readLayout(buffer, path), path)
+                .metadata;
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path),
+                    StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE, path);
+            Layout layout = readLayout(header, path);
+            ByteBuffer buffer = readFully(channel, 0,
+                    layout.metadataStart + layout.metadataLength, path);
+            return decodeMetadata(buffer, layout, path).metadata;
+        }
+    }
+
+    /**
+     * Determines the number of bytes of committed data in a block file: the
+     * end of its last committed segment.  This changes whenever the contents
+     * of the block change, so it can be used to check whether derived
+     * information (such as {@link BlockStatistics}) is up to date.  For files
+     * that are not in the current block file format, the file size is
+     * returned.
+     */
+    public static long getDataLength(String path)
+    throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path),
+                    StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return channel.size();
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE, path);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                return channel.size();
+            }
+            Layout layout = readLayout(header, path);
+            return dataEnd(channel, layout, path);
+        } catch (SerializationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Describes the locations of the sections within a block file.
+     */
+    private static class Layout {
+        int version;
+        int metadataStart;
+        int metadataLength;
+        int tableStart;
+        int tableCapacity;
+        int segmentCount;
+        int dataStart;
+    }
+
+    /**
+     * Parses the fixed header of a block file.  Only the first
+     * {@link #HEADER_SIZE} bytes of the buffer are examined.
+     */
+    private static Layout readLayout(ByteBuffer buffer, String path)
+    throws SerializationException {
+        if (buffer.limit() < 12 || buffer.getInt(0) != MAGIC) {
+            throw new SerializationException(
+                    "Not a columnar block file: " + path);
+        }
+
+        Layout layout = new Layout();
+        layout.version = buffer.getInt(4);
+        if (layout.version != VERSION) {
+            throw new SerializationException("Unsupported block file "
+                    + "version (" + layout.version + "): " + path);
+        }
+        if (buffer.limit() < HEADER_SIZE) {
+            throw new SerializationException(
+                    "Truncated block file header: " + path);
+        }
+        layout.metadataStart = HEADER_SIZE;
+        layout.metadataLength = buffer.getInt(8);
+        layout.tableCapacity = buffer.getInt(12);
+        layout.segmentCount = buffer.getInt(SEGMENT_COUNT_OFFSET);
+        layout.tableStart = layout.metadataStart + layout.metadataLength;
+        layout.dataStart = layout.tableStart
+            + layout.tableCapacity * TABLE_ENTRY_SIZE;
+        if (layout.metadataLength < 0 || layout.segmentCount < 0
+                || layout.segmentCount > layout.tableCapacity) {
+            throw new SerializationException(
+                    "Corrupt block file header: " + path);
+        }
+        return layout;
+    }
+
+    private static BlockFile decodeMetadata(ByteBuffer buffer, Layout layout,
+            String path)
+    throws IOException, SerializationException {
+        if (layout.metadataStart + layout.metadataLength > buffer.limit()) {
+            throw new SerializationException(
+                    "Truncated block file header: " + path);
+        }
+
+        byte[] header = new byte[layout.metadataLength];
+        buffer.position(layout.metadataStart);
+        buffer.get(header);
+        SerializationInputStream headerIn = new SerializationInputStream(
+                new ByteArrayInputStream(header));
+        String fileSystem = headerIn.readString();
+        Metadata metadata = new Metadata(headerIn);
+        headerIn.close();
+
+        return new BlockFile(fileSystem, metadata,
+                new ArrayList<ColumnSegment>());
+    }
+
+    /**
+     * Reads the next checksummed record from the buffer.
+     *
+     * @return a buffer holding the record contents, or null if the record is
+     * truncated or damaged.
+     */
+    private static ByteBuffer readRecord(ByteBuffer buffer, String path) {
+        if (buffer.remaining() < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        long check = buffer.getLong();
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            logger.warning("Truncated segment in block " + path
+                    + "; ignoring segment.");
+            return null;
+        }
+
+        ByteBuffer record = buffer.slice();
+        record.limit(length);
+        buffer.position(buffer.position() + length);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate());
+        if (crc.getValue() != check) {
+            logger.warning("Detected checksum mismatch in block " + path
+                    + "; ignoring segment.");
+            return null;
+        }
+        return record;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position,
+            int length, String path)
+    throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of block " + path);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer,
+            long position)
+    throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Determines the end of the last committed segment record.  Table
+     * entries left blank by a crash (the segment count may reach the disk
+     * before the entry it commits) are passed over.
+     */
+    private static long dataEnd(FileChannel channel, Layout layout,
+            String path)
+    throws IOException {
+        if (layout.segmentCount == 0) {
+            return layout.dataStart;
+        }
+        ByteBuffer table = readFully(channel, layout.tableStart,
+                layout.segmentCount * TABLE_ENTRY_SIZE, path);
+        for (int i = layout.segmentCount - 1; i >= 0; --i) {
+            long offset = table.getLong(i * TABLE_ENTRY_SIZE);
+            int length = table.getInt(i * TABLE_ENTRY_SIZE + 8);
+            if (offset >= layout.dataStart && length >= 0) {
+                return offset + length;
+            }
+        }
+        return layout.dataStart;
+    }
+
+    /**
+     * Writes a new block file containing the given segments.  The file is
+     * written to a temporary location, synced, and moved into place
+     * atomically, so neither readers nor a crash can observe a
+     * partially-written block.
+     */
+    public static void create(String path, String fileSystem,
+            Metadata metadata, List<ColumnSegment> segments)
+    throws IOException {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        SerializationOutputStream sOut = new SerializationOutputStream(bOut);
+        sOut.writeString(fileSystem);
+        sOut.writeSerializable(metadata);
+        sOut.close();
+        byte[] metadataBytes = bOut.toByteArray();
+
+        List<byte[]> records = new ArrayList<>();
+        for (ColumnSegment segment : segments) {
+            records.add(createRecord(segment));
+        }
+
+        int capacity = Math.max(MIN_TABLE_CAPACITY, records.size() * 2);
+        java.nio.file.Path tempPath = Paths.get(path + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(
+                    tempPath.toFile());
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(metadataBytes.length);
+            out.writeInt(capacity);
+            out.writeInt(records.size());
+            out.writeInt(0);
+            out.write(metadataBytes);
+
+            long offset = HEADER_SIZE + metadataBytes.length
+                + capacity * TABLE_ENTRY_SIZE;
+            for (byte[] record : records) {
+                out.writeLong(offset);
+                out.writeInt(record.length);
+                offset += record.length;
+            }
+            out.write(new byte[(capacity - records.size())
+                    * TABLE_ENTRY_SIZE]);
+
+            for (byte[] record : records) {
+                out.write(record);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tempPath, Paths.get(path),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Appends a segment to an existing block file without rewriting any of
+     * its prior contents.  The record is written after the last committed
+     * segment, and then committed by adding it to the segment table and
+     * updating the segment count, after which the file is synced.  If the
+     * segment table is full, the block is rewritten.
+     *
+     * @return the data length of the block after the append, as reported by
+     * {@link #getDataLength(String)}.
+     */
+    public static long append(String path, ColumnSegment segment)
+    throws IOException {
+        Layout layout;
+        try (FileChannel channel = FileChannel.open(Paths.get(path),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            layout = readLayout(readFully(channel, 0, HEADER_SIZE, path), path);
+            if (layout.segmentCount < layout.tableCapacity) {
+                long offset = dataEnd(channel, layout, path);
+                byte[] record = createRecord(segment);
+                writeFully(channel, ByteBuffer.wrap(record), offset);
+
+                ByteBuffer entry = ByteBuffer.allocate(TABLE_ENTRY_SIZE);
+                entry.putLong(offset).putInt(record.length).flip();
+                writeFully(channel, entry, layout.tableStart
+                        + layout.segmentCount * TABLE_ENTRY_SIZE);
+
+                ByteBuffer count = ByteBuffer.allocate(4);
+                count.putInt(layout.segmentCount + 1).flip();
+                writeFully(channel, count, SEGMENT_COUNT_OFFSET);
+                channel.force(false);
+                return offset + record.length;
+            }
+        } catch (SerializationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        /* Rewrite the block with room for more segments */
+        try {
+            BlockFile blockFile = read(path);
+            blockFile.segments.add(segment);
+            create(path, blockFile.fileSystem, blockFile.metadata,
+                    blockFile.segments);
+        } catch (SerializationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return getDataLength(path);
+    }
+
+    /**
+     * Rewrites a block file, merging runs of adjacent segments that share the
+     * same schema into single segments.
+     *
+     * @return the number of segments in the compacted block.
+     */
+    public static int compact(String path)
+    throws IOException, SerializationException {
+        BlockFile blockFile = read(path);
+        List<ColumnSegment> compacted = new ArrayList<>();
+        List<ColumnSegment> run = new ArrayList<>();
+        for (ColumnSegment segment : blockFile.segments) {
+            if (run.isEmpty() == false
+                    && run.get(0).hasSameSchema(segment) == false) {
+                compacted.add(ColumnSegment.merge(run));
+                run.clear();
+            }
+            run.add(segment);
+        }
+        if (run.isEmpty() == false) {
+            compacted.add(ColumnSegment.merge(run));
+        }
+
+        create(path, blockFile.fileSystem, blockFile.metadata, compacted);
+        return compacted.size();
+    }
+
+    /**
+     * Encodes a segment and frames it with its checksum and length.
+     */
+    private static byte[] createRecord(ColumnSegment segment)
+    throws IOException {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        DataOutputStream dOut = new DataOutputStream(bOut);
+        segment.encode(dOut);
+        dOut.close();
+        byte[] segmentBytes = bOut.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(segmentBytes);
+
+        ByteBuffer record = ByteBuffer.allocate(
+                RECORD_HEADER_SIZE + segmentBytes.length);
+        record.putLong(crc.getValue());
+        record.putInt(segmentBytes.length);
+        record.put(segmentBytes);
+        return record.array();
+    }
+}
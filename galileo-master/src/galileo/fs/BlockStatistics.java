@@ -0,0 +1,232 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.query.Query;
+import galileo.serialization.ByteSerializable;
+import galileo.serialization.SerializationException;
+import galileo.serialization.SerializationInputStream;
+import galileo.serialization.SerializationOutputStream;
+import galileo.serialization.Serializer;
+
+/**
+ * Per-block zone maps: {@link ColumnStatistics} for every queryable feature
+ * stored in a block.  The statistics are kept in a sidecar file next to the
+ * block and record the data length of the block file they describe (see
+ * {@link BlockFile#getDataLength(String)}), so statistics left stale by an
+ * interrupted write can be detected and rebuilt.
+ */
+public class BlockStatistics implements ByteSerializable {
+
+    public static final String EXTENSION = ".stats";
+
+    private long rows;
+    private long blockLength;
+    private Map<String, ColumnStatistics> columns = new LinkedHashMap<>();
+
+    public BlockStatistics() { }
+
+    /**
+     * Builds statistics that summarize the entire contents of a block.
+     *
+     * @param blockLength data length of the block file being summarized.
+     */
+    public static BlockStatistics fromSegments(List<ColumnSegment> segments,
+            long blockLength) {
+        BlockStatistics stats = new BlockStatistics();
+        for (ColumnSegment segment : segments) {
+            stats.update(segment, blockLength);
+        }
+        stats.blockLength = blockLength;
+        return stats;
+    }
+
+    public synchronized long getRowCount() {
+        return rows;
+    }
+
+    public synchronized long getBlockLength() {
+        return blockLength;
+    }
+
+    public synchronized void setBlockLength(long blockLength) {
+        this.blockLength = blockLength;
+    }
+
+    public synchronized ColumnStatistics getColumn(String name) {
+        return columns.get(name);
+    }
+
+    /**
+     * Incorporates a newly-appended segment into the statistics.
+     *
+     * @param blockLength data length of the block file after the append.
+     */
+    public synchronized void update(ColumnSegment segment, long blockLength) {
+        Set<String> present = new HashSet<>();
+        for (int c = 0; c < segment.getColumnCount(); ++c) {
+            if (SegmentScanner.isQueryable(segment.getColumnType(c))
+                    == false) {
+                continue;
+            }
+
+            String name = segment.getColumnName(c);
+            ColumnStatistics stats = columns.get(name);
+            if (stats == null) {
+                stats = new ColumnStatistics(name, segment.getColumnType(c));
+                /* Rows stored before this feature appeared lack a value */
+                stats.addNulls(rows);
+                columns.put(name, stats);
+            }
+            stats.update(segment, c);
+            present.add(name);
+        }
+
+        for (ColumnStatistics stats : columns.values()) {
+            if (present.contains(stats.getName()) == false) {
+                stats.addNulls(segment.getRowCount());
+            }
+        }
+
+        rows += segment.getRowCount();
+        this.blockLength = blockLength;
+    }
+
+    /**
+     * Determines whether any row in the block could satisfy a {@link Query}.
+     * The result is conservative: false is only returned when no row can
+     * match, in which case the block does not need to be read.
+     */
+    public synchronized boolean mayMatch(Query query) {
+        if (query == null) {
+            return rows > 0;
+        }
+
+        if (rows == 0) {
+            return false;
+        }
+
+        for (Operation operation : query.getOperations()) {
+            if (mayMatch(operation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean mayMatch(Operation operation) {
+        for (Expression expression : operation.getExpressions()) {
+            ColumnStatistics stats = columns.get(expression.getOperand());
+            if (stats == null) {
+                /* Features absent from the block are ignored */
+                continue;
+            }
+            if (stats.mayMatch(expression) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the statistics for a block to its sidecar file.  Queries may
+     * rebuild and persist statistics while the block is being written, so
+     * each call writes to its own temporary file before replacing the
+     * sidecar.
+     */
+    public synchronized void persist(String blockPath)
+    throws IOException {
+        java.nio.file.Path sidecar = Paths.get(blockPath + EXTENSION);
+        java.nio.file.Path tempPath = Files.createTempFile(
+                sidecar.toAbsolutePath().getParent(),
+                sidecar.getFileName() + ".", ".tmp");
+        try {
+            Files.write(tempPath, Serializer.serialize(this));
+            Files.move(tempPath, sidecar,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Reads the statistics for a block from its sidecar file.
+     *
+     * @return the statistics, or null if the sidecar file does not exist or
+     * does not describe the current contents of the block.
+     */
+    public static BlockStatistics restore(String blockPath)
+    throws IOException, SerializationException {
+        File statsFile = new File(blockPath + EXTENSION);
+        if (statsFile.exists() == false) {
+            return null;
+        }
+
+        BlockStatistics stats
+            = Serializer.restore(BlockStatistics.class, statsFile);
+        if (stats.blockLength != BlockFile.getDataLength(blockPath)) {
+            return null;
+        }
+        return stats;
+    }
+
+    @Deserialize
+    public BlockStatistics(SerializationInputStream in)
+    throws IOException, SerializationException {
+        rows = in.readLong();
+        blockLength = in.readLong();
+        int numColumns = in.readInt();
+        for (int i = 0; i < numColumns; ++i) {
+            ColumnStatistics stats = new ColumnStatistics(in);
+            columns.put(stats.getName(), stats);
+        }
+    }
+
+    @Override
+    public synchronized void serialize(SerializationOutputStream out)
+    throws IOException {
+        out.writeLong(rows);
+        out.writeLong(blockLength);
+        out.writeInt(columns.size());
+        for (ColumnStatistics stats : columns.values()) {
+            out.writeSerializable(stats);
+        }
+    }
+}
@@ -0,0 +1,565 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.fs;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import galileo.dataset.feature.Feature;
+import galileo.dataset.feature.FeatureType;
+import galileo.serialization.SerializationException;
+import galileo.util.Math;
+import galileo.util.Pair;
+
+/**
+ * A batch of rows stored column-by-column.  Each segment carries its own
+ * schema (column names and {@link FeatureType}s), so segments appended to a
+ * block at different times remain readable even if the feature hierarchy of
+ * the file system grows in the meantime.
+ * <p>
+ * Numeric columns are stored as primitive arrays and encoded as raw binary
+ * values; all other column types are retained as Strings.  String columns
+ * with few distinct values are dictionary-encoded on disk, and decoded rows
+ * share the dictionary's String instances.
+ */
+public class ColumnSegment {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte PLAIN = 0;
+    private static final byte DICTIONARY = 1;
+
+    private String[] names;
+    private FeatureType[] types;
+    private Object[] columns;
+    private int rows;
+
+    private ColumnSegment(String[] names, FeatureType[] types,
+            Object[] columns, int rows) {
+        this.names = names;
+        this.types = types;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    public FeatureType getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * Retrieves the index of the named column, or -1 if the segment does not
+     * contain a column with the given name.
+     */
+    public int getColumnIndex(String name) {
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Determines whether this segment and another share the same column names
+     * and types, in the same order.
+     */
+    public boolean hasSameSchema(ColumnSegment other) {
+        return Arrays.equals(names, other.names)
+            && Arrays.equals(types, other.types);
+    }
+
+    /**
+     * Creates a {@link Feature} for the value stored at the given position.
+     * Only the scalar types supported by the query path (INT, LONG, FLOAT,
+     * DOUBLE, and STRING) are materialized; null is returned for all others.
+     */
+    public Feature getFeature(int column, int row) {
+        String name = names[column];
+        switch (types[column]) {
+            case INT:
+                return new Feature(name, ((int[]) columns[column])[row]);
+            case LONG:
+                return new Feature(name, ((long[]) columns[column])[row]);
+            case FLOAT:
+                return new Feature(name, ((float[]) columns[column])[row]);
+            case DOUBLE:
+                return new Feature(name, ((double[]) columns[column])[row]);
+            case STRING:
+                return new Feature(name, ((String[]) columns[column])[row]);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Retrieves the String representation of the value stored at the given
+     * position.
+     */
+    public String getString(int column, int row) {
+        switch (types[column]) {
+            case INT:
+                return Integer.toString(((int[]) columns[column])[row]);
+            case LONG:
+                return Long.toString(((long[]) columns[column])[row]);
+            case FLOAT:
+                return Float.toString(((float[]) columns[column])[row]);
+            case DOUBLE:
+                return Double.toString(((double[]) columns[column])[row]);
+            default:
+                return ((String[]) columns[column])[row];
+        }
+    }
+
+    /**
+     * Provides direct access to the backing array of a column: an int[],
+     * long[], float[], or double[] for numeric columns, or a String[] for all
+     * other types.
+     */
+    public Object getColumn(int column) {
+        return columns[column];
+    }
+
+    /**
+     * Estimates the heap space occupied by this segment's decoded columns.
+     * String instances shared between rows, as produced by dictionary
+     * decoding, are only counted once.
+     */
+    public long estimateSize() {
+        long size = 64;
+        for (int c = 0; c < columns.length; ++c) {
+            size += 16 + names[c].length() * 2;
+            switch (types[c]) {
+                case INT:
+                case FLOAT:
+                    size += rows * 4L;
+                    break;
+                case LONG:
+                case DOUBLE:
+                    size += rows * 8L;
+                    break;
+                default: {
+                    String[] values = (String[]) columns[c];
+                    Set<String> counted = Collections.newSetFromMap(
+                            new IdentityHashMap<String, Boolean>());
+                    size += rows * 8L;
+                    for (String value : values) {
+                        if (counted.add(value)) {
+                            size += 40 + value.length() * 2;
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Concatenates a list of segments that share the same schema into a single
+     * segment.
+     */
+    public static ColumnSegment merge(List<ColumnSegment> segments) {
+        ColumnSegment first = segments.get(0);
+        int totalRows = 0;
+        for (ColumnSegment segment : segments) {
+            if (segment.hasSameSchema(first) == false) {
+                throw new IllegalArgumentException(
+                        "Cannot merge segments with differing schemas");
+            }
+            totalRows += segment.rows;
+        }
+
+        Object[] merged = new Object[first.columns.length];
+        for (int c = 0; c < merged.length; ++c) {
+            merged[c] = allocate(first.types[c], totalRows);
+            int offset = 0;
+            for (ColumnSegment segment : segments) {
+                System.arraycopy(segment.columns[c], 0,
+                        merged[c], offset, segment.rows);
+                offset += segment.rows;
+            }
+        }
+        return new ColumnSegment(first.names, first.types, merged, totalRows);
+    }
+
+    private static Object allocate(FeatureType type, int size) {
+        switch (type) {
+            case INT: return new int[size];
+            case LONG: return new long[size];
+            case FLOAT: return new float[size];
+            case DOUBLE: return new double[size];
+            default: return new String[size];
+        }
+    }
+
+    /**
+     * Accumulates rows into a ColumnSegment, converting each value to the type
+     * declared by the schema.
+     */
+    public static class Builder {
+
+        private String[] names;
+        private FeatureType[] types;
+        private Object[] columns;
+        private int rows;
+        private int capacity;
+
+        public Builder(List<Pair<String, FeatureType>> schema) {
+            names = new String[schema.size()];
+            types = new FeatureType[schema.size()];
+            columns = new Object[schema.size()];
+            capacity = 16;
+            for (int i = 0; i < names.length; ++i) {
+                names[i] = schema.get(i).a;
+                types[i] = schema.get(i).b;
+                columns[i] = allocate(types[i], capacity);
+            }
+        }
+
+        /**
+         * Adds a row of delimited text values to the segment.
+         *
+         * @return true if the row was added, or false if the number of values
+         * did not match the schema.
+         */
+        public boolean addRow(String[] values) {
+            if (values.length != names.length) {
+                return false;
+            }
+
+            ensureCapacity();
+            for (int c = 0; c < values.length; ++c) {
+                switch (types[c]) {
+                    case INT:
+                        ((int[]) columns[c])[rows]
+                            = Math.getInteger(values[c]);
+                        break;
+                    case LONG:
+                        ((long[]) columns[c])[rows] = Math.getLong(values[c]);
+                        break;
+                    case FLOAT:
+                        ((float[]) columns[c])[rows]
+                            = Math.getFloat(values[c]);
+                        break;
+                    case DOUBLE:
+                        ((double[]) columns[c])[rows]
+                            = Math.getDouble(values[c]);
+                        break;
+                    default:
+                        ((String[]) columns[c])[rows] = values[c];
+                        break;
+                }
+            }
+            rows++;
+            return true;
+        }
+
+        /**
+         * Adds a row of {@link Feature}s to the segment, reading each value
+         * directly in the type declared by the schema.
+         *
+         * @return true if the row was added, or false if the number of values
+         * did not match the schema.
+         */
+        public boolean addRow(Feature[] values) {
+            if (values.length != names.length) {
+                return false;
+            }
+
+            ensureCapacity();
+            for (int c = 0; c < values.length; ++c) {
+                switch (types[c]) {
+                    case INT:
+                        ((int[]) columns[c])[rows] = values[c].getInt();
+                        break;
+                    case LONG:
+                        ((long[]) columns[c])[rows] = values[c].getLong();
+                        break;
+                    case FLOAT:
+                        ((float[]) columns[c])[rows] = values[c].getFloat();
+                        break;
+                    case DOUBLE:
+                        ((double[]) columns[c])[rows] = values[c].getDouble();
+                        break;
+                    default:
+                        ((String[]) columns[c])[rows]
+                            = values[c].dataToString();
+                        break;
+                }
+            }
+            rows++;
+            return true;
+        }
+
+        private void ensureCapacity() {
+            if (rows < capacity) {
+                return;
+            }
+
+            capacity *= 2;
+            for (int c = 0; c < columns.length; ++c) {
+                Object grown = allocate(types[c], capacity);
+                System.arraycopy(columns[c], 0, grown, 0, rows);
+                columns[c] = grown;
+            }
+        }
+
+        public int getRowCount() {
+            return rows;
+        }
+
+        public ColumnSegment build() {
+            Object[] trimmed = new Object[columns.length];
+            for (int c = 0; c < columns.length; ++c) {
+                trimmed[c] = allocate(types[c], rows);
+                System.arraycopy(columns[c], 0, trimmed[c], 0, rows);
+            }
+            return new ColumnSegment(names, types, trimmed, rows);
+        }
+    }
+
+    /**
+     * Writes the binary encoding of this segment.  String columns are
+     * dictionary-encoded when at most half of their values are distinct.
+     */
+    public void encode(DataOutputStream out)
+    throws IOException {
+        out.writeInt(names.length);
+        for (int c = 0; c < names.length; ++c) {
+            writeUTF8(out, names[c]);
+            out.writeInt(types[c].toInt());
+        }
+
+        out.writeInt(rows);
+        for (int c = 0; c < columns.length; ++c) {
+            switch (types[c]) {
+                case INT:
+                    for (int value : (int[]) columns[c]) {
+                        out.writeInt(value);
+                    }
+                    break;
+                case LONG:
+                    for (long value : (long[]) columns[c]) {
+                        out.writeLong(value);
+                    }
+                    break;
+                case FLOAT:
+                    for (float value : (float[]) columns[c]) {
+                        out.writeFloat(value);
+                    }
+                    break;
+                case DOUBLE:
+                    for (double value : (double[]) columns[c]) {
+                        out.writeDouble(value);
+                    }
+                    break;
+                default:
+                    encodeStrings(out, (String[]) columns[c]);
+                    break;
+            }
+        }
+    }
+
+    private static void encodeStrings(DataOutputStream out, String[] values)
+    throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        for (String value : values) {
+            if (dictionary.containsKey(value) == false) {
+                dictionary.put(value, dictionary.size());
+            }
+            if (dictionary.size() * 2 > values.length) {
+                break;
+            }
+        }
+
+        if (dictionary.size() * 2 > values.length) {
+            out.writeByte(PLAIN);
+            for (String value : values) {
+                writeUTF8(out, value);
+            }
+            return;
+        }
+
+        out.writeByte(DICTIONARY);
+        String[] entries = new String[dictionary.size()];
+        for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+            entries[entry.getValue()] = entry.getKey();
+        }
+        out.writeInt(entries.length);
+        for (String entry : entries) {
+            writeUTF8(out, entry);
+        }
+
+        int width = codeWidth(entries.length);
+        for (String value : values) {
+            int code = dictionary.get(value);
+            if (width == 1) {
+                out.writeByte(code);
+            } else if (width == 2) {
+                out.writeShort(code);
+            } else {
+                out.writeInt(code);
+            }
+        }
+    }
+
+    /**
+     * Determines the number of bytes used to store dictionary codes.
+     */
+    private static int codeWidth(int dictionarySize) {
+        if (dictionarySize <= 0xFF + 1) {
+            return 1;
+        } else if (dictionarySize <= 0xFFFF + 1) {
+            return 2;
+        } else {
+            return 4;
+        }
+    }
+
+    private static void writeUTF8(DataOutputStream out, String value)
+    throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readUTF8(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), length, UTF8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, UTF8);
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a segment from the given buffer, reading primitive values
+     * directly.  The buffer is advanced past the end of the segment.
+     *
+     * @param buffer buffer positioned at the start of an encoded segment.
+     */
+    public static ColumnSegment decode(ByteBuffer buffer)
+    throws SerializationException {
+        try {
+            int numColumns = buffer.getInt();
+            String[] names = new String[numColumns];
+            FeatureType[] types = new FeatureType[numColumns];
+            for (int c = 0; c < numColumns; ++c) {
+                names[c] = readUTF8(buffer);
+                types[c] = FeatureType.fromInt(buffer.getInt());
+            }
+
+            int rows = buffer.getInt();
+            Object[] columns = new Object[numColumns];
+            for (int c = 0; c < numColumns; ++c) {
+                columns[c] = allocate(types[c], rows);
+                switch (types[c]) {
+                    case INT:
+                        buffer.asIntBuffer().get((int[]) columns[c]);
+                        buffer.position(buffer.position() + rows * 4);
+                        break;
+                    case LONG:
+                        buffer.asLongBuffer().get((long[]) columns[c]);
+                        buffer.position(buffer.position() + rows * 8);
+                        break;
+                    case FLOAT:
+                        buffer.asFloatBuffer().get((float[]) columns[c]);
+                        buffer.position(buffer.position() + rows * 4);
+                        break;
+                    case DOUBLE:
+                        buffer.asDoubleBuffer().get((double[]) columns[c]);
+                        buffer.position(buffer.position() + rows * 8);
+                        break;
+                    default:
+                        decodeStrings(buffer, (String[]) columns[c]);
+                        break;
+                }
+            }
+            return new ColumnSegment(names, types, columns, rows);
+        } catch (RuntimeException e) {
+            throw new SerializationException(
+                    "Malformed column segment: " + e.getMessage());
+        }
+    }
+
+    private static void decodeStrings(ByteBuffer buffer, String[] values)
+    throws SerializationException {
+        byte encoding = buffer.get();
+        if (encoding == PLAIN) {
+            for (int r = 0; r < values.length; ++r) {
+                values[r] = readUTF8(buffer);
+            }
+        } else if (encoding == DICTIONARY) {
+            String[] entries = new String[buffer.getInt()];
+            for (int i = 0; i < entries.length; ++i) {
+                entries[i] = readUTF8(buffer);
+            }
+
+            int width = codeWidth(entries.length);
+            for (int r = 0; r < values.length; ++r) {
+                int code;
+                if (width == 1) {
+                    code = buffer.get() & 0xFF;
+                } else if (width == 2) {
+                    code = buffer.getShort() & 0xFFFF;
+                } else {
+                    code = buffer.getInt();
+                }
+                values[r] = entries[code];
+            }
+        } else {
+            throw new SerializationException(
+                    "Unknown string column encoding: " + encoding);
+        }
+    }
+}
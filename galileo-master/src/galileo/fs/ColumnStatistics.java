@@ -0,0 +1,282 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.fs;
+
+import java.io.IOException;
+
+import galileo.dataset.feature.Feature;
+import galileo.dataset.feature.FeatureType;
+import galileo.query.Expression;
+import galileo.serialization.ByteSerializable;
+import galileo.serialization.SerializationException;
+import galileo.serialization.SerializationInputStream;
+import galileo.serialization.SerializationOutputStream;
+
+/**
+ * Zone map for a single feature in a block: the minimum and maximum values
+ * stored, along with the number of null rows.  Null rows are NaN values and
+ * rows from segments that do not contain the feature at all.
+ */
+public class ColumnStatistics implements ByteSerializable {
+
+    private String name;
+    private FeatureType type;
+
+    /* Set if segments disagree on the type of this feature; the statistics
+     * can no longer be used to rule out matches. */
+    private boolean mixedTypes;
+
+    private Feature min;
+    private Feature max;
+    private long nullCount;
+
+    public ColumnStatistics(String name, FeatureType type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FeatureType getType() {
+        return type;
+    }
+
+    /**
+     * @return the smallest non-null value, or null if every row is null.
+     */
+    public Feature getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest non-null value, or null if every row is null.
+     */
+    public Feature getMax() {
+        return max;
+    }
+
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    public void addNulls(long count) {
+        nullCount += count;
+    }
+
+    /**
+     * Incorporates the values of a segment column into the statistics.
+     */
+    public void update(ColumnSegment segment, int column) {
+        if (segment.getColumnType(column) != type) {
+            mixedTypes = true;
+            return;
+        }
+
+        int rows = segment.getRowCount();
+        switch (type) {
+            case INT: {
+                int[] values = (int[]) segment.getColumn(column);
+                int low = Integer.MAX_VALUE;
+                int high = Integer.MIN_VALUE;
+                for (int r = 0; r < rows; ++r) {
+                    low = Math.min(low, values[r]);
+                    high = Math.max(high, values[r]);
+                }
+                if (rows > 0) {
+                    include(new Feature(name, low));
+                    include(new Feature(name, high));
+                }
+                break;
+            }
+            case LONG: {
+                long[] values = (long[]) segment.getColumn(column);
+                long low = Long.MAX_VALUE;
+                long high = Long.MIN_VALUE;
+                for (int r = 0; r < rows; ++r) {
+                    low = Math.min(low, values[r]);
+                    high = Math.max(high, values[r]);
+                }
+                if (rows > 0) {
+                    include(new Feature(name, low));
+                    include(new Feature(name, high));
+                }
+                break;
+            }
+            case FLOAT: {
+                float[] values = (float[]) segment.getColumn(column);
+                float low = Float.POSITIVE_INFINITY;
+                float high = Float.NEGATIVE_INFINITY;
+                int nonNull = 0;
+                for (int r = 0; r < rows; ++r) {
+                    if (Float.isNaN(values[r])) {
+                        nullCount++;
+                        continue;
+                    }
+                    low = Math.min(low, values[r]);
+                    high = Math.max(high, values[r]);
+                    nonNull++;
+                }
+                if (nonNull > 0) {
+                    include(new Feature(name, low));
+                    include(new Feature(name, high));
+                }
+                break;
+            }
+            case DOUBLE: {
+                double[] values = (double[]) segment.getColumn(column);
+                double low = Double.POSITIVE_INFINITY;
+                double high = Double.NEGATIVE_INFINITY;
+                int nonNull = 0;
+                for (int r = 0; r < rows; ++r) {
+                    if (Double.isNaN(values[r])) {
+                        nullCount++;
+                        continue;
+                    }
+                    low = Math.min(low, values[r]);
+                    high = Math.max(high, values[r]);
+                    nonNull++;
+                }
+                if (nonNull > 0) {
+                    include(new Feature(name, low));
+                    include(new Feature(name, high));
+                }
+                break;
+            }
+            default: {
+                String[] values = (String[]) segment.getColumn(column);
+                String low = null;
+                String high = null;
+                for (int r = 0; r < rows; ++r) {
+                    if (low == null || values[r].compareTo(low) < 0) {
+                        low = values[r];
+                    }
+                    if (high == null || values[r].compareTo(high) > 0) {
+                        high = values[r];
+                    }
+                }
+                if (low != null) {
+                    include(new Feature(name, low));
+                    include(new Feature(name, high));
+                }
+                break;
+            }
+        }
+    }
+
+    private void include(Feature value) {
+        if (min == null || value.compareTo(min) < 0) {
+            min = value;
+        }
+        if (max == null || value.compareTo(max) > 0) {
+            max = value;
+        }
+    }
+
+    /**
+     * Determines whether any row summarized by these statistics could satisfy
+     * an {@link Expression} on this feature.  The result is conservative: false
+     * is only returned when no row can match.
+     */
+    public boolean mayMatch(Expression expression) {
+        if (mixedTypes) {
+            return true;
+        }
+
+        Feature value;
+        try {
+            value = convert(expression.getValue());
+        } catch (RuntimeException e) {
+            return true;
+        }
+
+        boolean hasValues = (min != null);
+        /* NaN orders above every value, so null rows can satisfy NOTEQUAL,
+         * GREATER, and GREATEREQUAL. */
+        boolean hasNulls = (nullCount > 0);
+        switch (expression.getOperator()) {
+            case EQUAL:
+                return hasValues
+                    && min.compareTo(value) <= 0 && max.compareTo(value) >= 0;
+            case NOTEQUAL:
+                return hasNulls || (hasValues
+                    && (min.compareTo(value) != 0
+                        || max.compareTo(value) != 0));
+            case LESS:
+                return hasValues && min.compareTo(value) < 0;
+            case LESSEQUAL:
+                return hasValues && min.compareTo(value) <= 0;
+            case GREATER:
+                return hasNulls || (hasValues && max.compareTo(value) > 0);
+            case GREATEREQUAL:
+                return hasNulls || (hasValues && max.compareTo(value) >= 0);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Converts a query value to the type of this feature, in the same way the
+     * {@link SegmentScanner} does.
+     */
+    private Feature convert(Feature value) {
+        switch (type) {
+            case INT: return new Feature(name, value.getInt());
+            case LONG: return new Feature(name, value.getLong());
+            case FLOAT: return new Feature(name, value.getFloat());
+            case DOUBLE: return new Feature(name, value.getDouble());
+            default: return new Feature(name, value.getString());
+        }
+    }
+
+    @Deserialize
+    public ColumnStatistics(SerializationInputStream in)
+    throws IOException, SerializationException {
+        name = in.readString();
+        type = FeatureType.fromInt(in.readInt());
+        mixedTypes = in.readBoolean();
+        nullCount = in.readLong();
+        if (in.readBoolean()) {
+            min = new Feature(name, type, in);
+            max = new Feature(name, type, in);
+        }
+    }
+
+    @Override
+    public void serialize(SerializationOutputStream out)
+    throws IOException {
+        out.writeString(name);
+        out.writeInt(type.toInt());
+        out.writeBoolean(mixedTypes);
+        out.writeLong(nullCount);
+        out.writeBoolean(min != null);
+        if (min != null) {
+            out.writeSerializable(min.getDataContainer());
+            out.writeSerializable(max.getDataContainer());
+        }
+    }
+}
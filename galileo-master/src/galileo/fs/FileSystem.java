@@ -25,19 +25,30 @@ software, even if advised of the possibility of such damage.
 
 package galileo.fs;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import galileo.dataset.Block;
 import galileo.dataset.Metadata;
 import galileo.serialization.SerializationException;
+import galileo.serialization.SerializationInputStream;
 import galileo.serialization.Serializer;
 import galileo.util.PerformanceTimer;
 
@@ -74,7 +85,9 @@ public abstract class FileSystem implements PhysicalGraph {
                     "directory.");
             }
         } else {
-        	throw new FileSystemException("A file system already exists for the given name.");
+            /* Reopening an existing file system; its metadata is recovered
+             * by the file system implementation. */
+            logger.info("Opening existing storage directory.");
         }
 
         logger.info("Free space: " + getFreeSpace());
@@ -108,7 +121,8 @@ public abstract class FileSystem implements PhysicalGraph {
     }
 
     /**
-     * Scans a directory (and its subdirectories) for blocks.
+     * Scans a directory (and its subdirectories) for blocks.  Subdirectories
+     * are traversed in parallel.
      *
      * @param directory
      *     Directory to scan for blocks.
@@ -116,34 +130,69 @@ public abstract class FileSystem implements PhysicalGraph {
      * @return ArrayList of String paths to blocks on disk.
      */
     protected List<String> scanDirectory(File directory) {
-        List<String> blockPaths = new ArrayList<String>();
-        scanSubDirectory(directory, blockPaths);
-        return blockPaths;
+        ForkJoinPool pool = new ForkJoinPool(getRecoveryParallelism());
+        try {
+            return pool.invoke(new DirectoryScan(directory.toPath()));
+        } finally {
+            pool.shutdown();
+        }
     }
 
     /**
-     * Scans a directory (and its subdirectories) for blocks.
-     *
-     * @param directory
-     *     Directory file descriptor to scan
-     *
-     * @param fileList
-     *     ArrayList of Strings to populate with FileBlock paths.
+     * Lists the blocks in a directory, forking a new task for each of its
+     * subdirectories.
      */
-    private void scanSubDirectory(File directory, List<String> fileList) {
-        for (File file : directory.listFiles()) {
-            if (file.isDirectory()) {
-                scanSubDirectory(file, fileList);
-                continue;
+    private static class DirectoryScan extends RecursiveTask<List<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private java.nio.file.Path directory;
+
+        public DirectoryScan(java.nio.file.Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> blockPaths = new ArrayList<>();
+            List<DirectoryScan> subdirectories = new ArrayList<>();
+            try (DirectoryStream<java.nio.file.Path> stream
+                    = Files.newDirectoryStream(directory)) {
+                for (java.nio.file.Path file : stream) {
+                    if (Files.isDirectory(file)) {
+                        DirectoryScan scan = new DirectoryScan(file);
+                        scan.fork();
+                        subdirectories.add(scan);
+                        continue;
+                    }
+
+                    String fileName = file.toAbsolutePath().toString();
+                    if (fileName.endsWith(FileSystem.BLOCK_EXTENSION)) {
+                        blockPaths.add(fileName);
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to scan directory: "
+                        + directory, e);
             }
 
-            String fileName = file.getAbsolutePath();
-            if (fileName.endsWith(FileSystem.BLOCK_EXTENSION)) {
-                fileList.add(fileName);
+            for (DirectoryScan scan : subdirectories) {
+                blockPaths.addAll(scan.join());
             }
+            return blockPaths;
         }
     }
 
+    /**
+     * Determines the number of threads used to scan and recover blocks.
+     */
+    protected int getRecoveryParallelism() {
+        int parallelism = Integer.parseInt(System.getProperty(
+                    "galileo.fs.FileSystem.recoveryParallelism",
+                    "" + Runtime.getRuntime().availableProcessors()));
+        return Math.max(1, parallelism);
+    }
+
     /**
      * Does a full recovery from disk; this scans every block in the system,
      * reads metadata, and performs a checksum to verify integrity.  If not
@@ -175,30 +224,108 @@ public abstract class FileSystem implements PhysicalGraph {
      * Does a full recovery from disk on a particular Galileo partition; this
      * scans every block in the partition, reads its metadata, and performs a
      * checksum to verify block integrity.
+     * <p>
+     * Metadata is loaded concurrently in batches by a pool of
+     * {@link #getRecoveryParallelism()} threads, while the calling thread
+     * inserts each completed batch with {@link #storeMetadata(List, List)}.
+     * Only a bounded number of batches are in flight at once, so the recovered
+     * metadata does not have to fit in memory all at the same time.
      */
     protected void recover(List<String> blockPaths) {
         PerformanceTimer recoveryTimer = new PerformanceTimer();
         recoveryTimer.start();
         logger.info("Recovering metadata and building graph");
+
+        int parallelism = getRecoveryParallelism();
+        int batchSize = Math.max(1, Integer.parseInt(System.getProperty(
+                        "galileo.fs.FileSystem.recoveryBatchSize", "256")));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Deque<ForkJoinTask<List<Metadata>>> pending = new ArrayDeque<>();
+        Deque<List<String>> pendingPaths = new ArrayDeque<>();
+
         long counter = 0;
-        for (String path : blockPaths) {
-            try {
-                Metadata metadata = loadMetadata(path);
-                storeMetadata(metadata, path);
-                ++counter;
-                if (counter % 10000 == 0) {
+        long failed = 0;
+        int next = 0;
+        try {
+            while (next < blockPaths.size() || pending.isEmpty() == false) {
+                while (next < blockPaths.size()
+                        && pending.size() < parallelism * 2) {
+                    int end = Math.min(next + batchSize, blockPaths.size());
+                    List<String> batch = blockPaths.subList(next, end);
+                    pending.add(pool.submit(new MetadataLoader(batch)));
+                    pendingPaths.add(batch);
+                    next = end;
+                }
+
+                List<Metadata> metadata = pending.remove().join();
+                List<String> paths = pendingPaths.remove();
+                List<Metadata> loaded = new ArrayList<>(metadata.size());
+                List<String> loadedPaths = new ArrayList<>(metadata.size());
+                for (int i = 0; i < metadata.size(); ++i) {
+                    if (metadata.get(i) == null) {
+                        ++failed;
+                        continue;
+                    }
+                    loaded.add(metadata.get(i));
+                    loadedPaths.add(paths.get(i));
+                }
+
+                try {
+                    storeMetadata(loaded, loadedPaths);
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Failed to store recovered "
+                            + "metadata batch", e);
+                    failed += loaded.size();
+                }
+
+                long previous = counter;
+                counter += paths.size();
+                if (counter / 10000 != previous / 10000) {
                     logger.info(String.format("%d blocks scanned, " +
                                 "recovery %.2f%% complete.", counter,
                                 ((float) counter / blockPaths.size()) * 100));
                 }
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Failed to recover metadata " +
-                        "for block: " + path, e);
             }
+        } finally {
+            pool.shutdown();
         }
+
         recoveryTimer.stop();
-        logger.info("Recovery operation complete. Time: "
-                + recoveryTimer.getLastResult() + " ms.");
+        double seconds = recoveryTimer.getLastResult() / 1000.0;
+        logger.info(String.format("Recovery operation complete. Time: %.0f ms; "
+                    + "%d blocks recovered (%d failed) at %.1f blocks/s "
+                    + "using %d threads.", recoveryTimer.getLastResult(),
+                    counter - failed, failed,
+                    seconds > 0 ? counter / seconds : (double) counter,
+                    parallelism));
+    }
+
+    /**
+     * Loads the metadata of a batch of blocks.  Blocks that cannot be read are
+     * represented by null entries.
+     */
+    private class MetadataLoader implements Callable<List<Metadata>> {
+
+        private List<String> blockPaths;
+
+        public MetadataLoader(List<String> blockPaths) {
+            this.blockPaths = blockPaths;
+        }
+
+        @Override
+        public List<Metadata> call() {
+            List<Metadata> metadata = new ArrayList<>(blockPaths.size());
+            for (String path : blockPaths) {
+                try {
+                    metadata.add(loadMetadata(path));
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Failed to recover metadata " +
+                            "for block: " + path, e);
+                    metadata.add(null);
+                }
+            }
+            return metadata;
+        }
     }
 
     @Override
@@ -211,11 +338,14 @@ public abstract class FileSystem implements PhysicalGraph {
     @Override
     public Metadata loadMetadata(String blockPath)
     throws IOException, SerializationException {
-        /* We can just load the block as usual, but only perform the
-         * deserialization on the Metadata.  Metadata is stored as the first
-         * item in a serialized Block instance. */
-        Metadata meta = Serializer.restore(Metadata.class, blockPath);
-        return meta;
+        /* Metadata is stored directly after the file system name in a
+         * serialized Block instance, so only the front of the file needs to be
+         * read; the block data itself is never touched. */
+        try (SerializationInputStream in = new SerializationInputStream(
+                    new BufferedInputStream(new FileInputStream(blockPath)))) {
+            in.readString();
+            return new Metadata(in);
+        }
     }
 
     @Override
@@ -242,6 +372,29 @@ public abstract class FileSystem implements PhysicalGraph {
     public abstract void storeMetadata(Metadata metadata, String blockPath)
         throws FileSystemException, IOException;
 
+    /**
+     * Stores a batch of recovered {@link Metadata} instances.  By default each
+     * item is stored individually with
+     * {@link #storeMetadata(Metadata, String)}; file systems that can index
+     * several items more efficiently at once may override this method.
+     *
+     * @param metadata Metadata to store.
+     * @param blockPaths physical locations of the blocks, in the same order
+     * as the metadata.
+     */
+    protected void storeMetadata(List<Metadata> metadata,
+            List<String> blockPaths)
+    throws FileSystemException, IOException {
+        for (int i = 0; i < metadata.size(); ++i) {
+            try {
+                storeMetadata(metadata.get(i), blockPaths.get(i));
+            } catch (FileSystemException | IOException e) {
+                logger.log(Level.WARNING, "Failed to recover metadata " +
+                        "for block: " + blockPaths.get(i), e);
+            }
+        }
+    }
+
     /**
      * Reports whether the Galileo filesystem is read-only.
      *
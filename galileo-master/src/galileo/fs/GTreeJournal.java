@@ -0,0 +1,277 @@
+/*
+Copyright (c) 2014, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import galileo.graph.GTree;
+import galileo.serialization.SerializationInputStream;
+import galileo.serialization.SerializationOutputStream;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Persists a {@link GTree} as a binary snapshot and an append-only log of
+ * the blocks added to the tree (and the block sizes updated) since the
+ * snapshot was taken.  Recording a change costs a single small append,
+ * regardless of the size of the tree, and the tree is restored by reading
+ * the snapshot and replaying the log, both in linear time.
+ * <p>
+ * Like the {@link PathJournal}, each log entry is checksummed; a truncated
+ * or corrupt entry at the end of the log (for instance, one that was being
+ * written during a crash) is ignored.  Entries are flushed to the operating
+ * system as they are written but are not synced to disk individually.
+ */
+public class GTreeJournal {
+
+    private static final Logger logger = Logger.getLogger("galileo");
+
+    private static final byte ADD_BLOCK = 1;
+    private static final byte UPDATE_BLOCK_SIZE = 2;
+
+    private String logFile;
+    private String snapshotFile;
+
+    private DataOutputStream logStore;
+
+    /* Number of entries in the log */
+    private long entries;
+
+    public GTreeJournal(String logFile) {
+        this.logFile = logFile;
+        this.snapshotFile = logFile + ".snapshot";
+    }
+
+    /**
+     * Restores the tree recorded by the journal: the latest snapshot, if
+     * there is one, with the changes in the log applied to it.
+     *
+     * @param tree The tree to apply the log to when there is no snapshot.
+     *
+     * @return the recovered tree.
+     */
+    public synchronized GTree recover(GTree tree)
+    throws IOException {
+        PerformanceTimer timer = new PerformanceTimer();
+        timer.start();
+        File snapshot = new File(snapshotFile);
+        if (snapshot.exists()) {
+            try (SerializationInputStream in = new SerializationInputStream(
+                        new BufferedInputStream(
+                            new FileInputStream(snapshot)))) {
+                tree = new GTree(in);
+            }
+        }
+
+        entries = 0;
+        File log = new File(logFile);
+        if (log.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(log)))) {
+                replay(in, tree);
+            }
+        }
+        timer.stop();
+        logger.log(Level.INFO, "Recovered tree with {0} nodes and {1} log "
+                + "entries in {2} ms.", new Object[] {
+                    tree.getNumNodes(), entries, timer.getLastResult() });
+        return tree;
+    }
+
+    /**
+     * Applies the entries of the log to a tree.  Blocks that are already
+     * part of the tree are skipped, so entries captured by a snapshot may be
+     * replayed safely.
+     */
+    private void replay(DataInputStream in, GTree tree)
+    throws IOException {
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] entry;
+            long check;
+            try {
+                check = in.readLong();
+                int entrySize = in.readInt();
+                if (entrySize < 0 || entrySize > in.available()) {
+                    logger.info("Reached end of tree log.");
+                    return;
+                }
+                entry = new byte[entrySize];
+                in.readFully(entry);
+            } catch (EOFException e) {
+                return;
+            }
+
+            crc.reset();
+            crc.update(entry);
+            if (crc.getValue() != check) {
+                logger.warning("Detected checksum mismatch; ignoring tree "
+                        + "log entry.");
+                continue;
+            }
+
+            DataInputStream entryIn = new DataInputStream(
+                    new ByteArrayInputStream(entry));
+            byte type = entryIn.readByte();
+            String path = entryIn.readUTF();
+            String block = entryIn.readUTF();
+            int blockSize = entryIn.readInt();
+            if (type == ADD_BLOCK) {
+                if (tree.containsBlock(path, block) == false) {
+                    tree.addNewPath(path, block, blockSize);
+                }
+            } else if (type == UPDATE_BLOCK_SIZE) {
+                tree.updateBlockSize(path, block, blockSize);
+            } else {
+                logger.log(Level.WARNING, "Unknown tree log entry type: {0}",
+                        type);
+            }
+            entries++;
+        }
+    }
+
+    /**
+     * Opens the log for appending new entries.
+     */
+    public synchronized void start()
+    throws IOException {
+        logStore = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(logFile, true)));
+    }
+
+    /**
+     * Records the addition of a block to the tree.
+     */
+    public synchronized void logBlock(String path, String block,
+            int blockSize)
+    throws IOException {
+        writeEntry(ADD_BLOCK, path, block, blockSize);
+    }
+
+    /**
+     * Records a change in the size of a block that is part of the tree.
+     */
+    public synchronized void logBlockSize(String path, String block,
+            int blockSize)
+    throws IOException {
+        writeEntry(UPDATE_BLOCK_SIZE, path, block, blockSize);
+    }
+
+    private void writeEntry(byte type, String path, String block,
+            int blockSize)
+    throws IOException {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        DataOutputStream entryOut = new DataOutputStream(bOut);
+        entryOut.writeByte(type);
+        entryOut.writeUTF(path);
+        entryOut.writeUTF(block);
+        entryOut.writeInt(blockSize);
+        entryOut.close();
+        byte[] entry = bOut.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(entry);
+        logStore.writeLong(crc.getValue());
+        logStore.writeInt(entry.length);
+        logStore.write(entry);
+        logStore.flush();
+        entries++;
+    }
+
+    /**
+     * Retrieves the number of entries in the log since the last snapshot.
+     */
+    public synchronized long getLogEntries() {
+        return entries;
+    }
+
+    /**
+     * Writes a snapshot of the tree and empties the log.  The tree must not
+     * be modified while the snapshot is being taken.
+     */
+    public synchronized void snapshot(GTree tree)
+    throws IOException {
+        PerformanceTimer timer = new PerformanceTimer();
+        timer.start();
+        java.nio.file.Path snapshotPath = Paths.get(snapshotFile);
+        java.nio.file.Path tempPath = Paths.get(snapshotFile + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(
+                    tempPath.toFile());
+                SerializationOutputStream out = new SerializationOutputStream(
+                    new BufferedOutputStream(fileOut))) {
+            out.writeSerializable(tree);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tempPath, snapshotPath,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        /* Entries are skipped if the log is replayed onto a snapshot that
+         * already contains them, so a crash before the log is emptied is
+         * harmless. */
+        boolean open = logStore != null;
+        if (open) {
+            logStore.close();
+        }
+        logStore = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(logFile, false)));
+        if (open == false) {
+            logStore.close();
+            logStore = null;
+        }
+        entries = 0;
+        timer.stop();
+        logger.log(Level.INFO, "Wrote tree snapshot in {0} ms",
+                timer.getLastResult());
+    }
+
+    /**
+     * Closes the log and stops accepting new entries.
+     */
+    public synchronized void shutdown()
+    throws IOException {
+        if (logStore != null) {
+            logStore.close();
+            logStore = null;
+        }
+    }
+}
@@ -27,20 +27,34 @@ package galileo.fs;
 
 import java.awt.Polygon;
 import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,21 +77,24 @@ import galileo.dataset.feature.FeatureSet;
 import galileo.dataset.feature.FeatureType;
 import galileo.graph.SpatialBorderFilter;
 import galileo.graph.BorderFilter;
-import galileo.graph.FeatureHierarchy;
 import galileo.graph.FeaturePath;
-import galileo.graph.GNode;
 import galileo.graph.GTree;
 import galileo.graph.MetadataGraph;
 import galileo.graph.Path;
+import galileo.graph.PathVisitor;
+import galileo.graph.StorageUsage;
+import galileo.graph.Vertex;
 import galileo.query.Expression;
 import galileo.query.Operation;
 import galileo.query.Operator;
 import galileo.query.Query;
 import galileo.serialization.SerializationException;
+import galileo.serialization.SerializationInputStream;
+import galileo.serialization.SerializationOutputStream;
 import galileo.serialization.Serializer;
 import galileo.util.GeoHash;
-import galileo.util.Math;
 import galileo.util.Pair;
+import galileo.util.PerformanceTimer;
 
 /**
  * Implements a {@link FileSystem} for Geospatial data. This file system manager
@@ -85,7 +102,14 @@ import galileo.util.Pair;
  * <p>
  * Relevant system properties include galileo.fs.GeospatialFileSystem.timeFormat
  * and galileo.fs.GeospatialFileSystem.geohashPrecision to modify how the
- * hierarchy is created.
+ * hierarchy is created. Background compaction of appended blocks is tuned with
+ * galileo.fs.GeospatialFileSystem.compactionThreshold (appends before a block
+ * is compacted) and galileo.fs.GeospatialFileSystem.compactionInterval
+ * (seconds between compaction passes; 0 disables compaction). Decoded blocks
+ * are cached for queries, up to galileo.fs.GeospatialFileSystem.blockCacheSize
+ * bytes (0 disables the cache). Setting galileo.fs.GeospatialFileSystem.readMode
+ * to "mmap" decodes block files from memory mappings instead of reading them
+ * onto the heap.
  */
 public class GeospatialFileSystem extends FileSystem {
 
@@ -93,17 +117,46 @@ public class GeospatialFileSystem extends FileSystem {
 
 	private static final String DEFAULT_TIME_FORMAT = "yyyy/M/d";
 	private static final int DEFAULT_GEOHASH_PRECISION = 4;
+	private static final int DEFAULT_COMPACTION_THRESHOLD = 8;
+	private static final int DEFAULT_COMPACTION_INTERVAL = 60;
+	private static final long DEFAULT_BLOCK_CACHE_SIZE = 64L * 1024 * 1024;
+	private static final int DEFAULT_SNAPSHOT_INTERVAL = 300;
+	private static final int DEFAULT_SNAPSHOT_THRESHOLD = 10000;
+	private static final int DEFAULT_JOURNAL_BATCH_SIZE = 256;
+	private static final long DEFAULT_JOURNAL_BATCH_LATENCY = 0;
 
 	private static final String pathStore = "metadata.paths";
+	private static final String graphSnapshot = "metadata.snapshot";
+	private static final String treeStore = "tree.log";
 
 	private MetadataGraph metadataGraph;
 
 	private PathJournal pathJournal;
 
+	private GTreeJournal treeJournal;
+
 	private SimpleDateFormat timeFormatter;
 	private String timeFormat;
 	private int geohashPrecision;
-	private TemporalProperties lastModified;
+	private volatile TemporalProperties lastModified;
+
+	/* Number of segments appended to each block since it was last compacted */
+	private Map<String, Integer> pendingCompaction = new HashMap<String, Integer>();
+
+	/* Zone maps of the blocks that have been written or queried */
+	private ConcurrentHashMap<String, BlockStatistics> blockStatistics = new ConcurrentHashMap<String, BlockStatistics>();
+
+	private BlockCache blockCache;
+
+	/* Whether block files are memory-mapped rather than read onto the heap */
+	private boolean mappedReads;
+	private int compactionThreshold;
+	private ScheduledExecutorService maintenance;
+
+	/* Number of paths added to the Metadata Graph since its last snapshot */
+	private AtomicLong unsnapshottedPaths = new AtomicLong();
+	private int snapshotThreshold;
+	private boolean snapshotsEnabled;
 	
 	private PrecisionLimit prec;
 	
@@ -123,20 +176,7 @@ public class GeospatialFileSystem extends FileSystem {
 		super(storageDirectory, name);
 		
 		/* sapmitra 10 */
-		tree = new GTree();
-		tree.setPathToBlockMap(new HashMap<String,List<GBlockInfo>>());
-		tree.setFsName(name);
-		GNode root = new GNode();
-		root.setNodeNum(1);
-		root.setIsRoot(true);
-		root.setIsLeaf(true);
-		root.setPath(storageDirectory + File.separator + name);
-		tree.setNumNodes(1);
-		tree.setRootNode(root);
-		tree.addNode(root);
-		
-		logger.log(Level.INFO, "TREE AT INITIALIZATION=============");
-		logger.log(Level.INFO, tree.logTree());
+		tree = new GTree(name, storageDirectory + File.separator + name);
 
 		this.timeFormat = System.getProperty("galileo.fs.GeospatialFileSystem.timeFormat", DEFAULT_TIME_FORMAT);
 
@@ -146,29 +186,142 @@ public class GeospatialFileSystem extends FileSystem {
 		timeFormatter = new SimpleDateFormat();
 		timeFormatter.setTimeZone(TimeZone.getTimeZone("GMT"));
 		timeFormatter.applyPattern(timeFormat);
-		pathJournal = new PathJournal(this.storageDirectory + File.separator + pathStore);
+		/* New paths are journaled in group-commit mode; by default, a batch
+		 * holds whatever was queued while the previous batch was being synced */
+		pathJournal = new PathJournal(this.storageDirectory + File.separator + pathStore,
+				Integer.parseInt(System.getProperty("galileo.fs.PathJournal.groupCommitSize",
+						String.valueOf(DEFAULT_JOURNAL_BATCH_SIZE))),
+				Long.parseLong(System.getProperty("galileo.fs.PathJournal.groupCommitLatency",
+						String.valueOf(DEFAULT_JOURNAL_BATCH_LATENCY))));
 		this.prec = prec;
 		blockToBorderMap = new HashMap<String, BorderFilter>();
+		blockCache = new BlockCache(Long.parseLong(System.getProperty(
+				"galileo.fs.GeospatialFileSystem.blockCacheSize", String.valueOf(DEFAULT_BLOCK_CACHE_SIZE))));
+		mappedReads = "mmap".equalsIgnoreCase(System.getProperty("galileo.fs.GeospatialFileSystem.readMode", "heap"));
 		
 		createMetadataGraph();
+		recoverTree();
+		startMaintenance(name);
+	}
+
+	/**
+	 * Schedules background block compaction and Metadata Graph snapshots.
+	 */
+	private void startMaintenance(final String name) {
+		this.compactionThreshold = Integer.parseInt(System.getProperty(
+				"galileo.fs.GeospatialFileSystem.compactionThreshold", String.valueOf(DEFAULT_COMPACTION_THRESHOLD)));
+		int compactionInterval = Integer.parseInt(System.getProperty(
+				"galileo.fs.GeospatialFileSystem.compactionInterval", String.valueOf(DEFAULT_COMPACTION_INTERVAL)));
+		this.snapshotThreshold = Integer.parseInt(System.getProperty(
+				"galileo.fs.GeospatialFileSystem.snapshotThreshold", String.valueOf(DEFAULT_SNAPSHOT_THRESHOLD)));
+		int snapshotInterval = Integer.parseInt(System.getProperty("galileo.fs.GeospatialFileSystem.snapshotInterval",
+				String.valueOf(DEFAULT_SNAPSHOT_INTERVAL)));
+		this.snapshotsEnabled = snapshotInterval > 0;
+		if (compactionInterval <= 0 && snapshotInterval <= 0)
+			return;
+
+		maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "galileo-maintenance-" + name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (compactionInterval > 0) {
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					compact();
+				}
+			}, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+		}
+		if (snapshotInterval > 0) {
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						snapshotTree();
+					} catch (Exception e) {
+						logger.log(Level.WARNING, "Failed to snapshot the storage tree", e);
+					}
+					if (unsnapshottedPaths.get() < snapshotThreshold)
+						return;
+					try {
+						snapshotMetadata();
+					} catch (Exception e) {
+						logger.log(Level.WARNING, "Failed to snapshot the metadata graph", e);
+					}
+				}
+			}, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+		}
+	}
+
+
+	/**
+	 * Restores the tree of storage directories from its journal.  The
+	 * recovered tree is written out as a new snapshot, so the log only holds
+	 * the changes made since the file system was started.
+	 */
+	private void recoverTree() throws IOException {
+		treeJournal = new GTreeJournal(this.storageDirectory + File.separator + treeStore);
+		try {
+			GTree recovered = treeJournal.recover(tree);
+			/* The storage directory may have moved since the snapshot */
+			recovered.getRootNode().setPath(tree.getRootNode().getPath());
+			tree = recovered;
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to recover the storage tree", e);
+		}
+		treeJournal.snapshot(tree);
+		treeJournal.start();
 	}
 
+	/**
+	 * Writes a snapshot of the storage tree once enough changes have been
+	 * logged since the last one.
+	 */
+	private synchronized void snapshotTree() throws IOException {
+		if (treeJournal.getLogEntries() >= snapshotThreshold)
+			treeJournal.snapshot(tree);
+	}
 
 	/**
 	 * Initializes the Metadata Graph, either from a successful recovery from
 	 * the PathJournal, or by scanning all the {@link Block}s on disk.
 	 */
 	private void createMetadataGraph() throws IOException {
-		metadataGraph = new MetadataGraph();
+		/* Start from the latest snapshot of the graph, if there is one */
+		int firstSegment = 0;
+		File snapshot = new File(this.storageDirectory, graphSnapshot);
+		metadataGraph = null;
+		if (snapshot.exists()) {
+			try (SerializationInputStream in = new SerializationInputStream(
+					new BufferedInputStream(new FileInputStream(snapshot)))) {
+				firstSegment = in.readInt();
+				metadataGraph = new MetadataGraph(in);
+				logger.log(Level.INFO, "Loaded metadata graph snapshot; replaying journal from segment {0}",
+						firstSegment);
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Failed to load metadata graph snapshot", e);
+			}
+		}
+		boolean snapshotOk = metadataGraph != null || snapshot.exists() == false;
+		if (metadataGraph == null)
+			metadataGraph = new MetadataGraph();
 
-		/* Recover the path index from the PathJournal */
+		/* Recover the remaining paths from the PathJournal */
 		List<FeaturePath<String>> graphPaths = new ArrayList<>();
-		boolean recoveryOk = pathJournal.recover(graphPaths);
+		boolean recoveryOk = snapshotOk && pathJournal.recover(graphPaths, firstSegment);
 		pathJournal.start();
 
 		if (recoveryOk == true) {
-			for (FeaturePath<String> path : graphPaths) {
+			for (int i = 0; i < graphPaths.size(); ++i) {
+				FeaturePath<String> path = graphPaths.get(i);
+				/* Paths are released as they are added to limit peak memory use */
+				graphPaths.set(i, null);
 				try {
+					normalizeTemporalLabel(path);
 					metadataGraph.addPath(path);
 				} catch (Exception e) {
 					logger.log(Level.WARNING, "Failed to add path", e);
@@ -180,12 +333,47 @@ public class GeospatialFileSystem extends FileSystem {
 
 		if (recoveryOk == false) {
 			logger.log(Level.SEVERE, "Failed to recover path journal!");
+			snapshot.delete();
+			metadataGraph = new MetadataGraph();
 			pathJournal.erase();
 			pathJournal.start();
 			fullRecovery();
 		}
 	}
 
+	/**
+	 * Writes a snapshot of the Metadata Graph to disk and discards the journal
+	 * segments it covers, bounding the amount of the journal that has to be
+	 * replayed on startup.  The journal is rotated while writes are blocked,
+	 * so every path in the discarded segments is part of the snapshot; paths
+	 * added while the snapshot is being written may appear in both the
+	 * snapshot and the journal, which is harmless since adding a path to the
+	 * graph twice has no effect.
+	 */
+	public void snapshotMetadata() throws FileSystemException, IOException {
+		int segment;
+		synchronized (this) {
+			segment = pathJournal.rotate();
+			unsnapshottedPaths.set(0);
+		}
+
+		PerformanceTimer timer = new PerformanceTimer();
+		timer.start();
+		java.nio.file.Path snapshotPath = Paths.get(this.storageDirectory.getPath(), graphSnapshot);
+		java.nio.file.Path tempPath = Paths.get(snapshotPath + ".tmp");
+		try (FileOutputStream fileOut = new FileOutputStream(tempPath.toFile());
+				SerializationOutputStream out = new SerializationOutputStream(new BufferedOutputStream(fileOut))) {
+			out.writeInt(segment);
+			out.writeSerializable(metadataGraph);
+			out.flush();
+			fileOut.getFD().sync();
+		}
+		Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		pathJournal.removeSegmentsBefore(segment);
+		timer.stop();
+		logger.log(Level.INFO, "Wrote metadata graph snapshot in {0} ms", timer.getLastResult());
+	}
+
 	public long getLastUpdated() {
 		return this.lastModified.getStart();
 	}
@@ -202,6 +390,69 @@ public class GeospatialFileSystem extends FileSystem {
 		return String.format("%d-%d-%d", year, month, day);
 	}
 
+	/**
+	 * Returns the temporal label of the day containing the given time in the
+	 * Metadata Graph.  Unlike the block names produced by
+	 * {@link #getTemporalString(TemporalProperties)}, labels are zero-padded
+	 * ("yyyy-MM-dd"), so their lexicographic order is chronological and a
+	 * time interval maps to a contiguous range of temporal vertices.
+	 */
+	private static String getTemporalKey(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeZone(TimeZone.getTimeZone("GMT"));
+		c.setTimeInMillis(time);
+		int day = c.get(Calendar.DAY_OF_MONTH);
+		int month = c.get(Calendar.MONTH) + 1;
+		int year = c.get(Calendar.YEAR);
+		return String.format("%04d-%02d-%02d", year, month, day);
+	}
+
+	private static String getTemporalKey(TemporalProperties tp) {
+		if (tp == null)
+			return "xxxx-xx-xx";
+		return getTemporalKey(tp.getStart());
+	}
+
+	/**
+	 * Converts a temporal label of the Metadata Graph back to the unpadded
+	 * ("yyyy-m-d") form used in block names and in the keys of listBlocks.
+	 */
+	private static String toTemporalString(String temporalKey) {
+		String[] parts = temporalKey.split("-");
+		if (parts.length != 3)
+			return temporalKey;
+		try {
+			return String.format("%d-%d-%d", Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+					Integer.parseInt(parts[2]));
+		} catch (NumberFormatException e) {
+			return temporalKey;
+		}
+	}
+
+	/**
+	 * Rewrites an unpadded ("yyyy-m-d") temporal label of a path, as found in
+	 * blocks and journals written before labels were sortable.
+	 */
+	private static void normalizeTemporalLabel(Path<Feature, String> path) {
+		for (Vertex<Feature, String> vertex : path) {
+			Feature label = vertex.getLabel();
+			if (TEMPORAL_FEATURE.equalsIgnoreCase(label.getName()) == false)
+				continue;
+
+			String time = label.getString();
+			String[] parts = time.split("-");
+			if (time.length() == 10 || parts.length != 3)
+				return;
+			try {
+				vertex.setLabel(new Feature(label.getName(), String.format("%04d-%02d-%02d",
+						Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]))));
+			} catch (NumberFormatException e) {
+				/* Not a date; leave the label as it is */
+			}
+			return;
+		}
+	}
+
 	private String getSpatialString(SpatialProperties sp) {
 		char[] hash = new char[this.geohashPrecision];
 		Arrays.fill(hash, 'x');
@@ -219,10 +470,32 @@ public class GeospatialFileSystem extends FileSystem {
 
 	/**
 	 * Creates a new block if one does not exist based on the spatio-temporal
-	 * properties of the metadata or appends the bytes to an existing block.
+	 * properties of the metadata or appends the rows to an existing block.
+	 * Rows are appended to the block as a new {@link ColumnSegment}, so prior
+	 * contents of the block are never rewritten during ingest; blocks that
+	 * accumulate many segments are merged later by {@link #compact()}.  Once
+	 * a new block has been written, its Metadata Graph path is submitted to
+	 * the path journal, so the graph can be recovered by replaying the journal
+	 * rather than by scanning every block on disk.  This method returns only
+	 * once the path has been synced to the journal; the wait happens outside
+	 * the file system lock, so the journal's commit thread can batch the
+	 * paths of concurrent writers into a single fsync.
 	 */
 	@Override
 	public String storeBlock(Block block) throws FileSystemException, IOException {
+		Pair<String, Future<Void>> stored = writeBlock(block);
+		if (stored.b != null)
+			pathJournal.await(stored.b);
+		return stored.a;
+	}
+
+	/**
+	 * Writes a block under the file system lock, returning its path along
+	 * with the pending journal commit of its Metadata Graph path (null if the
+	 * block already existed).
+	 */
+	private synchronized Pair<String, Future<Void>> writeBlock(Block block)
+			throws FileSystemException, IOException {
 		if (lastModified == null || lastModified.getStart() < block.getMetadata().getTemporalProperties().getStart())
 			lastModified = block.getMetadata().getTemporalProperties();
 		String time = getTemporalString(block.getMetadata().getTemporalProperties());
@@ -245,23 +518,21 @@ public class GeospatialFileSystem extends FileSystem {
 		}
 
 		Metadata meta = block.getMetadata();
-		String blockString = "";
-		boolean blockStringFromMetaData = false;
+		/* Attributes are encoded directly from their typed values; only
+		 * delimited block data needs to be parsed. */
+		Feature[] attributeRow = null;
+		List<String[]> rows = new ArrayList<String[]>();
 		if (block.getData() == null) {
-			FeatureSet featureSet = meta.getAttributes();
-			for (Feature feature : featureSet)
-				blockString += feature.dataToString() + ",";
-			if (blockString.length() > 1)
-				blockString = blockString.substring(0, blockString.length() - 1);
+			if (meta.getAttributes().size() > 0)
+				attributeRow = meta.getAttributes().toArray();
 		} else {
-			blockString = new String(block.getData(), "UTF-8");
-			blockStringFromMetaData = true;
+			rows = splitRows(new String(block.getData(), "UTF-8"));
 		}
 
 		// Adding temporal and spatial features at the top to the existing
 		// attributes
 		FeatureSet newfs = new FeatureSet();
-		newfs.put(new Feature(TEMPORAL_FEATURE, getTemporalString(meta.getTemporalProperties())));
+		newfs.put(new Feature(TEMPORAL_FEATURE, getTemporalKey(meta.getTemporalProperties())));
 		newfs.put(new Feature(SPATIAL_FEATURE, getSpatialString(meta.getSpatialProperties())));
 		for (Feature feature : meta.getAttributes())
 			newfs.put(feature);
@@ -269,63 +540,229 @@ public class GeospatialFileSystem extends FileSystem {
 
 		File gblock = new File(blockPath);
 		/*sapmitra 1*/
-		boolean existCheck = false;
-		if (gblock.exists()) {
-			/*sapmitra 1*/
-			existCheck = true;
-			java.nio.file.Path gblockPath = Paths.get(blockPath);
-			byte[] blockData = Files.readAllBytes(gblockPath);
-			try {
-				Block existingBlock = Serializer.deserialize(Block.class, blockData);
-				StringBuffer dataBuffer = new StringBuffer();
-				dataBuffer.append(new String(existingBlock.getData(), "UTF-8"));
-				dataBuffer.append('\n');
-				dataBuffer.append(blockString);
-				// over-write the existing block with new blocks data. metadata
-				// is not changed.
-				block = new Block(existingBlock.getFileSystem(), existingBlock.getMetadata(),
-						dataBuffer.toString().getBytes("UTF-8"));
-			} catch (SerializationException e) {
-				throw new IOException("Failed to deserialize the existing block - " + e.getMessage(), e.getCause());
-			}
+		boolean existCheck = gblock.exists();
+
+		ColumnSegment segment;
+		if (attributeRow != null) {
+			ColumnSegment.Builder builder = createSegmentBuilder();
+			if (!builder.addRow(attributeRow))
+				logger.warning("Block attributes did not match the feature hierarchy and were not stored in block "
+						+ blockPath);
+			segment = builder.build();
 		} else {
-			FeaturePath<String> path = createPath(blockPath, meta);
-			
+			segment = createSegment(rows, blockPath);
+		}
+		long blockSize;
+		Future<Void> journaled = null;
+		if (!existCheck) {
+			List<ColumnSegment> segments = new ArrayList<ColumnSegment>();
+			if (segment.getRowCount() > 0)
+				segments.add(segment);
+			BlockFile.create(blockPath, block.getFileSystem(), meta, segments);
+			blockSize = gblock.length();
+			BlockStatistics stats = BlockStatistics.fromSegments(segments, blockSize);
+			stats.persist(blockPath);
+			blockStatistics.put(blockPath, stats);
+
+			/* Queries do not take the file system lock, so the block only
+			 * becomes visible in the graph once its file is in place.  The
+			 * journal is written after the block for the same reason, since
+			 * a replayed path must never refer to a missing block.  The caller
+			 * waits for the commit before reporting the block as stored.  The
+			 * graph modifies the paths added to it, so the journal is given a
+			 * separate copy. */
+			journaled = pathJournal.persistPathAsync(createPath(blockPath, meta));
 			try {
-				metadataGraph.addPath(path);
+				metadataGraph.addPath(createPath(blockPath, meta));
+				unsnapshottedPaths.incrementAndGet();
 			} catch (Exception e) {
 				throw new FileSystemException("Error storing block: " + e.getClass().getCanonicalName(), e);
 			}
+		} else if (segment.getRowCount() == 0) {
+			blockSize = BlockFile.getDataLength(blockPath);
+		} else if (BlockFile.isBlockFile(blockPath)) {
+			/* Statistics must be loaded before the append so that they are
+			 * not rebuilt from a block that already contains the segment. */
+			BlockStatistics stats = getBlockStatistics(blockPath);
+			blockSize = BlockFile.append(blockPath, segment);
+			stats.update(segment, blockSize);
+			stats.persist(blockPath);
+			Integer appended = pendingCompaction.get(blockPath);
+			pendingCompaction.put(blockPath, appended == null ? 1 : appended + 1);
+		} else {
+			convertLegacyBlock(blockPath, segment);
+			blockSize = gblock.length();
+			blockStatistics.remove(blockPath);
+			getBlockStatistics(blockPath);
 		}
-		FileOutputStream blockOutStream = new FileOutputStream(blockPath);
-		byte[] blockData = Serializer.serialize(block);
 		
 		/* RIKI CREATE OR UPDATE YOUR TREE HERE */
 		/*sapmitra 3*/
-		int blockSize = blockData.length;
-		
 		/* If this block does not already exist */
 		if(!existCheck) {
 			
 			if(tree != null) {
-				tree.addNewPath(relPath,blockName, blockSize);
-				
-				logger.log(Level.INFO, "TREE AFTER INSERTION=============");
-				logger.log(Level.INFO, tree.logTree());
+				tree.addNewPath(relPath,blockName, (int) blockSize);
+				treeJournal.logBlock(relPath, blockName, (int) blockSize);
+				logger.log(Level.FINE, "Added block {0} to the storage tree", blockPath);
 			}
-		} else {
-			Map<String, List<GBlockInfo>> pathToBlockMap = tree.getPathToBlockMap();
-			List<GBlockInfo> blks = pathToBlockMap.get(relPath);
-			for(GBlockInfo gb: blks) {
-				if(blockName.equals(gb.getBlockName())) {
-					gb.setBlockSize(blockSize);
+		} else if (tree.updateBlockSize(relPath, blockName, (int) blockSize)) {
+			treeJournal.logBlockSize(relPath, blockName, (int) blockSize);
+		}
+		blockCache.invalidate(blockPath);
+		return new Pair<String, Future<Void>>(blockPath, journaled);
+	}
+
+	/**
+	 * Splits comma-separated block data into rows of values.
+	 */
+	private List<String[]> splitRows(String blockData) {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line : blockData.split("\\r?\\n"))
+			if (!line.isEmpty())
+				rows.add(line.split(","));
+		return rows;
+	}
+
+	/**
+	 * Converts rows of values into a {@link ColumnSegment} using the attribute
+	 * levels of the feature hierarchy as the schema. Rows that do not have a
+	 * value for every attribute cannot be queried and are dropped.
+	 */
+	private ColumnSegment createSegment(List<String[]> rows, String blockPath) {
+		ColumnSegment.Builder builder = createSegmentBuilder();
+		int dropped = 0;
+		for (String[] row : rows)
+			if (!builder.addRow(row))
+				dropped++;
+		if (dropped > 0)
+			logger.warning(dropped + " rows did not match the feature hierarchy and were not stored in block "
+					+ blockPath);
+		return builder.build();
+	}
+
+	private ColumnSegment.Builder createSegmentBuilder() {
+		List<Pair<String, FeatureType>> order = metadataGraph.getFeatureHierarchy().getHierarchy();
+		// first two levels are the special reserved attributes
+		return new ColumnSegment.Builder(order.subList(2, order.size()));
+	}
+
+	/**
+	 * Rewrites a block stored in the legacy serialized {@link Block} format as
+	 * a columnar {@link BlockFile}, appending the given segment.
+	 */
+	private void convertLegacyBlock(String blockPath, ColumnSegment segment) throws IOException {
+		try {
+			Block existingBlock = Serializer.deserialize(Block.class, Files.readAllBytes(Paths.get(blockPath)));
+			List<ColumnSegment> segments = new ArrayList<ColumnSegment>();
+			ColumnSegment existing = createSegment(splitRows(new String(existingBlock.getData(), "UTF-8")),
+					blockPath);
+			if (existing.getRowCount() > 0)
+				segments.add(existing);
+			segments.add(segment);
+			// metadata is not changed.
+			BlockFile.create(blockPath, existingBlock.getFileSystem(), existingBlock.getMetadata(), segments);
+		} catch (SerializationException e) {
+			throw new IOException("Failed to deserialize the existing block - " + e.getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Reads a block in either the columnar or the legacy serialized format.
+	 */
+	private BlockFile readBlockFile(String blockPath) throws IOException, SerializationException {
+		if (BlockFile.isBlockFile(blockPath))
+			return BlockFile.read(blockPath, mappedReads);
+		Block block = Serializer.deserialize(Block.class, Files.readAllBytes(Paths.get(blockPath)));
+		List<ColumnSegment> segments = new ArrayList<ColumnSegment>();
+		segments.add(createSegment(splitRows(new String(block.getData(), "UTF-8")), blockPath));
+		return BlockFile.fromSegments(block.getFileSystem(), block.getMetadata(), segments);
+	}
+
+	/**
+	 * Retrieves the zone map statistics for a block, loading them from the
+	 * block's sidecar file or rebuilding them from its contents if the sidecar
+	 * is missing or stale.
+	 */
+	private BlockStatistics getBlockStatistics(String blockPath) throws IOException {
+		BlockStatistics stats = blockStatistics.get(blockPath);
+		if (stats != null)
+			return stats;
+		try {
+			stats = BlockStatistics.restore(blockPath);
+			if (stats == null) {
+				long blockLength = BlockFile.getDataLength(blockPath);
+				stats = BlockStatistics.fromSegments(readBlockFile(blockPath).getSegments(), blockLength);
+				stats.persist(blockPath);
+			}
+		} catch (SerializationException e) {
+			throw new IOException("Failed to load statistics for block " + blockPath, e);
+		}
+		BlockStatistics existing = blockStatistics.putIfAbsent(blockPath, stats);
+		return existing != null ? existing : stats;
+	}
+
+	/**
+	 * Determines whether any row of a block could satisfy the given query,
+	 * using the block's min/max zone maps. Blocks for which this returns false
+	 * do not need to be read.
+	 */
+	public boolean mayMatch(String blockPath, Query query) {
+		try {
+			return getBlockStatistics(blockPath).mayMatch(query);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to check statistics for block " + blockPath, e);
+			return true;
+		}
+	}
+
+	@Override
+	public Block loadBlock(String blockPath) throws IOException, SerializationException {
+		if (BlockFile.isBlockFile(blockPath))
+			return BlockFile.read(blockPath, mappedReads).toBlock();
+		return super.loadBlock(blockPath);
+	}
+
+	@Override
+	public Metadata loadMetadata(String blockPath) throws IOException, SerializationException {
+		if (BlockFile.isBlockFile(blockPath))
+			return BlockFile.readMetadata(blockPath, mappedReads);
+		return super.loadMetadata(blockPath);
+	}
+
+	/**
+	 * Merges the segments of every block that has received at least
+	 * compactionThreshold appends since it was last compacted. Each block is
+	 * compacted while holding the file system lock, so ingest into that block
+	 * waits for the rewrite to finish; queries continue to read the previous
+	 * version of the file until it is atomically replaced.
+	 */
+	public void compact() {
+		List<String> candidates = new ArrayList<String>();
+		synchronized (this) {
+			for (Map.Entry<String, Integer> entry : pendingCompaction.entrySet())
+				if (entry.getValue() >= compactionThreshold)
+					candidates.add(entry.getKey());
+		}
+		for (String blockPath : candidates) {
+			synchronized (this) {
+				try {
+					BlockStatistics stats = getBlockStatistics(blockPath);
+					int segments = BlockFile.compact(blockPath);
+					pendingCompaction.remove(blockPath);
+					File blockFile = new File(blockPath);
+					stats.setBlockLength(BlockFile.getDataLength(blockPath));
+					stats.persist(blockPath);
+					String relPath = blockFile.getParent().substring(this.storageDirectory.getPath().length() + 1);
+					if (tree.updateBlockSize(relPath, blockFile.getName(), (int) blockFile.length()))
+						treeJournal.logBlockSize(relPath, blockFile.getName(), (int) blockFile.length());
+					logger.log(Level.FINE, "Compacted block {0} to {1} segments",
+							new Object[] { blockPath, segments });
+				} catch (Exception e) {
+					logger.log(Level.WARNING, "Failed to compact block " + blockPath, e);
 				}
 			}
 		}
-		
-		blockOutStream.write(blockData);
-		blockOutStream.close();
-		return blockPath;
 	}
 
 	/**
@@ -359,44 +796,34 @@ public class GeospatialFileSystem extends FileSystem {
 		return timeFormatter.format(tp.getLowerBound());
 	}
 
+	/**
+	 * Lists the blocks matching the temporal and spatial properties of the
+	 * given Metadata, keyed by "time-space" with the time formatted as in
+	 * block names ("yyyy-m-d").  Temporal properties select
+	 * every day from the start to the end of their interval (inclusive); an
+	 * interval spanning several days is resolved with a single range query
+	 * over the sorted temporal labels, and its blocks are keyed by day.
+	 */
 	public Map<String, List<String>> listBlocks(Metadata metadata) {
 			Map<String, List<String>> blockMap = new HashMap<String, List<String>>();
-			List<String> blocks = new ArrayList<String>();
 			if (metadata.hasTemporalProperties() && metadata.hasSpatialProperties()) {
 				
-				/* Returns a String like 31-01-2015 */
-				String time = getTemporalString(metadata.getTemporalProperties());
+				/* Returns a String like 2015-1-31 */
+				TemporalProperties tp = metadata.getTemporalProperties();
+				String time = getTemporalString(tp);
 				String space = getSpatialString(metadata.getSpatialProperties());
-				Query query = new Query(
-						new Operation(new Expression(Operator.EQUAL, new Feature(TEMPORAL_FEATURE, time)),
-								new Expression(Operator.EQUAL, new Feature(SPATIAL_FEATURE, space))));
-				List<Path<Feature, String>> paths = metadataGraph.evaluateQuery(query);
-				for (Path<Feature, String> path : paths)
-					if (path.hasPayload())
-						blocks.addAll(path.getPayload());
-				blockMap.put(String.format("%s-%s", time, space), blocks);
+				Operation operation = temporalRange(tp);
+				operation.addExpressions(new Expression(Operator.EQUAL, new Feature(SPATIAL_FEATURE, space)));
+				if (getTemporalKey(tp.getStart()).equals(getTemporalKey(tp.getEnd()))) {
+					blockMap.put(String.format("%s-%s", time, space), new ArrayList<String>());
+				} else {
+					time = null;
+				}
+				metadataGraph.evaluateQuery(new Query(operation), new BlockMapVisitor(blockMap, time, space));
 				return blockMap;
 			} else if (metadata.hasTemporalProperties()) {
-				String time = getTemporalString(metadata.getTemporalProperties());
-				Query query = new Query(
-						new Operation(new Expression(Operator.EQUAL, new Feature(TEMPORAL_FEATURE, time))));
-				List<Path<Feature, String>> paths = metadataGraph.evaluateQuery(query);
-				for (Path<Feature, String> path : paths) {
-					if (path.hasPayload()) {
-						List<Feature> labels = path.getLabels();
-						for (Feature label : labels) {
-							if (SPATIAL_FEATURE.equalsIgnoreCase(label.getName())) {
-								blocks = blockMap.get(String.format("%s-%s", time, label.getString()));
-								if (blocks == null) {
-									blocks = new ArrayList<String>();
-									blockMap.put(String.format("%s-%s", time, label.getString()), blocks);
-								}
-								blocks.addAll(path.getPayload());
-								break;
-							}
-						}
-					}
-				}
+				Query query = new Query(temporalRange(metadata.getTemporalProperties()));
+				metadataGraph.evaluateQuery(query, new BlockMapVisitor(blockMap, null, null));
 				return blockMap;
 			} else if (metadata.hasSpatialProperties()) {
 				SpatialProperties sp = metadata.getSpatialProperties();
@@ -407,59 +834,124 @@ public class GeospatialFileSystem extends FileSystem {
 							: GeoHash.getIntersectingGeohashes(sp.getSpatialRange().getBounds(), this.geohashPrecision);
 				}
 				String space = getSpatialString(sp);
+				BlockMapVisitor visitor = new BlockMapVisitor(blockMap, null, space);
 				for (String geohash : geohashes) {
 					Query query = new Query(
 							new Operation(new Expression(Operator.EQUAL, new Feature(SPATIAL_FEATURE, geohash))));
-					List<Path<Feature, String>> paths = metadataGraph.evaluateQuery(query);
-					for (Path<Feature, String> path : paths) {
-						if (path.hasPayload()) {
-							List<Feature> labels = path.getLabels();
-							for (Feature label : labels) {
-								if (TEMPORAL_FEATURE.equalsIgnoreCase(label.getName())) {
-									blocks = blockMap.get(String.format("%s-%s", label.getString(), space));
-									if (blocks == null) {
-										blocks = new ArrayList<String>();
-										blockMap.put(String.format("%s-%s", label.getString(), space), blocks);
-									}
-									blocks.addAll(path.getPayload());
-									break;
-								}
-							}
-						}
-					}
+					metadataGraph.evaluateQuery(query, visitor);
 				}
 				return blockMap;
 			} else {
 				// non-chronal non-spatial
 				String time = getTemporalString(null);
 				String space = getSpatialString(null);
-				for (Path<Feature, String> path : metadataGraph.getAllPaths())
-					if (path.hasPayload())
-						blocks.addAll(path.getPayload());
-				blockMap.put(String.format("%s-%s", time, space), blocks);
+				blockMap.put(String.format("%s-%s", time, space), new ArrayList<String>());
+				metadataGraph.visitAllPaths(new BlockMapVisitor(blockMap, time, space));
 				return blockMap;
 			}
 	}
 
+	/**
+	 * Creates an Operation selecting the temporal labels of the days from the
+	 * start to the end of the given interval.  A single day is matched by
+	 * equality; longer intervals become a pair of inequalities, which the
+	 * graph evaluates as one range of the sorted temporal vertices.
+	 */
+	private static Operation temporalRange(TemporalProperties tp) {
+		String start = getTemporalKey(tp.getStart());
+		String end = getTemporalKey(tp.getEnd());
+		if (start.equals(end))
+			return new Operation(new Expression(Operator.EQUAL, new Feature(TEMPORAL_FEATURE, start)));
+
+		return new Operation(new Expression(Operator.GREATEREQUAL, new Feature(TEMPORAL_FEATURE, start)),
+				new Expression(Operator.LESSEQUAL, new Feature(TEMPORAL_FEATURE, end)));
+	}
+
+	/**
+	 * Groups the payloads of streamed query results into the block map
+	 * returned by listBlocks, keyed by "time-space". A null time or space is
+	 * taken from the corresponding label of each path, with temporal labels
+	 * converted to the block name format; paths without that label are
+	 * skipped.
+	 */
+	private static class BlockMapVisitor implements PathVisitor<String> {
+		private Map<String, List<String>> blockMap;
+		private String time;
+		private String space;
+
+		public BlockMapVisitor(Map<String, List<String>> blockMap, String time, String space) {
+			this.blockMap = blockMap;
+			this.time = time;
+			this.space = space;
+		}
+
+		@Override
+		public boolean visit(Path<Feature, String> path) {
+			String pathTime = time;
+			String pathSpace = space;
+			for (Vertex<Feature, String> vertex : path) {
+				Feature label = vertex.getLabel();
+				if (pathTime == null && TEMPORAL_FEATURE.equalsIgnoreCase(label.getName()))
+					pathTime = toTemporalString(label.getString());
+				else if (pathSpace == null && SPATIAL_FEATURE.equalsIgnoreCase(label.getName()))
+					pathSpace = label.getString();
+			}
+			if (pathTime == null || pathSpace == null)
+				return true;
+
+			String key = String.format("%s-%s", pathTime, pathSpace);
+			List<String> blocks = blockMap.get(key);
+			if (blocks == null) {
+				blocks = new ArrayList<String>();
+				blockMap.put(key, blocks);
+			}
+			blocks.addAll(path.getPayload());
+			return true;
+		}
+	}
+
 	/**
 	 * Using the Feature attributes found in the provided Metadata, a path is
 	 * created for insertion into the Metadata Graph.
 	 */
 	protected FeaturePath<String> createPath(String physicalPath, Metadata meta) {
 		FeaturePath<String> path = new FeaturePath<String>(physicalPath, meta.getAttributes().toArray());
+		normalizeTemporalLabel(path);
 		return path;
 	}
 
 	@Override
-	public void storeMetadata(Metadata metadata, String blockPath) throws FileSystemException, IOException {
+	public synchronized void storeMetadata(Metadata metadata, String blockPath)
+			throws FileSystemException, IOException {
 		FeaturePath<String> path = createPath(blockPath, metadata);
 		pathJournal.persistPath(path);
 		storePath(path);
 	}
 
+	/**
+	 * Stores a batch of recovered metadata, writing all of its paths to the
+	 * journal before adding them to the Metadata Graph.
+	 */
+	@Override
+	protected synchronized void storeMetadata(List<Metadata> metadata, List<String> blockPaths)
+			throws FileSystemException, IOException {
+		List<FeaturePath<String>> paths = new ArrayList<>(metadata.size());
+		for (int i = 0; i < metadata.size(); ++i)
+			paths.add(createPath(blockPaths.get(i), metadata.get(i)));
+		pathJournal.persistPaths(paths);
+		for (FeaturePath<String> path : paths) {
+			try {
+				storePath(path);
+			} catch (FileSystemException e) {
+				logger.log(Level.WARNING, "Failed to add recovered path", e);
+			}
+		}
+	}
+
 	private void storePath(FeaturePath<String> path) throws FileSystemException {
 		try {
 			metadataGraph.addPath(path);
+			unsnapshottedPaths.incrementAndGet();
 		} catch (Exception e) {
 			throw new FileSystemException("Error storing metadata: " + e.getClass().getCanonicalName(), e);
 		}
@@ -473,62 +965,87 @@ public class GeospatialFileSystem extends FileSystem {
 		return metadataGraph.evaluateQuery(query);
 	}
 
+	/**
+	 * Streams the paths matching a query to a visitor as they are found in the
+	 * Metadata Graph, rather than collecting them in a List.
+	 *
+	 * @return false if the visitor ended the query early.
+	 */
+	public boolean query(Query query, PathVisitor<String> visitor) {
+		return metadataGraph.evaluateQuery(query, visitor);
+	}
+
+	/**
+	 * Retrieves the decoded contents of a block from the block cache, reading
+	 * it from disk if it is not cached.
+	 */
+	private BlockCache.Entry getCachedBlock(String blockPath) throws IOException, SerializationException {
+		BlockCache.Entry entry = blockCache.get(blockPath);
+		if (entry == null) {
+			long generation = blockCache.getGeneration(blockPath);
+			entry = blockCache.put(blockPath, readBlockFile(blockPath), generation);
+		}
+		return entry;
+	}
+
+	public BlockCache getBlockCache() {
+		return blockCache;
+	}
+
 	public List<Path<Feature, String>> query(String blockPath, GeoavailabilityQuery geoQuery) throws IOException {
+		final List<Path<Feature, String>> featurePaths = new ArrayList<Path<Feature, String>>();
+		query(blockPath, geoQuery, new PathVisitor<String>() {
+			@Override
+			public boolean visit(Path<Feature, String> path) {
+				featurePaths.add(path);
+				return true;
+			}
+		});
+		return featurePaths;
+	}
+
+	/**
+	 * Evaluates a query over the rows of a block, passing a path to the visitor
+	 * for each matching row as it is decoded. Only one row is materialized at a
+	 * time, so callers that write results out as they arrive use memory
+	 * independent of the number of matches.
+	 *
+	 * @return the number of paths passed to the visitor.
+	 */
+	public long query(String blockPath, GeoavailabilityQuery geoQuery, PathVisitor<String> visitor)
+			throws IOException {
 		try {
 			logger.info("querying filesystem " + this.name + " for block path - " + blockPath);
-			List<Path<Feature, String>> featurePaths = new ArrayList<Path<Feature, String>>();
-			byte[] blockBytes = Files.readAllBytes(Paths.get(blockPath));
-			Block block = Serializer.deserialize(Block.class, blockBytes);
-			String blockData = new String(block.getData(), "UTF-8");
-			Metadata blockMeta = block.getMetadata();
+			long numPaths = 0;
+			BlockCache.Entry cached = getCachedBlock(blockPath);
+			BlockFile blockFile = cached.getBlockFile();
+			Metadata blockMeta = blockFile.getMetadata();
 			SpatialHint hint = blockMeta.getSpatialHint();
 			if (hint == null) {
 				logger.warning("No spatial hint present in the metadata for the block - " + blockPath);
-				return featurePaths;
+				return numPaths;
 			}
-			MetadataGraph temporaryGraph = new MetadataGraph();
-			FeatureHierarchy hierarchy = metadataGraph.getFeatureHierarchy();
-			int latOrder = -1;
-			int longOrder = -1;
-			for (String line : blockData.split("\\r?\\n")) {
-				try {
-					String[] features = line.split(",");
-					// +2 because of the special reserved features.
-					if (hierarchy.size() == features.length + 2) {
-						List<Pair<String, FeatureType>> order = hierarchy.getHierarchy();
-						Metadata metadata = new Metadata();
-						FeatureSet featureset = new FeatureSet();
-						for (int i = 0; i < features.length; i++) {
-							// first two features are special reserved
-							// attributes - hence i+2
-							Pair<String, FeatureType> pair = order.get(i + 2);
-							if (latOrder == -1 && pair.a.equalsIgnoreCase(hint.getLatitudeHint()))
-								latOrder = i;
-							if (longOrder == -1 && pair.a.equalsIgnoreCase(hint.getLongitudeHint()))
-								longOrder = i;
-							if (pair.b == FeatureType.FLOAT)
-								featureset.put(new Feature(pair.a, Math.getFloat(features[i])));
-							if (pair.b == FeatureType.INT)
-								featureset.put(new Feature(pair.a, Math.getInteger(features[i])));
-							if (pair.b == FeatureType.LONG)
-								featureset.put(new Feature(pair.a, Math.getLong(features[i])));
-							if (pair.b == FeatureType.DOUBLE)
-								featureset.put(new Feature(pair.a, Math.getDouble(features[i])));
-							if (pair.b == FeatureType.STRING)
-								featureset.put(new Feature(pair.a, features[i]));
-						}
-						metadata.setAttributes(featureset);
-						Path<Feature, String> featurePath = createPath(blockPath, metadata);
-						temporaryGraph.addPath(featurePath);
-					}
-				} catch (Exception e) {
-					logger.warning(e.getMessage());
-				}
+			Set<String> blockFeatures = new HashSet<String>();
+			for (ColumnSegment segment : blockFile.getSegments())
+				for (int column = 0; column < segment.getColumnCount(); column++)
+					if (SegmentScanner.isQueryable(segment.getColumnType(column)))
+						blockFeatures.add(segment.getColumnName(column));
+			boolean hasCoordinates = blockFeatures.contains(hint.getLatitudeHint())
+					&& blockFeatures.contains(hint.getLongitudeHint());
+
+			/* Evaluate the query directly over the block's columns. Rows are
+			 * numbered by their position within the block. */
+			SegmentScanner scanner = new SegmentScanner(geoQuery.getQuery(), blockFeatures);
+			BitSet matches = new BitSet();
+			int rowOffset = 0;
+			for (ColumnSegment segment : blockFile.getSegments()) {
+				BitSet segmentMatches = scanner.scan(segment);
+				for (int row = segmentMatches.nextSetBit(0); row >= 0; row = segmentMatches.nextSetBit(row + 1))
+					matches.set(rowOffset + row);
+				rowOffset += segment.getRowCount();
 			}
-			logger.info("Built temporary metadata graph");
-			featurePaths = geoQuery.getQuery() != null ? temporaryGraph.evaluateQuery(geoQuery.getQuery())
-					: temporaryGraph.getAllPaths();
-			if (geoQuery.getPolygon() != null) {
+
+			if (geoQuery.getPolygon() != null && hasCoordinates) {
 				Polygon polygon = new Polygon();
 				for (Coordinates coords : geoQuery.getPolygon()) {
 					Point<Integer> point = GeoHash.coordinatesToXY(coords);
@@ -541,29 +1058,40 @@ public class GeospatialFileSystem extends FileSystem {
 				Pair<Coordinates, Coordinates> pair = hashRange.get2DCoordinates();
 				Point<Integer> upperLeft = GeoHash.coordinatesToXY(pair.a);
 				Point<Integer> lowerRight = GeoHash.coordinatesToXY(pair.b);
-				if (polygon.contains(new Rectangle(upperLeft.X(), upperLeft.Y(), lowerRight.X() - upperLeft.X(),
-						lowerRight.Y() - upperLeft.Y())))
-					return featurePaths;
-				else {
-					if (latOrder != -1 && longOrder != -1) {
-						GeoavailabilityMap<Path<Feature, String>> geoMap = new GeoavailabilityMap<Path<Feature, String>>(
-								blockHash, GeoHash.MAX_PRECISION);
-						for (Path<Feature, String> fpath : featurePaths) {
-							float lat = fpath.get(latOrder).getLabel().getFloat();
-							float lon = fpath.get(longOrder).getLabel().getFloat();
-							if (!Float.isNaN(lat) && !Float.isNaN(lon))
-								geoMap.addPoint(new Coordinates(lat, lon), fpath);
-						}
-						List<Path<Feature, String>> results = new ArrayList<Path<Feature, String>>();
-						for (List<Path<Feature, String>> paths : geoMap.query(geoQuery).values())
-							results.addAll(paths);
-						logger.info("Number of paths in the considered block - " + results.size());
-						return results;
+				if (!polygon.contains(new Rectangle(upperLeft.X(), upperLeft.Y(), lowerRight.X() - upperLeft.X(),
+						lowerRight.Y() - upperLeft.Y()))) {
+					GeoavailabilityMap<Integer> geoMap = cached.getGeoMap(blockHash, GeoHash.MAX_PRECISION,
+							hint.getLatitudeHint(), hint.getLongitudeHint());
+					BitSet inside = new BitSet();
+					synchronized (geoMap) {
+						for (List<Integer> rows : geoMap.query(geoQuery).values())
+							if (rows != null)
+								for (int row : rows)
+									inside.set(row);
+					}
+					matches.and(inside);
+				}
+			}
+
+			/* Only materialize paths for the rows that matched */
+			rowOffset = 0;
+			scan: for (ColumnSegment segment : blockFile.getSegments()) {
+				int end = rowOffset + segment.getRowCount();
+				for (int row = matches.nextSetBit(rowOffset); row >= 0 && row < end; row = matches.nextSetBit(row + 1)) {
+					List<Feature> features = new ArrayList<Feature>(segment.getColumnCount());
+					for (int column = 0; column < segment.getColumnCount(); column++) {
+						Feature feature = segment.getFeature(column, row - rowOffset);
+						if (feature != null)
+							features.add(feature);
 					}
+					numPaths++;
+					if (!visitor.visit(new FeaturePath<String>(blockPath, features.toArray(new Feature[features.size()]))))
+						break scan;
 				}
+				rowOffset = end;
 			}
-			logger.info("Number of paths in the considered block - " + featurePaths.size());
-			return featurePaths;
+			logger.info("Number of paths in the considered block - " + numPaths);
+			return numPaths;
 		} catch (SerializationException | IOException | BitmapException e) {
 			throw new IOException("Failed to query for the given block(" + blockPath + ") - " + e.getMessage(),
 					e.getCause());
@@ -574,11 +1102,42 @@ public class GeospatialFileSystem extends FileSystem {
 		return metadataGraph.getFeaturesJSON();
 	}
 
+	/**
+	 * Retrieves the number of blocks and bytes stored under a directory of
+	 * the file system, given relative to its storage directory (for
+	 * instance, "2015/3" with the default time format).  An empty path
+	 * covers the entire file system.
+	 *
+	 * @return the usage, or null if the directory does not exist.
+	 */
+	public StorageUsage getStorageUsage(String path) {
+		return tree.getUsage(path);
+	}
+
+	/**
+	 * Retrieves the number of blocks and bytes stored in the spatial
+	 * directories whose geohashes begin with the given prefix.
+	 *
+	 * @return the usage, or null if there are no such directories.
+	 */
+	public StorageUsage getGeohashUsage(String geohash) {
+		return tree.getLeafPrefixUsage(geohash);
+	}
+
 	@Override
 	public void shutdown() {
 		logger.info("FileSystem shutting down");
+		if (maintenance != null)
+			maintenance.shutdownNow();
 		try {
+			if (snapshotsEnabled && unsnapshottedPaths.get() > 0)
+				snapshotMetadata();
 			pathJournal.shutdown();
+			synchronized (this) {
+				if (treeJournal.getLogEntries() > 0)
+					treeJournal.snapshot(tree);
+				treeJournal.shutdown();
+			}
 		} catch (Exception e) {
 			/* Everything is going down here, just print out the error */
 			e.printStackTrace();
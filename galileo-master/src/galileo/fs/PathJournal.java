@@ -36,14 +36,29 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.CRC32;
@@ -58,6 +73,28 @@ import galileo.serialization.SerializationOutputStream;
 import galileo.util.Pair;
 import galileo.util.PerformanceTimer;
 
+/**
+ * Journals the {@link FeaturePath}s added to a Metadata Graph so the graph can
+ * be rebuilt after a restart.  Paths are written to a sequence of numbered
+ * segment files; {@link #rotate()} starts a new segment so that older
+ * segments can be discarded once their contents are captured elsewhere (for
+ * instance, in a snapshot of the graph).  A new segment is also started when
+ * the current one reaches galileo.fs.PathJournal.segmentSize bytes (64 MB by
+ * default).  A single Feature index is shared by all the segments.
+ * <p>
+ * During recovery, each segment is memory-mapped and decoded on its own
+ * thread (up to galileo.fs.PathJournal.replayParallelism threads), and the
+ * recovered paths are then merged in segment order.
+ * <p>
+ * By default each path is written and flushed by the calling thread.  In
+ * group-commit mode, paths are instead queued for a writer thread that
+ * combines the paths submitted within a short window into a single write and
+ * fsync; {@link #persistPathAsync(FeaturePath)} returns a future that
+ * completes once a path is durable.  Group commit is enabled by setting the
+ * galileo.fs.PathJournal.groupCommitSize property to the maximum number of
+ * paths per batch, and galileo.fs.PathJournal.groupCommitLatency bounds the
+ * time (in milliseconds) a batch is held open waiting for more paths.
+ */
 public class PathJournal {
 
     private static final Logger logger = Logger.getLogger("galileo");
@@ -66,6 +103,7 @@ public class PathJournal {
     private String indexFile;
 
     private DataOutputStream pathStore;
+    private FileChannel pathChannel;
     private DataOutputStream indexStore;
 
     private Map<String, Integer> featureNames = new HashMap<>();
@@ -73,11 +111,96 @@ public class PathJournal {
         = new HashMap<>();
     private int nextId = 1;
 
-    private boolean running = false;
+    /* Segment currently being written to */
+    private int segment = 0;
+
+    private volatile boolean running = false;
+
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private long maxSegmentSize = Long.parseLong(System.getProperty(
+                "galileo.fs.PathJournal.segmentSize",
+                String.valueOf(DEFAULT_SEGMENT_SIZE)));
+
+    /* Group commit configuration; a batch size of zero disables group commit */
+    private int maxBatchSize;
+    private long maxBatchLatency;
+    private BlockingQueue<PendingPath> commitQueue
+        = new LinkedBlockingQueue<>();
+    private Thread commitThread;
+
+    /* Placed on the commit queue to stop the writer thread */
+    private static final PendingPath STOP = new PendingPath(null);
 
     public PathJournal(String pathFile) {
+        this(pathFile,
+                Integer.parseInt(System.getProperty(
+                        "galileo.fs.PathJournal.groupCommitSize", "0")),
+                Long.parseLong(System.getProperty(
+                        "galileo.fs.PathJournal.groupCommitLatency", "5")));
+    }
+
+    /**
+     * Creates a PathJournal with the specified group commit settings.
+     *
+     * @param pathFile location of the journal.
+     * @param maxBatchSize maximum number of paths written and synced
+     * together, or zero to write each path from its calling thread.
+     * @param maxBatchLatency maximum time, in milliseconds, to wait for
+     * further paths before committing a batch.
+     */
+    public PathJournal(String pathFile, int maxBatchSize,
+            long maxBatchLatency) {
         this.pathFile = pathFile;
         this.indexFile = pathFile + ".index";
+        this.maxBatchSize = Math.max(0, maxBatchSize);
+        this.maxBatchLatency = Math.max(0, maxBatchLatency);
+    }
+
+    /**
+     * Retrieves the name of the file that stores a particular journal
+     * segment.  The first segment is stored in the journal file itself.
+     */
+    private String segmentFile(int segment) {
+        if (segment == 0) {
+            return pathFile;
+        }
+        return pathFile + "." + segment;
+    }
+
+    /**
+     * Lists the journal segments present on disk, in ascending order.
+     */
+    private List<Integer> listSegments() {
+        List<Integer> segments = new ArrayList<>();
+        File journal = new File(pathFile);
+        File[] files = journal.getAbsoluteFile().getParentFile().listFiles();
+        if (files == null) {
+            return segments;
+        }
+
+        String prefix = journal.getName() + ".";
+        for (File file : files) {
+            String name = file.getName();
+            if (name.equals(journal.getName())) {
+                segments.add(0);
+            } else if (name.startsWith(prefix)) {
+                try {
+                    segments.add(Integer.parseInt(
+                                name.substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    /* Not a segment (e.g., the feature index) */
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Retrieves the number of the segment new paths are written to.
+     */
+    public synchronized int getSegment() {
+        return segment;
     }
 
     /**
@@ -89,16 +212,35 @@ public class PathJournal {
      * issues with the journal files (possible corruption).
      */
     public boolean recover(List<FeaturePath<String>> paths)
+    throws IOException {
+        return recover(paths, 0);
+    }
+
+    /**
+     * Recovers the Path Journal from disk, starting at a particular segment.
+     * Segments preceding the starting segment are removed.
+     *
+     * @param paths A list that will be populated with the recovered paths.
+     * @param firstSegment The first journal segment to replay.
+     *
+     * @return true if the recovery was completed cleanly; if false, there were
+     * issues with the journal files (possible corruption).
+     */
+    public boolean recover(List<FeaturePath<String>> paths, int firstSegment)
     throws IOException {
         PerformanceTimer timer = new PerformanceTimer();
         timer.start();
         boolean clean = true;
 
-        if (new File(pathFile).exists() == false
+        List<Integer> segments = listSegments();
+        if (segments.isEmpty()
+                || segments.get(segments.size() - 1) < firstSegment
                 || new File(indexFile).exists() == false) {
             erase();
             return false;
         }
+        segment = segments.get(segments.size() - 1);
+        removeSegmentsBefore(firstSegment);
 
         try {
             recoverIndex();
@@ -114,12 +256,13 @@ public class PathJournal {
         }
         logger.log(Level.INFO, "Features read: {0}", featureNames.size());
 
-        try {
-            recoverPaths(paths);
-        } catch (EOFException e) {
-            logger.info("Reached end of path journal.");
-        } catch (NullPointerException | SerializationException e) {
-            logger.log(Level.WARNING, "Error deserializing path!", e);
+        List<Integer> replay = new ArrayList<>();
+        for (int s : segments) {
+            if (s >= firstSegment) {
+                replay.add(s);
+            }
+        }
+        if (recoverPaths(paths, replay) == false) {
             clean = false;
         }
         logger.log(Level.INFO, "Recovered {0} paths.", paths.size());
@@ -176,49 +319,144 @@ public class PathJournal {
     }
 
     /**
-     * Recovers Paths stored in the Path Journal.
+     * Recovers Paths stored in a set of journal segments.  Each segment is
+     * decoded by a separate task, and the results are appended to the list of
+     * paths in segment order.
+     *
+     * @return true if all the segments were decoded without errors.
      */
-    private void recoverPaths(List<FeaturePath<String>> paths)
-    throws IOException, SerializationException {
-        DataInputStream pathIn = new DataInputStream(
-                new BufferedInputStream(
-                    new FileInputStream(pathFile)));
+    private boolean recoverPaths(List<FeaturePath<String>> paths,
+            List<Integer> segments) {
+        int parallelism = Math.max(1, Math.min(segments.size(),
+                    Integer.parseInt(System.getProperty(
+                            "galileo.fs.PathJournal.replayParallelism",
+                            "" + Runtime.getRuntime().availableProcessors()))));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<ForkJoinTask<List<FeaturePath<String>>>> tasks = new ArrayList<>();
+        for (int s : segments) {
+            tasks.add(pool.submit(new SegmentReplay(s)));
+        }
 
-        while (true) {
-            long check = pathIn.readLong();
-            int pathSize = pathIn.readInt();
+        boolean clean = true;
+        try {
+            for (int i = 0; i < tasks.size(); ++i) {
+                try {
+                    paths.addAll(tasks.get(i).get());
+                } catch (ExecutionException e) {
+                    logger.log(Level.WARNING, "Error deserializing path in "
+                            + "journal segment " + segments.get(i) + "!",
+                            e.getCause());
+                    clean = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return clean;
+    }
 
-            byte[] pathBytes = new byte[pathSize];
-            int read = pathIn.read(pathBytes);
-            if (read != pathSize) {
-                logger.info("Reached end of path index");
-                break;
+    /**
+     * Decodes the paths stored in a single memory-mapped journal segment.
+     */
+    private class SegmentReplay implements Callable<List<FeaturePath<String>>> {
+
+        private int number;
+
+        public SegmentReplay(int number) {
+            this.number = number;
+        }
+
+        @Override
+        public List<FeaturePath<String>> call()
+        throws IOException, SerializationException {
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(
+                        Paths.get(segmentFile(number)),
+                        StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        0, channel.size());
             }
 
+            List<FeaturePath<String>> paths = new ArrayList<>();
             CRC32 crc = new CRC32();
-            crc.update(pathBytes);
-            if (crc.getValue() != check) {
-                logger.warning("Detected checksum mismatch; ignoring path.");
-                continue;
+            ByteBufferInputStream entryIn = new ByteBufferInputStream();
+            SerializationInputStream sIn = new SerializationInputStream(
+                    entryIn);
+            while (buffer.remaining() >= 12) {
+                long check = buffer.getLong();
+                int pathSize = buffer.getInt();
+                if (pathSize < 0 || pathSize > buffer.remaining()) {
+                    logger.info("Reached end of path journal segment "
+                            + number);
+                    break;
+                }
+
+                ByteBuffer entry = buffer.slice();
+                entry.limit(pathSize);
+                buffer.position(buffer.position() + pathSize);
+
+                crc.reset();
+                crc.update(entry.duplicate());
+                if (crc.getValue() != check) {
+                    logger.warning("Detected checksum mismatch; "
+                            + "ignoring path.");
+                    continue;
+                }
+
+                entryIn.setBuffer(entry);
+                paths.add(deserializePath(sIn));
             }
+            return paths;
+        }
+    }
+
+    /**
+     * Exposes the contents of a ByteBuffer as an InputStream.
+     */
+    private static class ByteBufferInputStream extends InputStream {
 
-            FeaturePath<String> fp = deserializePath(pathBytes);
-            paths.add(fp);
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        public void setBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (buffer.hasRemaining() == false) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
         }
 
-        pathIn.close();
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (buffer.hasRemaining() == false) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
     }
 
     /**
      * Prepares the journal files and allows new entries to be written.
      */
-    public void start()
+    public synchronized void start()
     throws IOException {
-        OutputStream out = Files.newOutputStream(Paths.get(pathFile),
-                StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.APPEND);
-        pathStore = new DataOutputStream(new BufferedOutputStream(out));
+        openSegment();
 
         OutputStream indexOut = Files.newOutputStream(Paths.get(indexFile),
                 StandardOpenOption.CREATE,
@@ -228,6 +466,74 @@ public class PathJournal {
         indexStore = new DataOutputStream(new BufferedOutputStream(indexOut));
 
         running = true;
+
+        if (maxBatchSize > 0) {
+            commitThread = new Thread(new GroupCommitWriter(),
+                    "galileo-journal-" + new File(pathFile).getName());
+            commitThread.setDaemon(true);
+            commitThread.start();
+        }
+    }
+
+    /**
+     * Opens the current segment for appending new paths.
+     */
+    private void openSegment()
+    throws IOException {
+        pathChannel = FileChannel.open(Paths.get(segmentFile(segment)),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        pathStore = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(pathChannel)));
+    }
+
+    /**
+     * Closes the current segment and starts writing new paths to a new one.
+     * All the paths persisted before this method is called are stored in
+     * segments preceding the returned segment number.
+     *
+     * @return the number of the new segment.
+     */
+    public synchronized int rotate()
+    throws FileSystemException, IOException {
+        checkRunning();
+        nextSegment();
+        return segment;
+    }
+
+    /**
+     * Closes the current segment and opens the next one.
+     */
+    private void nextSegment()
+    throws IOException {
+        pathStore.close();
+        segment++;
+        openSegment();
+    }
+
+    /**
+     * Starts a new segment if the current segment has reached its maximum
+     * size.  Must be called with the journal's lock held, after the path
+     * stream has been flushed.
+     */
+    private void checkSegmentSize()
+    throws IOException {
+        if (pathChannel.size() >= maxSegmentSize) {
+            pathChannel.force(false);
+            nextSegment();
+        }
+    }
+
+    /**
+     * Removes journal segments that precede the given segment.
+     */
+    public void removeSegmentsBefore(int firstSegment) {
+        for (int s : listSegments()) {
+            if (s < firstSegment) {
+                new File(segmentFile(s)).delete();
+            }
+        }
     }
 
     /**
@@ -306,16 +612,195 @@ public class PathJournal {
     }
 
     /**
-     * Adds a graph {@link FeaturePath} to the journal.
+     * Adds a graph {@link FeaturePath} to the journal.  In group-commit mode,
+     * this method blocks until the batch containing the path is committed.
      *
      * @param path The FeaturePath to add to the journal.
      */
     public void persistPath(FeaturePath<String> path)
     throws FileSystemException, IOException {
+        if (maxBatchSize > 0) {
+            await(persistPathAsync(path));
+            return;
+        }
+
+        synchronized (this) {
+            checkRunning();
+            writePath(path);
+            pathStore.flush();
+            checkSegmentSize();
+        }
+    }
+
+    /**
+     * Adds a batch of graph {@link FeaturePath}s to the journal.  The journal
+     * is only flushed once, after all the paths have been written.
+     *
+     * @param paths The FeaturePaths to add to the journal.
+     */
+    public void persistPaths(List<FeaturePath<String>> paths)
+    throws FileSystemException, IOException {
+        if (maxBatchSize > 0) {
+            List<Future<Void>> futures = new ArrayList<>(paths.size());
+            for (FeaturePath<String> path : paths) {
+                futures.add(persistPathAsync(path));
+            }
+            for (Future<Void> future : futures) {
+                await(future);
+            }
+            return;
+        }
+
+        synchronized (this) {
+            checkRunning();
+            for (FeaturePath<String> path : paths) {
+                writePath(path);
+            }
+            pathStore.flush();
+            checkSegmentSize();
+        }
+    }
+
+    /**
+     * Submits a graph {@link FeaturePath} to be added to the journal.  In
+     * group-commit mode, the path is queued for the writer thread and the
+     * returned future completes once the path has been written and synced
+     * to disk; otherwise, the path is written immediately.
+     *
+     * @param path The FeaturePath to add to the journal.
+     *
+     * @return a future that completes when the path is committed.
+     */
+    public Future<Void> persistPathAsync(FeaturePath<String> path)
+    throws FileSystemException, IOException {
+        checkRunning();
+        if (maxBatchSize == 0) {
+            persistPath(path);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        PendingPath pending = new PendingPath(path);
+        commitQueue.add(pending);
+        return pending.future;
+    }
+
+    private void checkRunning()
+    throws FileSystemException {
         if (running == false) {
             throw new FileSystemException("Path Journal has not been started!");
         }
+    }
 
+    /**
+     * Waits for a path submitted with {@link #persistPathAsync(FeaturePath)}
+     * to be committed.
+     */
+    public void await(Future<Void> future)
+    throws FileSystemException, IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for journal "
+                    + "commit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new FileSystemException("Could not commit path to journal",
+                    cause);
+        }
+    }
+
+    /**
+     * A path waiting to be committed by the group commit writer.
+     */
+    private static class PendingPath {
+        FeaturePath<String> path;
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        public PendingPath(FeaturePath<String> path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * Collects queued paths into batches of up to maxBatchSize paths, waiting
+     * at most maxBatchLatency milliseconds after the first path of a batch
+     * arrives, and commits each batch with a single write and fsync.
+     */
+    private class GroupCommitWriter implements Runnable {
+        @Override
+        public void run() {
+            List<PendingPath> batch = new ArrayList<>(maxBatchSize);
+            boolean stopping = false;
+            while (stopping == false) {
+                try {
+                    PendingPath first = commitQueue.take();
+                    if (first == STOP) {
+                        break;
+                    }
+                    batch.add(first);
+
+                    long deadline = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(maxBatchLatency);
+                    while (batch.size() < maxBatchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        PendingPath next = commitQueue.poll(
+                                Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        if (next == STOP) {
+                            stopping = true;
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                } catch (InterruptedException e) {
+                    stopping = true;
+                }
+
+                commit(batch);
+                batch.clear();
+            }
+        }
+
+        private void commit(List<PendingPath> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            try {
+                synchronized (PathJournal.this) {
+                    for (PendingPath pending : batch) {
+                        writePath(pending.path);
+                    }
+                    pathStore.flush();
+                    pathChannel.force(false);
+                    checkSegmentSize();
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not commit paths to journal!",
+                        e);
+                for (PendingPath pending : batch) {
+                    pending.future.completeExceptionally(e);
+                }
+                return;
+            }
+
+            for (PendingPath pending : batch) {
+                pending.future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Writes a checksummed path entry to the (buffered) journal stream.
+     */
+    private void writePath(FeaturePath<String> path)
+    throws IOException {
         byte[] pathBytes = serializePath(path);
 
         CRC32 crc = new CRC32();
@@ -325,7 +810,6 @@ public class PathJournal {
         pathStore.writeLong(check);
         pathStore.writeInt(pathBytes.length);
         pathStore.write(pathBytes);
-        pathStore.flush();
     }
 
     /**
@@ -355,11 +839,8 @@ public class PathJournal {
     /**
      * Deserializes a {@link FeaturePath} from a byte array.
      */
-    private FeaturePath<String> deserializePath(byte[] pathBytes)
+    private FeaturePath<String> deserializePath(SerializationInputStream sIn)
     throws IOException, SerializationException {
-        SerializationInputStream sIn = new SerializationInputStream(
-                new ByteArrayInputStream(pathBytes));
-
         int vertices = sIn.readInt();
         FeaturePath<String> fp = new FeaturePath<>();
         for (int i = 0; i < vertices; ++i) {
@@ -376,7 +857,6 @@ public class PathJournal {
             String payload = sIn.readString();
             fp.addPayload(payload);
         }
-        sIn.close();
         return fp;
     }
 
@@ -388,8 +868,13 @@ public class PathJournal {
     throws IOException {
         shutdown();
 
-        new File(indexFile).delete();
-        new File(pathFile).delete();
+        synchronized (this) {
+            new File(indexFile).delete();
+            for (int s : listSegments()) {
+                new File(segmentFile(s)).delete();
+            }
+            segment = 0;
+        }
     }
 
     /**
@@ -397,12 +882,45 @@ public class PathJournal {
      */
     public void shutdown()
     throws IOException {
-        if (running == false) {
-            return;
+        Thread writer;
+        synchronized (this) {
+            if (running == false) {
+                return;
+            }
+            running = false;
+            writer = commitThread;
+            commitThread = null;
         }
 
-        indexStore.close();
-        pathStore.close();
+        if (writer != null) {
+            /* Let the writer commit everything queued before the shutdown */
+            commitQueue.add(STOP);
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            PendingPath pending;
+            while ((pending = commitQueue.poll()) != null) {
+                if (pending != STOP) {
+                    pending.future.completeExceptionally(
+                            new FileSystemException("Path Journal has been "
+                                + "shut down!"));
+                }
+            }
+        }
+
+        synchronized (this) {
+            indexStore.close();
+            pathStore.close();
+        }
     }
 }
 
@@ -0,0 +1,229 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.fs;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import galileo.dataset.feature.Feature;
+import galileo.dataset.feature.FeatureType;
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.query.Operator;
+import galileo.query.Query;
+
+/**
+ * Evaluates a {@link Query} directly against the primitive column arrays of a
+ * {@link ColumnSegment}, producing a selection bitmap of the matching rows.
+ * <p>
+ * Matching follows the semantics of the
+ * {@link galileo.graph.HierarchicalGraph}: the Operations of a query are
+ * combined with OR and the Expressions within an Operation with AND.
+ * Expressions on features that do not appear anywhere in the block are
+ * ignored. When a feature exists in the block but not in a particular segment,
+ * its rows behave like wildcard vertices and only satisfy NOTEQUAL.
+ * Numeric comparisons use the total ordering of
+ * {@link Float#compare(float, float)} and friends, so NaN values order above
+ * all other values, as they do in the graph.
+ */
+public class SegmentScanner {
+
+    private static final Logger logger = Logger.getLogger("galileo");
+
+    private Query query;
+    private Set<String> blockFeatures;
+
+    /**
+     * Creates a scanner for a query.
+     *
+     * @param query Query to evaluate, or null to select every row.
+     * @param blockFeatures names of all the features present in the block
+     * being scanned.
+     */
+    public SegmentScanner(Query query, Set<String> blockFeatures) {
+        this.query = query;
+        this.blockFeatures = blockFeatures;
+    }
+
+    /**
+     * Determines which rows of a segment satisfy the query.
+     *
+     * @return bitmap with a bit set for every matching row.
+     */
+    public BitSet scan(ColumnSegment segment) {
+        int rows = segment.getRowCount();
+        BitSet selection = new BitSet(rows);
+        if (query == null) {
+            selection.set(0, rows);
+            return selection;
+        }
+
+        for (Operation operation : query.getOperations()) {
+            selection.or(scan(segment, operation));
+            if (selection.cardinality() == rows) {
+                break;
+            }
+        }
+        return selection;
+    }
+
+    private BitSet scan(ColumnSegment segment, Operation operation) {
+        int rows = segment.getRowCount();
+        BitSet selection = new BitSet(rows);
+        selection.set(0, rows);
+
+        List<Expression> expressions = operation.getExpressions();
+        for (Expression expression : expressions) {
+            if (blockFeatures.contains(expression.getOperand()) == false) {
+                continue;
+            }
+
+            int column = segment.getColumnIndex(expression.getOperand());
+            if (column == -1
+                    || isQueryable(segment.getColumnType(column)) == false) {
+                if (expression.getOperator() != Operator.NOTEQUAL) {
+                    selection.clear();
+                }
+            } else {
+                selection.and(evaluate(segment, column, expression));
+            }
+
+            if (selection.isEmpty()) {
+                break;
+            }
+        }
+        return selection;
+    }
+
+    /**
+     * Determines whether values of the given type are materialized as
+     * {@link Feature}s and can therefore be queried.
+     */
+    public static boolean isQueryable(FeatureType type) {
+        switch (type) {
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case STRING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private BitSet evaluate(ColumnSegment segment, int column,
+            Expression expression) {
+        int rows = segment.getRowCount();
+        BitSet matches = new BitSet(rows);
+        Operator op = expression.getOperator();
+        Feature value = expression.getValue();
+
+        if (op == Operator.UNKNOWN) {
+            logger.log(Level.WARNING,
+                    "Invalid operator ({0}) in expression: {1}",
+                    new Object[] { op, expression });
+            return matches;
+        }
+
+        switch (segment.getColumnType(column)) {
+            case INT: {
+                int[] values = (int[]) segment.getColumn(column);
+                int v = value.getInt();
+                for (int r = 0; r < rows; ++r) {
+                    if (accept(op, Integer.compare(values[r], v))) {
+                        matches.set(r);
+                    }
+                }
+                break;
+            }
+            case LONG: {
+                long[] values = (long[]) segment.getColumn(column);
+                long v = value.getLong();
+                for (int r = 0; r < rows; ++r) {
+                    if (accept(op, Long.compare(values[r], v))) {
+                        matches.set(r);
+                    }
+                }
+                break;
+            }
+            case FLOAT: {
+                float[] values = (float[]) segment.getColumn(column);
+                float v = value.getFloat();
+                for (int r = 0; r < rows; ++r) {
+                    if (accept(op, Float.compare(values[r], v))) {
+                        matches.set(r);
+                    }
+                }
+                break;
+            }
+            case DOUBLE: {
+                double[] values = (double[]) segment.getColumn(column);
+                double v = value.getDouble();
+                for (int r = 0; r < rows; ++r) {
+                    if (accept(op, Double.compare(values[r], v))) {
+                        matches.set(r);
+                    }
+                }
+                break;
+            }
+            default: {
+                String[] values = (String[]) segment.getColumn(column);
+                String v = value.getString();
+                /* Rows of dictionary-encoded columns share String instances,
+                 * so runs of the same value are only compared once. */
+                String last = null;
+                boolean lastResult = false;
+                for (int r = 0; r < rows; ++r) {
+                    if (values[r] != last) {
+                        last = values[r];
+                        lastResult = accept(op, last.compareTo(v));
+                    }
+                    if (lastResult) {
+                        matches.set(r);
+                    }
+                }
+                break;
+            }
+        }
+        return matches;
+    }
+
+    private static boolean accept(Operator op, int comparison) {
+        switch (op) {
+            case EQUAL: return comparison == 0;
+            case NOTEQUAL: return comparison != 0;
+            case LESS: return comparison < 0;
+            case LESSEQUAL: return comparison <= 0;
+            case GREATER: return comparison > 0;
+            case GREATEREQUAL: return comparison >= 0;
+            default: return false;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package galileo.graph;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 
@@ -16,7 +18,11 @@ public class GNode {
 	List<String> blocks = null;
 	GNode parent;
 	List<GNode> children = null;
+	/* Children indexed by their path element */
+	Map<String, GNode> childIndex = null;
 	String path;
+	/* Blocks stored in this node and its descendants */
+	StorageUsage usage = new StorageUsage();
 	
 	public GNode() {
 		isLeaf = false;
@@ -52,6 +58,11 @@ public class GNode {
 
 	public void setChildren(List<GNode> children) {
 		this.children = children;
+		this.childIndex = null;
+		if (children != null) {
+			for (GNode child : children)
+				indexChild(child);
+		}
 	}
 	
 	public void addChild(GNode child) {
@@ -59,6 +70,23 @@ public class GNode {
 			children = new ArrayList<GNode>();
 		}
 		children.add(child);
+		indexChild(child);
+	}
+
+	private void indexChild(GNode child) {
+		if (childIndex == null)
+			childIndex = new HashMap<String, GNode>();
+		childIndex.put(child.getPath(), child);
+	}
+
+	/**
+	 * Retrieves the child with the given path element, or null if there is
+	 * no such child.
+	 */
+	public GNode getChild(String path) {
+		if (childIndex == null)
+			return null;
+		return childIndex.get(path);
 	}
 	
 
@@ -78,6 +106,14 @@ public class GNode {
 		this.parent = parent;
 	}
 
+	/**
+	 * Retrieves the number of blocks and bytes stored in the subtree rooted
+	 * at this node.
+	 */
+	public StorageUsage getUsage() {
+		return usage;
+	}
+
 	public int getNodeNum() {
 		return nodeNum;
 	}
@@ -106,22 +142,34 @@ public class GNode {
 	
 	
 	public int addNewPath(String[] elements,String blockName, int index, int num) {
+		return addNewPath(elements, blockName, index, num, null);
+	}
+
+	/**
+	 * Adds a block below this node, creating the nodes along its path that
+	 * do not exist yet.  Newly created nodes are added to the created list,
+	 * if one is provided.
+	 *
+	 * @return the number of the last node created, or -1 if the path
+	 * already existed.
+	 */
+	public int addNewPath(String[] elements, String blockName, int index, int num, List<GNode> created) {
+		GNode node = this;
+		/* Descend through the nodes that already exist */
+		while (index < elements.length) {
+			GNode child = node.getChild(elements[index]);
+			if (child == null)
+				break;
+			node = child;
+			index++;
+		}
 		/*Whole Path matches but blockname does not*/
-		if(index == elements.length && elements[index-1].equals(this.getPath())) {
-			this.addBlocks(blockName);
+		if(index == elements.length && index > 0 && elements[index-1].equals(node.getPath())) {
+			node.addBlocks(blockName);
 			return -1;
 		}
-		List<GNode> childNodes = getChildren();
-		
-		if (childNodes != null && childNodes.size() > 0) {
-			for (GNode g : childNodes) {
-				if (elements[index].equals(g.getPath())) {
-					return g.addNewPath(elements, blockName, index + 1, num);
-				}
-			}
-		}
 		/* If no matching child node if found in the previous if condition */
-		GNode prevNode = this;
+		GNode prevNode = node;
 		for(int i = index; i < elements.length; i++) {
 			GNode newNode = new GNode();
 			num++;
@@ -138,6 +186,8 @@ public class GNode {
 			prevNode.addChild(newNode);
 			prevNode.setIsLeaf(false);
 			newNode.setParent(prevNode);
+			if (created != null)
+				created.add(newNode);
 			
 			prevNode = newNode;
 			
@@ -11,15 +11,37 @@ import java.util.List;
 import java.util.Map;
 
 import galileo.fs.GBlockInfo;
+import galileo.serialization.ByteSerializable;
+import galileo.serialization.SerializationInputStream;
+import galileo.serialization.SerializationOutputStream;
 
 
 
 /**
+ * Mirrors the directory hierarchy of a file system on disk.  All operations
+ * that read or modify the tree are synchronized, so a GTree may be shared
+ * between the threads storing blocks and those inspecting the tree.
+ * <p>
+ * The serialized form of a GTree is a compact snapshot that lists its nodes
+ * in preorder, each referring to its parent by position, so a tree is
+ * restored in a single linear pass.  Changes made after a snapshot are
+ * recorded by a {@link galileo.fs.GTreeJournal}.
+ * <p>
+ * Nodes are indexed by their number, and blocks by their directory path and
+ * name, so looking either up takes constant time.  Block information must
+ * be added through the tree (rather than to the lists held in the
+ * pathToBlockMap) to be indexed.
+ * <p>
+ * The tree also maintains the {@link StorageUsage} of every subtree, and of
+ * the leaf directories whose names share a prefix (in the geospatial file
+ * system, leaf directories are named by geohash).  Usage is updated as
+ * blocks are added or resized, in time proportional to the depth of the
+ * tree, so it can be retrieved without walking the tree.
  * 
  * @author sapmitra
  *
  */
-public class GTree {
+public class GTree implements ByteSerializable {
 	
 	private List<GNode> nodes ;
 	
@@ -27,28 +49,292 @@ public class GTree {
 	private GNode rootNode;
 	private String fsName;
 	private Map<String,List<GBlockInfo>> pathToBlockMap;
+
+	/* Nodes by their number; numbers without a node hold null */
+	private List<GNode> nodeIndex = new ArrayList<GNode>();
+
+	/* Blocks by their directory path and name (see blockKey) */
+	private Map<String, GBlockInfo> blockIndex = new HashMap<String, GBlockInfo>();
+
+	/* Directories holding blocks, by their paths in the pathToBlockMap */
+	private Map<String, GNode> blockDirectories = new HashMap<String, GNode>();
+
+	/* Usage of the leaf directories by each prefix of their names */
+	private Map<String, StorageUsage> leafPrefixUsage = new HashMap<String, StorageUsage>();
 	
-	
-	
-	public void addNewPath(String path, String block, int blockSize) {
+	public GTree() {
+	}
+
+	/**
+	 * Creates an empty tree for a file system, holding only a root directory
+	 * at the given path.
+	 */
+	public GTree(String fsName, String rootPath) {
+		this.fsName = fsName;
+		this.pathToBlockMap = new HashMap<String, List<GBlockInfo>>();
+		GNode root = new GNode();
+		root.setNodeNum(1);
+		root.setIsRoot(true);
+		root.setIsLeaf(true);
+		root.setPath(rootPath);
+		this.numNodes = 1;
+		this.rootNode = root;
+		addNode(root);
+	}
+
+	/**
+	 * Restores a tree from a snapshot written by {@link #serialize}.
+	 */
+	@Deserialize
+	public GTree(SerializationInputStream in) throws IOException {
+		fsName = in.readString();
+		numNodes = in.readInt();
+		int count = in.readInt();
+		nodes = new ArrayList<GNode>(count);
+		pathToBlockMap = new HashMap<String, List<GBlockInfo>>();
+		/* Directory paths of the nodes, relative to the root */
+		String[] relPaths = new String[count];
+		for (int i = 0; i < count; ++i) {
+			GNode node = new GNode();
+			node.setNodeNum(in.readInt());
+			int parentIndex = in.readInt();
+			node.setPath(in.readString());
+			node.setIsLeaf(in.readBoolean());
+			if (parentIndex < 0) {
+				node.setIsRoot(true);
+				rootNode = node;
+			} else {
+				GNode parent = nodes.get(parentIndex);
+				node.setParent(parent);
+				parent.addChild(node);
+				relPaths[i] = relPaths[parentIndex] == null ? node.getPath()
+						: relPaths[parentIndex] + File.separator + node.getPath();
+			}
+
+			int numBlocks = in.readInt();
+			if (numBlocks > 0) {
+				List<GBlockInfo> blks = new ArrayList<GBlockInfo>(numBlocks);
+				for (int b = 0; b < numBlocks; ++b) {
+					GBlockInfo gbl = new GBlockInfo();
+					gbl.setBlockName(in.readString());
+					gbl.setBlockSize(in.readInt());
+					blks.add(gbl);
+					node.addBlocks(gbl.getBlockName());
+					blockIndex.put(blockKey(relPaths[i], gbl.getBlockName()), gbl);
+				}
+				pathToBlockMap.put(relPaths[i], blks);
+			}
+			nodes.add(node);
+			indexNode(node);
+		}
+		computeUsage();
+	}
+
+	/**
+	 * Recomputes the usage of every subtree and leaf name prefix from the
+	 * block information in the pathToBlockMap.
+	 */
+	private void computeUsage() {
+		leafPrefixUsage = new HashMap<String, StorageUsage>();
+		blockDirectories = new HashMap<String, GNode>();
+		if (rootNode == null || pathToBlockMap == null)
+			return;
+
+		/* Nodes are listed in preorder, so each node is visited before its
+		 * ancestors when the list is traversed backwards. */
+		List<GNode> preorder = new ArrayList<GNode>();
+		List<String> relPaths = new ArrayList<String>();
+		listSubTree(rootNode, null, preorder, relPaths);
+		for (GNode node : preorder)
+			node.usage = new StorageUsage();
+		for (int i = preorder.size() - 1; i >= 0; --i) {
+			GNode node = preorder.get(i);
+			List<GBlockInfo> blks = relPaths.get(i) == null ? null : pathToBlockMap.get(relPaths.get(i));
+			if (blks != null) {
+				long bytes = 0;
+				for (GBlockInfo gbl : blks)
+					bytes += gbl.getBlockSize();
+				node.usage.add(blks.size(), bytes);
+				addLeafPrefixUsage(node.getPath(), blks.size(), bytes);
+				blockDirectories.put(relPaths.get(i), node);
+			}
+			if (node.getParent() != null)
+				node.getParent().usage.add(node.usage.getBlocks(), node.usage.getBytes());
+		}
+	}
+
+	private static void listSubTree(GNode node, String relPath, List<GNode> preorder, List<String> relPaths) {
+		preorder.add(node);
+		relPaths.add(relPath);
+		if (node.getChildren() != null) {
+			for (GNode child : node.getChildren())
+				listSubTree(child, relPath == null ? child.getPath() : relPath + File.separator + child.getPath(),
+						preorder, relPaths);
+		}
+	}
+
+	/**
+	 * Adds to the usage of a node and all of its ancestors.
+	 */
+	private void addUsage(GNode node, long blocks, long bytes) {
+		addLeafPrefixUsage(node.getPath(), blocks, bytes);
+		for (GNode n = node; n != null; n = n.getParent())
+			n.usage.add(blocks, bytes);
+	}
+
+	private void addLeafPrefixUsage(String name, long blocks, long bytes) {
+		for (int i = 1; i <= name.length(); ++i) {
+			String prefix = name.substring(0, i);
+			StorageUsage usage = leafPrefixUsage.get(prefix);
+			if (usage == null) {
+				usage = new StorageUsage();
+				leafPrefixUsage.put(prefix, usage);
+			}
+			usage.add(blocks, bytes);
+		}
+	}
+
+	/**
+	 * Retrieves the node for a directory path relative to the root of the
+	 * tree; an empty path refers to the root itself.
+	 *
+	 * @return the node, or null if the path is not part of the tree.
+	 */
+	public synchronized GNode getNode(String path) {
+		GNode node = rootNode;
+		if (path == null || path.isEmpty())
+			return node;
+		GNode directory = blockDirectories.get(path);
+		if (directory != null)
+			return directory;
+		for (String element : path.split(File.separator)) {
+			if (node == null)
+				return null;
+			if (element.isEmpty() == false)
+				node = node.getChild(element);
+		}
+		return node;
+	}
+
+	/**
+	 * Retrieves the usage of the subtree at a directory path relative to the
+	 * root of the tree.
+	 *
+	 * @return the usage, or null if the path is not part of the tree.
+	 */
+	public StorageUsage getUsage(String path) {
+		GNode node = getNode(path);
+		return node == null ? null : node.getUsage();
+	}
+
+	/**
+	 * Retrieves the combined usage of the leaf directories whose names begin
+	 * with the given prefix, or null if there are none.
+	 */
+	public synchronized StorageUsage getLeafPrefixUsage(String prefix) {
+		return leafPrefixUsage.get(prefix);
+	}
+
+	@Override
+	public synchronized void serialize(SerializationOutputStream out) throws IOException {
+		out.writeString(fsName);
+		out.writeInt(numNodes);
+		out.writeInt(countNodes(rootNode));
+		if (rootNode != null)
+			writeSubTree(out, rootNode, -1, null, new int[] { 0 });
+	}
+
+	private static int countNodes(GNode node) {
+		if (node == null)
+			return 0;
+		int count = 1;
+		if (node.getChildren() != null) {
+			for (GNode child : node.getChildren())
+				count += countNodes(child);
+		}
+		return count;
+	}
+
+	/**
+	 * Writes a node and its descendants in preorder.  The counter holds the
+	 * position of the next node written.
+	 */
+	private void writeSubTree(SerializationOutputStream out, GNode node, int parentIndex, String relPath,
+			int[] counter) throws IOException {
+		int index = counter[0]++;
+		out.writeInt(node.getNodeNum());
+		out.writeInt(parentIndex);
+		out.writeString(node.getPath());
+		out.writeBoolean(node.getIsLeaf());
+
+		List<GBlockInfo> blks = relPath == null ? null : pathToBlockMap.get(relPath);
+		if (blks != null) {
+			out.writeInt(blks.size());
+			for (GBlockInfo gbl : blks) {
+				out.writeString(gbl.getBlockName());
+				out.writeInt(gbl.getBlockSize());
+			}
+		} else {
+			out.writeInt(0);
+		}
+
+		if (node.getChildren() != null) {
+			for (GNode child : node.getChildren()) {
+				String childPath = relPath == null ? child.getPath() : relPath + File.separator + child.getPath();
+				writeSubTree(out, child, index, childPath, counter);
+			}
+		}
+	}
+
+	/**
+	 * Determines whether a block has been added to the tree under the given
+	 * directory path.
+	 */
+	public synchronized boolean containsBlock(String path, String block) {
+		return blockIndex.containsKey(blockKey(path, block));
+	}
+
+	/**
+	 * Retrieves the information recorded about a block, or null if the block
+	 * is not part of the tree.
+	 */
+	public synchronized GBlockInfo getBlock(String path, String block) {
+		return blockIndex.get(blockKey(path, block));
+	}
+
+	private static String blockKey(String path, String block) {
+		return path + File.separator + block;
+	}
+
+	public synchronized void addNewPath(String path, String block, int blockSize) {
 		String[] elements = path.split(File.separator);
-		int newNumNodes = rootNode.addNewPath(elements,block, 0, numNodes);
+		List<GNode> created = new ArrayList<GNode>(elements.length);
+		int newNumNodes = rootNode.addNewPath(elements,block, 0, numNodes, created);
+		GBlockInfo gbl = new GBlockInfo();
+		gbl.setBlockName(block);
+		gbl.setBlockSize(blockSize);
+		if (newNumNodes == -1 || newNumNodes > numNodes) {
+			GNode directory = created.isEmpty() ? getNode(path) : created.get(created.size() - 1);
+			blockDirectories.put(path, directory);
+			addUsage(directory, 1, blockSize);
+		}
 		if(newNumNodes == -1) {
 			List<GBlockInfo> blks = pathToBlockMap.get(path);
-			GBlockInfo gbl = new GBlockInfo();
-			gbl.setBlockName(block);
-			gbl.setBlockSize(blockSize);
+			if (blks == null) {
+				blks = new ArrayList<GBlockInfo>();
+				pathToBlockMap.put(path, blks);
+			}
 			blks.add(gbl);
-			pathToBlockMap.put(path,blks);
+			blockIndex.put(blockKey(path, block), gbl);
 			
 		} else if(newNumNodes > numNodes) {
 			List<GBlockInfo> blks = new ArrayList<GBlockInfo>();
-			GBlockInfo gbl = new GBlockInfo();
-			gbl.setBlockName(block);
-			gbl.setBlockSize(blockSize);
 			blks.add(gbl);
 			pathToBlockMap.put(path,blks);
+			blockIndex.put(blockKey(path, block), gbl);
 			numNodes = newNumNodes;
+			for (GNode node : created)
+				addNode(node);
 		} /*else {
 			List<String> blks = pathToBlockMap.get(path);
 			blks.add(block);
@@ -57,10 +343,22 @@ public class GTree {
 		
 	}	
 	
+	/**
+	 * Updates the recorded size of a block that is already part of the tree.
+	 * 
+	 * @return true if the block was found and updated.
+	 */
+	public synchronized boolean updateBlockSize(String path, String block, int blockSize) {
+		GBlockInfo gb = blockIndex.get(blockKey(path, block));
+		if (gb == null)
+			return false;
+		if (blockSize != gb.getBlockSize())
+			addUsage(getNode(path), 0, (long) blockSize - gb.getBlockSize());
+		gb.setBlockSize(blockSize);
+		return true;
+	}
 	
-	
-	
-	public String logTree() {
+	public synchronized String logTree() {
 
 		String op="";
 		String op1 = fsName + "\n";
@@ -100,23 +398,18 @@ public class GTree {
 		}
 		br.close();
 		
-		/* Extracting one tree at a time*/
-		if(lines.size() > 0){
-			while(lines != null && lines.indexOf("$$") > 0){
-				List<String> treeInfo = new ArrayList<String>();
-				treeInfo.addAll(lines.subList(0, lines.indexOf("$$")));
-				
-				if(treeInfo.size() > 0){
-					GTree tree = extractTree(treeInfo);
-					if(tree != null && tree.getFsName() != null) {
-						fsToTreeMap.put(tree.getFsName(), tree);
-					}
+		/* Extracting one tree at a time, in a single pass over the lines */
+		int treeStart = 0;
+		for (int i = 0; i < lines.size(); ++i) {
+			if (lines.get(i).equals("$$") == false)
+				continue;
+			if (i > treeStart) {
+				GTree tree = extractTree(lines.subList(treeStart, i));
+				if(tree != null && tree.getFsName() != null) {
+					fsToTreeMap.put(tree.getFsName(), tree);
 				}
-				
-				lines = lines.subList(lines.indexOf("$$")+1, lines.size());
-				
-				
 			}
+			treeStart = i + 1;
 		}
 		return fsToTreeMap;
 		
@@ -138,6 +431,9 @@ public class GTree {
 			
 			if(nodeInfos.size() > 0) {
 				List<GNode> gnodes = extractNodeInfo(nodeInfos);
+				Map<Integer, GNode> nodesById = new HashMap<Integer, GNode>();
+				for (GNode g : gnodes)
+					nodesById.put(g.getNodeNum(), g);
 				
 				if(inheritanceInfo.size() > 0) {
 					
@@ -146,12 +442,12 @@ public class GTree {
 						String[] data = in.split("\\$");
 						if(data.length == 2) {
 							int parentID = Integer.valueOf(data[0]);
-							GNode parent = GNode.getNodeFromID(parentID, gnodes);
+							GNode parent = nodesById.get(parentID);
 							
 							String[] children = data[1].split(",");
 							
 							for(String c : children) {
-								GNode child = GNode.getNodeFromID(Integer.valueOf(c), gnodes);
+								GNode child = nodesById.get(Integer.valueOf(c));
 								child.setParent(parent);
 								parent.addChild(child);
 							}
@@ -198,26 +494,51 @@ public class GTree {
 		return nodes;
 	}
 
-	public List<GNode> getNodes() {
+	public synchronized List<GNode> getNodes() {
 		return nodes;
 	}
 
-	public void setNodes(List<GNode> nodes) {
+	public synchronized void setNodes(List<GNode> nodes) {
 		this.nodes = nodes;
+		nodeIndex = new ArrayList<GNode>();
+		if (nodes != null) {
+			for (GNode node : nodes)
+				indexNode(node);
+		}
 	}
 	
-	public void addNode(GNode node) {
+	public synchronized void addNode(GNode node) {
 		if(this.nodes == null) {
 			this.nodes= new ArrayList<GNode>(); 
 		}
 		this.nodes.add(node);
+		indexNode(node);
+	}
+
+	private void indexNode(GNode node) {
+		int id = node.getNodeNum();
+		if (id < 0)
+			return;
+		while (nodeIndex.size() <= id)
+			nodeIndex.add(null);
+		nodeIndex.set(id, node);
 	}
 
-	public GNode getRootNode() {
+	/**
+	 * Retrieves the node with the given number, or null if there is no such
+	 * node in the tree.
+	 */
+	public synchronized GNode getNode(int id) {
+		if (id < 0 || id >= nodeIndex.size())
+			return null;
+		return nodeIndex.get(id);
+	}
+
+	public synchronized GNode getRootNode() {
 		return rootNode;
 	}
 
-	public void setRootNode(GNode parent) {
+	public synchronized void setRootNode(GNode parent) {
 		this.rootNode = parent;
 	}
 
@@ -231,25 +552,33 @@ public class GTree {
 
 
 
-	public Map<String, List<GBlockInfo>> getPathToBlockMap() {
+	public synchronized Map<String, List<GBlockInfo>> getPathToBlockMap() {
 		return pathToBlockMap;
 	}
 
 
 
-	public void setPathToBlockMap(Map<String, List<GBlockInfo>> pathToBlockMap) {
+	public synchronized void setPathToBlockMap(Map<String, List<GBlockInfo>> pathToBlockMap) {
 		this.pathToBlockMap = pathToBlockMap;
+		blockIndex = new HashMap<String, GBlockInfo>();
+		if (pathToBlockMap != null) {
+			for (Map.Entry<String, List<GBlockInfo>> entry : pathToBlockMap.entrySet()) {
+				for (GBlockInfo gbl : entry.getValue())
+					blockIndex.put(blockKey(entry.getKey(), gbl.getBlockName()), gbl);
+			}
+		}
+		computeUsage();
 	}
 
 
 
-	public int getNumNodes() {
+	public synchronized int getNumNodes() {
 		return numNodes;
 	}
 
 
 
-	public void setNumNodes(int numNodes) {
+	public synchronized void setNumNodes(int numNodes) {
 		this.numNodes = numNodes;
 	}
 	
@@ -25,18 +25,17 @@ software, even if advised of the possibility of such damage.
 
 package galileo.graph;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NavigableMap;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 
 import org.json.JSONArray;
@@ -44,7 +43,6 @@ import org.json.JSONObject;
 
 import galileo.dataset.feature.Feature;
 import galileo.dataset.feature.FeatureType;
-import galileo.query.Expression;
 import galileo.query.Operation;
 import galileo.query.PayloadFilter;
 import galileo.query.Query;
@@ -60,32 +58,93 @@ public class HierarchicalGraph<T> {
 
     private static final Logger logger = Logger.getLogger("galileo");
 
+    /**
+     * Maximum number of distinct labels interned at each level.  Beyond this
+     * point a level is considered high-cardinality: its labels are rarely
+     * repeated, so the dictionary would cost more than it saves.
+     */
+    private static final int MAX_INTERNED_LABELS = Integer.parseInt(
+            System.getProperty(
+                "galileo.graph.HierarchicalGraph.maxInternedLabels",
+                "65536"));
+
+    /**
+     * Queries that collect their results split the traversal across fork-join
+     * tasks wherever the candidate vertices below a single vertex outnumber
+     * this fan-out (for example, thousands of dates at the top of the
+     * hierarchy).  Narrower graphs are evaluated sequentially on the calling
+     * thread.  Zero disables parallel evaluation, which is the default on
+     * single-processor machines.
+     */
+    private static final int DEFAULT_PARALLEL_FANOUT = Integer.parseInt(
+            System.getProperty(
+                "galileo.graph.HierarchicalGraph.parallelFanout",
+                Runtime.getRuntime().availableProcessors() > 1 ? "64" : "0"));
+
+    private int parallelFanout = DEFAULT_PARALLEL_FANOUT;
+
     /** The root vertex. */
     private Vertex<Feature, T> root = new Vertex<>();
 
     /** Describes each level in the hierarchy. */
-    private Map<String, Level> levels = new HashMap<>();
+    private Map<String, Level> levels = new ConcurrentHashMap<>();
 
     /**
-     * We maintain a separate Queue with Feature names inserted in
+     * We maintain a separate List with Feature names inserted in
      * hierarchical order.  While levels.keySet() contains the same information,
-     * there is no contractual obligation for HashMap to return the keyset in
-     * the original insertion order (although in practice, it probably does).
+     * there is no contractual obligation for the map to return the keyset in
+     * the original insertion order.  Both structures can be read while a path
+     * that adds a new level is being inserted.
      */
-    private Queue<String> features = new LinkedList<>();
+    private List<String> features = new CopyOnWriteArrayList<>();
 
     /**
      * Tracks information about each level in the graph hierarchy.
      */
     private class Level {
 
-        public Level(int order, FeatureType type) {
+        public Level(int order, String name, FeatureType type) {
             this.order = order;
             this.type = type;
+            this.nullLabel = new Feature(name);
         }
 
         public int order;
         public FeatureType type;
+
+        /** Shared label for vertices with no value at this level. */
+        public Feature nullLabel;
+
+        /**
+         * Canonical labels at this level.  Vertices across the graph that
+         * carry the same Feature reference a single shared instance (and its
+         * name String) rather than a copy per inserted path.
+         */
+        public Map<Feature, Feature> labels = new HashMap<>();
+
+        /**
+         * Retrieves the canonical instance of a label at this level, adding it
+         * to the dictionary if there is room.
+         */
+        public Feature intern(Feature label) {
+            if (label.getType() == FeatureType.NULL) {
+                return nullLabel;
+            }
+
+            Feature canonical = labels.get(label);
+            if (canonical != null) {
+                return canonical;
+            }
+
+            if (labels.size() < MAX_INTERNED_LABELS) {
+                if (label.getName() != nullLabel.getName()) {
+                    /* Share the level's name String */
+                    label = new Feature(nullLabel.getName(), label);
+                }
+                labels.put(label, label);
+            }
+            return label;
+        }
     }
 
     public HierarchicalGraph() { }
@@ -104,26 +163,49 @@ public class HierarchicalGraph<T> {
     }
 
     public List<Path<Feature, T>> evaluateQuery(Query query) {
-        List<Path<Feature, T>> paths = null;
-
-        for (Operation operation : query.getOperations()) {
-            HierarchicalQueryTracker<T> tracker
-                = new HierarchicalQueryTracker<>(root, features.size());
-            evaluateOperation(operation, tracker);
-            List<Path<Feature, T>> opResult = tracker.getQueryResults();
-
-            if (paths == null) {
-                paths = opResult;
-            } else {
-                paths.addAll(opResult);
+        final List<Path<Feature, T>> paths = new ArrayList<>();
+        if (parallelFanout > 0) {
+            for (Operation operation : query.getOperations()) {
+                QueryTraversal<T> traversal
+                    = new QueryTraversal<>(root, features, operation);
+                paths.addAll(traversal.traverseParallel(parallelFanout));
             }
+            return paths;
         }
 
-        for (Path<Feature, T> path : paths) {
-            removeNullFeatures(path);
-        }
+        evaluateQuery(query, new PathVisitor<T>() {
+            public boolean visit(Path<Feature, T> path) {
+                paths.add(path);
+                return true;
+            }
+        });
         return paths;
     }
+
+    /**
+     * Sets the fan-out above which queries that collect their results are
+     * split across fork-join tasks; zero evaluates them sequentially.
+     */
+    public void setParallelFanout(int parallelFanout) {
+        this.parallelFanout = parallelFanout;
+    }
+
+    /**
+     * Evaluates a query, passing each resulting {@link Path} to a visitor as
+     * soon as it is found instead of collecting the full result set.
+     *
+     * @return false if the visitor ended the query early.
+     */
+    public boolean evaluateQuery(Query query, PathVisitor<T> visitor) {
+        for (Operation operation : query.getOperations()) {
+            QueryTraversal<T> traversal
+                = new QueryTraversal<>(root, features, operation);
+            if (traversal.traverse(visitor) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
     
     public JSONArray getFeaturesJSON(){
     	Set<Entry<String, Level>> entries = levels.entrySet();
@@ -154,158 +236,6 @@ public class HierarchicalGraph<T> {
         return paths;
     }
 
-    public void evaluateOperation(Operation operation,
-            HierarchicalQueryTracker<T> tracker) {
-
-        for (String feature : features) {
-            tracker.nextLevel();
-
-            /* Find all expressions related to the current Feature (operand) */
-            List<Expression> expressions = operation.getOperand(feature);
-
-            if (expressions == null) {
-                /* No expressions deal with the current feature.  Traverse all
-                 * neighbors. */
-                for (Path<Feature, T> path : tracker.getCurrentResults()) {
-                    Vertex<Feature, T> vertex = path.getTail();
-                    tracker.addResults(path, vertex.getAllNeighbors());
-                }
-            } else {
-                /* Note that we are evaluating an Expression at this level */
-                tracker.markEvaluated();
-
-                for (Path<Feature, T> path : tracker.getCurrentResults()) {
-                    Vertex<Feature, T> vertex = path.getTail();
-                    Collection<Vertex<Feature, T>> resultCollection
-                        = evaluateExpressions(expressions, vertex);
-                    tracker.addResults(path, resultCollection);
-                }
-            }
-        }
-    }
-
-    /**
-     * Evaluate query {@link Expression}s at a particular vertex.  Neighboring
-     * vertices that match the Expression will be traversed further.
-     *
-     * @param expressions List of {@link Expression}s that should be evaluated
-     * against neighboring nodes
-     * @param vertex {@link Vertex} to apply the Expression to.
-     *
-     * @return a collection of matching vertices.
-     */
-    private Collection<Vertex<Feature, T>> evaluateExpressions(
-            List<Expression> expressions, Vertex<Feature, T> vertex) {
-
-        Set<Vertex<Feature, T>> resultSet = null;
-
-        for (Expression expression : expressions) {
-            Set<Vertex<Feature, T>> evalSet = new HashSet<>();
-            Feature value = expression.getValue();
-
-            switch (expression.getOperator()) {
-                case EQUAL: {
-                    /* Select a particular neighboring vertex */
-                    Vertex<Feature, T> equalTo = vertex.getNeighbor(value);
-
-                    if (equalTo == null) {
-                        /* There was no Vertex that matched the value given. */
-                        break;
-                    }
-
-                    evalSet.add(equalTo);
-                    break;
-                }
-
-                case NOTEQUAL: {
-                    /* Add all the neighboring vertices, and then remove the
-                     * particular value specified. */
-                    evalSet.addAll(vertex.getAllNeighbors());
-                    evalSet.remove(vertex.getNeighbor(value));
-
-                    break;
-                }
-
-                case LESS: {
-                    NavigableMap<Feature, Vertex<Feature, T>> neighbors
-                        = vertex.getNeighborsLessThan(value, false);
-                    removeWildcard(neighbors);
-                    evalSet.addAll(neighbors.values());
-
-                    break;
-                }
-
-                case LESSEQUAL: {
-                    NavigableMap<Feature, Vertex<Feature, T>> neighbors
-                        = vertex.getNeighborsLessThan(value, true);
-                    removeWildcard(neighbors);
-                    evalSet.addAll(neighbors.values());
-
-                    break;
-                }
-
-                case GREATER: {
-                    evalSet.addAll(
-                            vertex.getNeighborsGreaterThan(value, false)
-                            .values());
-
-                    break;
-                }
-
-                case GREATEREQUAL: {
-                    evalSet.addAll(
-                            vertex.getNeighborsGreaterThan(value, true)
-                            .values());
-
-                    break;
-                }
-
-                case UNKNOWN:
-                default:
-                    logger.log(java.util.logging.Level.WARNING,
-                            "Invalid operator ({0}) in expression: {1}",
-                            new Object[] {
-                                expression.getOperator(),
-                                expression.toString()} );
-            }
-
-            if (resultSet == null) {
-                /* If this is the first Expression we've evaluated, then the
-                 * evaluation set becomes our result set that will be further
-                 * reduced as more Expressions are evaluated. */
-                resultSet = evalSet;
-            } else {
-                /* Remove all items from the result set that are not present in
-                 * this current evaluation set.  This effectively drills down
-                 * through the results until we have our final query answer. */
-                resultSet.retainAll(evalSet);
-            }
-        }
-
-        return resultSet;
-    }
-
-    /**
-     * When a path does not contain a particular Feature, we use a null feature
-     * (FeatureType.NULL) to act as a "wildcard" in the graph so that the path
-     * stays linked together. The side effect of this is that 'less than'
-     * comparisons may return wildcards, which are removed with this method.
-     *
-     * @param map The map to remove the first NULL element from. If the map has
-     * no elements or the first element is not a NULL FeatureType, then no
-     * modifications are made to the map.
-     */
-    private void removeWildcard(NavigableMap<Feature, Vertex<Feature, T>> map) {
-        if (map.size() <= 0) {
-            return;
-        }
-
-        Feature first = map.firstKey();
-        if (first.getType() == FeatureType.NULL) {
-            map.remove(first);
-        }
-    }
-
     /**
      * Adds a new {@link Path} to the Hierarchical Graph.
      */
@@ -319,6 +249,7 @@ public class HierarchicalGraph<T> {
         addNullFeatures(path);
         reorientPath(path);
         optimizePath(path);
+        internLabels(path);
 
         /* Ensure the path contains a payload. */
         if (path.getPayload().size() == 0) {
@@ -379,11 +310,24 @@ public class HierarchicalGraph<T> {
         /* Create null features for missing values */
         for (String featureName : unknownFeatures) {
             Vertex<Feature, T> v = new Vertex<>();
-            v.setLabel(new Feature(featureName));
+            v.setLabel(levels.get(featureName).nullLabel);
             path.add(v);
         }
     }
 
+    /**
+     * Replaces the labels in a path with their canonical instances from each
+     * hierarchy level, so that newly-inserted vertices share labels with the
+     * rest of the graph.
+     */
+    private void internLabels(Path<Feature, T> path) {
+        for (Vertex<Feature, T> vertex : path) {
+            Feature label = vertex.getLabel();
+            Level level = levels.get(label.getName());
+            vertex.setLabel(level.intern(label));
+        }
+    }
+
     /**
      * Reorients a nonhierarchical path in place to match the current graph
      * hierarchy.
@@ -482,8 +426,8 @@ public class HierarchicalGraph<T> {
      */
     private int addNewFeature(String name, FeatureType type) {
         Integer order = levels.keySet().size();
-        levels.put(name, new Level(order, type));
-        features.offer(name);
+        levels.put(name, new Level(order, name, type));
+        features.add(name);
 
         return order;
     }
@@ -513,6 +457,18 @@ public class HierarchicalGraph<T> {
         return paths;
     }
 
+    /**
+     * Passes every {@link Path} in the graph to a visitor, in the same order
+     * as {@link #getAllPaths()}, without materializing them all at once.
+     *
+     * @return false if the visitor ended the traversal early.
+     */
+    public boolean visitAllPaths(PathVisitor<T> visitor) {
+        QueryTraversal<T> traversal
+            = new QueryTraversal<>(root, features, new Operation());
+        return traversal.traverse(visitor);
+    }
+
     public Vertex<Feature, T> getRoot() {
         return root;
     }
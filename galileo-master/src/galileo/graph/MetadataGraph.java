@@ -28,6 +28,8 @@ package galileo.graph;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.json.JSONArray;
 
@@ -41,9 +43,21 @@ import galileo.serialization.SerializationInputStream;
 import galileo.serialization.SerializationOutputStream;
 import galileo.util.Pair;
 
+/**
+ * Indexes block metadata in a {@link HierarchicalGraph}.  MetadataGraph
+ * instances are safe for use by multiple threads: insertions and
+ * reorientation are performed one at a time, while any number of queries
+ * proceed concurrently without locking.  Queries never block insertions (or
+ * vice versa); since vertices are copy-on-write (see {@link Vertex}), a query
+ * running alongside an insertion sees the graph either with or without each
+ * new edge.
+ */
 public class MetadataGraph implements ByteSerializable {
 
-    HierarchicalGraph<String> graph;
+    volatile HierarchicalGraph<String> graph;
+
+    /** Serializes modifications to the graph */
+    private final Lock writeLock = new ReentrantLock();
 
     public MetadataGraph() {
         graph = new HierarchicalGraph<>();
@@ -55,7 +69,12 @@ public class MetadataGraph implements ByteSerializable {
 
     public void addPath(Path<Feature, String> path)
     throws FeatureTypeMismatchException, GraphException {
-        graph.addPath(path);
+        writeLock.lock();
+        try {
+            graph.addPath(path);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -68,24 +87,66 @@ public class MetadataGraph implements ByteSerializable {
      */
     public void reorient(FeatureHierarchy hierarchy)
     throws FeatureTypeMismatchException, GraphException {
-        List<Path<Feature, String>> paths = graph.getAllPaths();
-        graph = new HierarchicalGraph<>(hierarchy);
-        for(Path<Feature, String> path : paths) {
-            addPath(path);
+        writeLock.lock();
+        try {
+            /* Queries continue against the current graph until the
+             * reoriented one is complete */
+            List<Path<Feature, String>> paths = graph.getAllPaths();
+            HierarchicalGraph<String> reoriented
+                = new HierarchicalGraph<>(hierarchy);
+            for(Path<Feature, String> path : paths) {
+                reoriented.addPath(path);
+            }
+            graph = reoriented;
+        } finally {
+            writeLock.unlock();
         }
     }
 
     public List<Path<Feature, String>> evaluateQuery(Query query) {
         return graph.evaluateQuery(query);
     }
+
+    /**
+     * Evaluates a query, streaming each resulting {@link Path} to a visitor
+     * as it is found.
+     *
+     * @return false if the visitor ended the query early.
+     */
+    public boolean evaluateQuery(Query query, PathVisitor<String> visitor) {
+        return graph.evaluateQuery(query, visitor);
+    }
+
+    /**
+     * Evaluates a query, streaming at most limit resulting {@link Path}s to a
+     * visitor.  The query ends once the limit is reached or the visitor
+     * returns false.
+     *
+     * @return the number of Paths passed to the visitor.
+     */
+    public long evaluateQuery(Query query, final long limit,
+            final PathVisitor<String> visitor) {
+        final long[] count = new long[1];
+        if (limit <= 0) {
+            return 0;
+        }
+
+        evaluateQuery(query, new PathVisitor<String>() {
+            public boolean visit(Path<Feature, String> path) {
+                count[0]++;
+                return visitor.visit(path) && count[0] < limit;
+            }
+        });
+        return count[0];
+    }
     
     
     public JSONArray getFeaturesJSON(){
-    	return graph.getFeaturesJSON();
+        return graph.getFeaturesJSON();
     }
     
     public FeatureHierarchy getFeatureHierarchy(){
-    	return graph.getFeatureHierarchy();
+        return graph.getFeatureHierarchy();
     }
 
     public List<Path<Feature, String>> evaluateQuery(Query query,
@@ -110,6 +171,15 @@ public class MetadataGraph implements ByteSerializable {
         return graph.getAllPaths();
     }
 
+    /**
+     * Streams every {@link Path} in the graph to a visitor.
+     *
+     * @return false if the visitor ended the traversal early.
+     */
+    public boolean visitAllPaths(PathVisitor<String> visitor) {
+        return graph.visitAllPaths(visitor);
+    }
+
     public long numVertices() {
         return graph.getRoot().numDescendants();
     }
@@ -164,14 +234,21 @@ public class MetadataGraph implements ByteSerializable {
     @Override
     public void serialize(SerializationOutputStream out)
     throws IOException {
-        FeatureHierarchy hierarchy = graph.getFeatureHierarchy();
+        FeatureHierarchy hierarchy;
+        List<Path<Feature, String>> paths;
+        /* The hierarchy is retrieved after the paths, so it includes every
+         * level they use even if new levels are added concurrently. */
+        HierarchicalGraph<String> graph = this.graph;
+        paths = graph.getAllPaths();
+        hierarchy = graph.getFeatureHierarchy();
+
+
         out.writeInt(hierarchy.size());
         for (Pair<String, FeatureType> level : hierarchy) {
             out.writeString(level.a);
             out.writeInt(level.b.toInt());
         }
 
-        List<Path<Feature, String>> paths = graph.getAllPaths();
         out.writeInt(paths.size());
         for (Path<Feature, String> path : paths) {
             List<Vertex<Feature, String>> vertices = path.getVertices();
@@ -0,0 +1,399 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import galileo.dataset.feature.Feature;
+import galileo.dataset.feature.FeatureType;
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.query.Operator;
+
+/**
+ * Evaluates a single query {@link Operation} against a
+ * {@link HierarchicalGraph} with a depth-first walk.
+ * <p>
+ * Rather than building an intermediate {@link Path} (and payload set) for
+ * every candidate vertex at every level, the traversal keeps a cursor stack
+ * holding the vertex reached at each level and the range of its neighbors
+ * still to be visited.  Expressions on a level are resolved to a single range
+ * of the (sorted) neighbors with binary searches, so Paths are only
+ * materialized for vertices that are part of the final result, and are
+ * handed to a {@link PathVisitor} as soon as they are found.
+ * <p>
+ * Large queries can also be evaluated with fork-join parallelism (see
+ * {@link #traverseParallel(int)}): ranges of candidate vertices wider than a
+ * fan-out threshold are split across tasks, and the results of each task are
+ * merged in the same order a sequential walk would produce them.
+ */
+class QueryTraversal<T> {
+
+    private static final Logger logger = Logger.getLogger("galileo");
+
+    private Vertex<Feature, T> root;
+    private int numLevels;
+
+    /** Expressions to evaluate at each level, or null to traverse all. */
+    private List<Expression>[] expressions;
+
+    /**
+     * Depth of the last level with expressions.  Only vertices at or below
+     * this depth contribute results.
+     */
+    private int evaluatedDepth;
+
+    @SuppressWarnings("unchecked")
+    public QueryTraversal(Vertex<Feature, T> root,
+            Collection<String> features, Operation operation) {
+        /* Levels may be added while the query runs; use a snapshot */
+        String[] names = features.toArray(new String[0]);
+        this.root = root;
+        this.numLevels = names.length;
+        this.expressions = (List<Expression>[]) new List<?>[numLevels];
+
+        for (int level = 0; level < numLevels; ++level) {
+            expressions[level] = operation.getOperand(names[level]);
+            if (expressions[level] != null) {
+                evaluatedDepth = level + 1;
+            }
+        }
+    }
+
+    /**
+     * Walks the graph, passing a Path to the visitor for each matching vertex
+     * that carries a payload.
+     *
+     * @return false if the visitor ended the traversal early.
+     */
+    public boolean traverse(PathVisitor<T> visitor) {
+        Cursor cursor = new Cursor();
+        cursor.trail[0] = root;
+        if (evaluatedDepth == 0 && root.hasValues()) {
+            if (visitor.visit(cursor.materialize(0)) == false) {
+                return false;
+            }
+        }
+        if (numLevels == 0) {
+            return true;
+        }
+
+        cursor.select(0);
+        return cursor.walk(0, visitor);
+    }
+
+    /**
+     * Walks the graph with fork-join parallelism, collecting the resulting
+     * Paths in the same order as {@link #traverse(PathVisitor)}.  Whenever
+     * the range of candidate neighbors at a vertex is wider than the given
+     * fan-out, it is split among subtasks; narrower subtrees are walked
+     * sequentially.  The traversal starts on the calling thread, so queries
+     * that never exceed the fan-out do not leave it.
+     */
+    public List<Path<Feature, T>> traverseParallel(int fanout) {
+        Cursor cursor = new Cursor();
+        cursor.trail[0] = root;
+        List<Path<Feature, T>> results = new ArrayList<>();
+        if (evaluatedDepth == 0 && root.hasValues()) {
+            results.add(cursor.materialize(0));
+        }
+        if (numLevels == 0) {
+            return results;
+        }
+
+        cursor.select(0);
+        SubtreeTask task = new SubtreeTask(Arrays.copyOf(cursor.trail, 1),
+                cursor.edges[0], cursor.position[0], cursor.end[0], fanout);
+        results.addAll(task.invoke());
+        return results;
+    }
+
+    /**
+     * Cursor stack used by a single walker: the vertex reached at each depth
+     * (the root is at depth 0), the snapshot of its neighbors being walked,
+     * and the [position, end) range of that snapshot left to visit.  Since
+     * snapshots never change, the walk is unaffected by paths that are added
+     * to the graph while it is in progress.
+     */
+    private class Cursor {
+        public Vertex<Feature, T>[] trail;
+        public Vertex<Feature, T>[][] edges;
+        public int[] position;
+        public int[] end;
+
+        @SuppressWarnings("unchecked")
+        public Cursor() {
+            trail = (Vertex<Feature, T>[]) new Vertex<?, ?>[numLevels + 1];
+            edges = (Vertex<Feature, T>[][]) new Vertex<?, ?>[numLevels + 1][];
+            position = new int[numLevels + 1];
+            end = new int[numLevels + 1];
+        }
+
+        /**
+         * Walks the subtree below the given depth, starting from the range
+         * already selected there.
+         *
+         * @return false if the visitor ended the traversal early.
+         */
+        public boolean walk(int startDepth, PathVisitor<T> visitor) {
+            int depth = startDepth;
+            while (depth >= startDepth) {
+                if (position[depth] >= end[depth]) {
+                    /* This vertex is exhausted; backtrack */
+                    --depth;
+                    continue;
+                }
+
+                Vertex<Feature, T> vertex
+                    = edges[depth][position[depth]++];
+                if (rejects(depth, vertex)) {
+                    continue;
+                }
+
+                trail[depth + 1] = vertex;
+                if (depth + 1 >= evaluatedDepth && vertex.hasValues()) {
+                    if (visitor.visit(materialize(depth + 1)) == false) {
+                        return false;
+                    }
+                }
+
+                if (depth + 1 < numLevels) {
+                    ++depth;
+                    select(depth);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Determines the range of neighbors of the vertex at the given depth
+         * that satisfy the expressions for the next level.  Inequality
+         * expressions do not narrow the range; they are checked by
+         * {@link QueryTraversal#rejects}.
+         */
+        public void select(int depth) {
+            Vertex<Feature, T>[] neighbors = trail[depth].neighbors();
+            edges[depth] = neighbors;
+            int from = 0;
+            int to = neighbors.length;
+
+            List<Expression> exprs = expressions[depth];
+            if (exprs != null) {
+                for (Expression expression : exprs) {
+                    Feature value = expression.getValue();
+                    switch (expression.getOperator()) {
+                        case EQUAL: {
+                            int index = Vertex.find(neighbors, value);
+                            if (index < 0) {
+                                to = 0;
+                            } else {
+                                from = Math.max(from, index);
+                                to = Math.min(to, index + 1);
+                            }
+                            break;
+                        }
+
+                        case NOTEQUAL:
+                            break;
+
+                        case LESS:
+                            from = Math.max(from, skipWildcard(neighbors));
+                            to = Math.min(to, Vertex.rank(neighbors, value, false));
+                            break;
+
+                        case LESSEQUAL:
+                            from = Math.max(from, skipWildcard(neighbors));
+                            to = Math.min(to, Vertex.rank(neighbors, value, true));
+                            break;
+
+                        case GREATER:
+                            from = Math.max(from, Vertex.rank(neighbors, value, true));
+                            break;
+
+                        case GREATEREQUAL:
+                            from = Math.max(from, Vertex.rank(neighbors, value, false));
+                            break;
+
+                        case UNKNOWN:
+                        default:
+                            logger.log(Level.WARNING,
+                                    "Invalid operator ({0}) in expression: {1}",
+                                    new Object[] {
+                                        expression.getOperator(),
+                                        expression.toString()} );
+                            to = 0;
+                    }
+                }
+            }
+
+            position[depth] = from;
+            end[depth] = to;
+        }
+
+        /**
+         * Creates a Path for the vertices on the cursor stack, down to the
+         * given depth.  Like the rest of the query results, the Path holds
+         * copies of the graph vertices and excludes wildcards.
+         */
+        public Path<Feature, T> materialize(int depth) {
+            Path<Feature, T> path = new Path<>();
+            for (int i = 1; i <= depth; ++i) {
+                Feature label = trail[i].getLabel();
+                if (label != null && label.getType() != FeatureType.NULL) {
+                    path.add(new Vertex<Feature, T>(trail[i]));
+                }
+            }
+            path.setPayload(new HashSet<>(trail[depth].getValues()));
+            return path;
+        }
+    }
+
+    /**
+     * Evaluates the subtrees below a range of neighbors of a vertex, splitting
+     * wide ranges among forked subtasks.
+     */
+    private class SubtreeTask extends RecursiveTask<List<Path<Feature, T>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Vertices from the root down to the parent of the range. */
+        private Vertex<Feature, T>[] prefix;
+
+        /** Snapshot of the parent's neighbors that the range refers to. */
+        private Vertex<Feature, T>[] neighbors;
+        private int from;
+        private int to;
+        private int fanout;
+
+        public SubtreeTask(Vertex<Feature, T>[] prefix,
+                Vertex<Feature, T>[] neighbors, int from, int to, int fanout) {
+            this.prefix = prefix;
+            this.neighbors = neighbors;
+            this.from = from;
+            this.to = to;
+            this.fanout = fanout;
+        }
+
+        @Override
+        protected List<Path<Feature, T>> compute() {
+            if (to - from > fanout) {
+                int mid = (from + to) >>> 1;
+                SubtreeTask left = new SubtreeTask(
+                        prefix, neighbors, from, mid, fanout);
+                left.fork();
+                List<Path<Feature, T>> right
+                    = new SubtreeTask(
+                            prefix, neighbors, mid, to, fanout).compute();
+                List<Path<Feature, T>> results = left.join();
+                results.addAll(right);
+                return results;
+            }
+
+            final List<Path<Feature, T>> results = new ArrayList<>();
+            PathVisitor<T> collector = new PathVisitor<T>() {
+                public boolean visit(Path<Feature, T> path) {
+                    results.add(path);
+                    return true;
+                }
+            };
+
+            int depth = prefix.length - 1;
+            Cursor cursor = new Cursor();
+            System.arraycopy(prefix, 0, cursor.trail, 0, prefix.length);
+            for (int i = from; i < to; ++i) {
+                Vertex<Feature, T> vertex = neighbors[i];
+                if (rejects(depth, vertex)) {
+                    continue;
+                }
+
+                cursor.trail[depth + 1] = vertex;
+                if (depth + 1 >= evaluatedDepth && vertex.hasValues()) {
+                    results.add(cursor.materialize(depth + 1));
+                }
+                if (depth + 1 == numLevels) {
+                    continue;
+                }
+
+                cursor.select(depth + 1);
+                int start = cursor.position[depth + 1];
+                int stop = cursor.end[depth + 1];
+                if (stop - start > fanout) {
+                    /* Wide level below this vertex: split it up as well */
+                    SubtreeTask subtree = new SubtreeTask(
+                            Arrays.copyOf(cursor.trail, depth + 2),
+                            cursor.edges[depth + 1], start, stop, fanout);
+                    results.addAll(subtree.compute());
+                } else {
+                    cursor.walk(depth + 1, collector);
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * When a path does not contain a particular Feature, a null feature
+     * (FeatureType.NULL) acts as a wildcard that keeps the path linked
+     * together.  Wildcards sort first, so 'less than' comparisons skip over
+     * them.
+     *
+     * @return index of the first neighbor that is not a wildcard.
+     */
+    private int skipWildcard(Vertex<Feature, T>[] neighbors) {
+        if (neighbors.length > 0
+                && neighbors[0].getLabel().getType() == FeatureType.NULL) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Checks a neighbor within the selected range against the expressions
+     * that could not be expressed as a range.
+     */
+    private boolean rejects(int depth, Vertex<Feature, T> vertex) {
+        List<Expression> exprs = expressions[depth];
+        if (exprs == null) {
+            return false;
+        }
+
+        for (Expression expression : exprs) {
+            if (expression.getOperator() == Operator.NOTEQUAL
+                    && vertex.getLabel().compareTo(expression.getValue())
+                    == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
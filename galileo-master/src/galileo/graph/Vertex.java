@@ -25,27 +25,91 @@ software, even if advised of the possibility of such damage.
 
 package galileo.graph;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Provides a lightweight generic implementation of a graph vertex backed by a
- * TreeMap for extensibility.  This provides the basis of the hybrid
- * trees/graphs used in the system.
+ * Provides a lightweight generic implementation of a graph vertex.  This
+ * provides the basis of the hybrid trees/graphs used in the system.
+ * <p>
+ * To keep large graphs compact, edges are stored in an array of neighboring
+ * vertices sorted by their labels and located with a binary search, rather
+ * than in a map: each neighbor's label doubles as its key.  Values are stored
+ * in a small array, and only moved to a set once a vertex holds more than
+ * {@link #SMALL_VALUE_SET} of them.
+ * <p>
+ * Edges and small value arrays are copy-on-write: a modification builds a
+ * new array and publishes it with a single volatile write, and published
+ * arrays are never changed.  This allows any number of threads to read a
+ * graph while one thread adds paths to it, without locking; readers see each
+ * vertex either before or after a given modification.  Modifications must
+ * still be serialized by the caller.  So that insertions into very wide
+ * vertices do not copy every edge each time, vertices with more than
+ * {@link #WIDE_EDGES} neighbors collect new edges in a small pending array
+ * that is periodically merged into the rest.
  *
  * @author malensek
  */
 public class Vertex<L extends Comparable<L>, V> {
 
+    /** Maximum number of values kept in an array before using a set */
+    protected static final int SMALL_VALUE_SET = 8;
+
+    /** Number of neighbors beyond which a vertex is considered wide */
+    protected static final int WIDE_EDGES = 256;
+
+    private static final Vertex<?, ?>[] NO_EDGES = new Vertex<?, ?>[0];
+
     protected L label;
-    protected Set<V> values = new HashSet<V>();
-    protected TreeMap<L, Vertex<L, V>> edges = new TreeMap<>();
+
+    /* Either null (no values), an Object[] of distinct values, or a
+     * concurrent Set */
+    private volatile Object values;
+
+    /* Either an array of neighbors sorted by label, or WideEdges.  Replaced
+     * (never modified) on insertion. */
+    private volatile Object edges = NO_EDGES;
+
+    /**
+     * Edges of a wide vertex: a large sorted array, and a small sorted array
+     * of recent insertions that is merged into it once it grows past the
+     * square root of its size.  Insertions cost O(sqrt(n)) copies (amortized)
+     * instead of O(n).
+     */
+    private static class WideEdges<L extends Comparable<L>, V> {
+        public final Vertex<L, V>[] sorted;
+        public final Vertex<L, V>[] pending;
+
+        /* Combined view of both arrays, created on demand by readers */
+        private volatile Vertex<L, V>[] merged;
+
+        public WideEdges(Vertex<L, V>[] sorted, Vertex<L, V>[] pending) {
+            this.sorted = sorted;
+            this.pending = pending;
+        }
+
+        public Vertex<L, V>[] merged() {
+            if (pending.length == 0) {
+                return sorted;
+            }
+            Vertex<L, V>[] m = merged;
+            if (m == null) {
+                m = merge(sorted, pending);
+                merged = m;
+            }
+            return m;
+        }
+    }
 
     public Vertex() { }
 
@@ -67,13 +131,124 @@ public class Vertex<L extends Comparable<L>, V> {
         this.label = v.label;
     }
 
+    /**
+     * Retrieves a snapshot of the neighbors of this vertex, sorted by label.
+     * The array will not change, even if the vertex is modified later, so
+     * traversals can hold on to positions within it.  Along with
+     * {@link #find(Vertex[], Comparable)} and
+     * {@link #rank(Vertex[], Comparable, boolean)}, this allows ranges of
+     * neighbors to be tracked without creating views of them.
+     */
+    @SuppressWarnings("unchecked")
+    Vertex<L, V>[] neighbors() {
+        Object edges = this.edges;
+        if (edges instanceof WideEdges) {
+            return ((WideEdges<L, V>) edges).merged();
+        }
+        return (Vertex<L, V>[]) edges;
+    }
+
+    /**
+     * Locates the neighbor with the given label in a snapshot of edges.
+     *
+     * @return index of the neighbor, or (-(insertion point) - 1) if there is
+     * no such neighbor.
+     */
+    static <L extends Comparable<L>, V> int find(
+            Vertex<L, V>[] edges, L label) {
+        int low = 0;
+        int high = edges.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            L other = edges[mid].label;
+            if (other == label) {
+                /* Interned labels (see HierarchicalGraph) match by identity */
+                return mid;
+            }
+            int cmp = other.compareTo(label);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Determines the number of neighbors in a snapshot of edges whose labels
+     * are less than (or, if inclusive is set, less than or equal to) the
+     * given label.
+     */
+    static <L extends Comparable<L>, V> int rank(
+            Vertex<L, V>[] edges, L label, boolean inclusive) {
+        int index = find(edges, label);
+        if (index < 0) {
+            return -(index + 1);
+        }
+        return inclusive ? index + 1 : index;
+    }
+
+    /**
+     * Merges a small sorted array of vertices into a large one; labels are
+     * distinct across both.  Each small array element is located with a
+     * binary search, and the runs of the large array between them are block
+     * copied.
+     */
+    @SuppressWarnings("unchecked")
+    private static <L extends Comparable<L>, V> Vertex<L, V>[] merge(
+            Vertex<L, V>[] large, Vertex<L, V>[] small) {
+        Vertex<L, V>[] merged
+            = (Vertex<L, V>[]) new Vertex<?, ?>[large.length + small.length];
+        int copied = 0;
+        for (int i = 0; i < small.length; ++i) {
+            int position = -(find(large, small[i].label) + 1);
+            System.arraycopy(large, copied, merged, copied + i,
+                    position - copied);
+            merged[position + i] = small[i];
+            copied = position;
+        }
+        System.arraycopy(large, copied, merged, copied + small.length,
+                large.length - copied);
+        return merged;
+    }
+
+    /**
+     * Inserts a vertex into a copy of a sorted array at the given index.
+     */
+    @SuppressWarnings("unchecked")
+    private static <L extends Comparable<L>, V> Vertex<L, V>[] insert(
+            Vertex<L, V>[] edges, int index, Vertex<L, V> vertex) {
+        Vertex<L, V>[] updated
+            = (Vertex<L, V>[]) new Vertex<?, ?>[edges.length + 1];
+        System.arraycopy(edges, 0, updated, 0, index);
+        updated[index] = vertex;
+        System.arraycopy(edges, index, updated, index + 1,
+                edges.length - index);
+        return updated;
+    }
+
+    /**
+     * Provides a read-only view of a range of neighbors.
+     */
+    private List<Vertex<L, V>> neighbors(
+            Vertex<L, V>[] edges, int from, int to) {
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(
+                Arrays.asList(edges).subList(from, to));
+    }
+
     /**
      * Determines if two vertices are connected.
      *
      * @return true if the Vertex label is found on a connecting edge.
      */
     public boolean connectedTo(L label) {
-        return edges.containsKey(label);
+        return getNeighbor(label) != null;
     }
 
     /**
@@ -83,36 +258,67 @@ public class Vertex<L extends Comparable<L>, V> {
      *
      * @return Neighbor Vertex.
      */
+    @SuppressWarnings("unchecked")
     public Vertex<L, V> getNeighbor(L label) {
-        return edges.get(label);
+        Object edges = this.edges;
+        if (edges instanceof WideEdges) {
+            /* Look up both arrays rather than merging them */
+            WideEdges<L, V> wide = (WideEdges<L, V>) edges;
+            int index = find(wide.sorted, label);
+            if (index >= 0) {
+                return wide.sorted[index];
+            }
+            index = find(wide.pending, label);
+            return index >= 0 ? wide.pending[index] : null;
+        }
+
+        Vertex<L, V>[] array = (Vertex<L, V>[]) edges;
+        int index = find(array, label);
+        return index >= 0 ? array[index] : null;
     }
 
-    public NavigableMap<L, Vertex<L, V>> getNeighborsLessThan(
+    /**
+     * Retrieves the neighbors with labels less than (or, if inclusive is set,
+     * equal to) the given label, in ascending label order.
+     */
+    public List<Vertex<L, V>> getNeighborsLessThan(
             L label, boolean inclusive) {
-        return edges.headMap(label, inclusive);
+        Vertex<L, V>[] edges = neighbors();
+        return neighbors(edges, 0, rank(edges, label, inclusive));
     }
 
-    public NavigableMap<L, Vertex<L, V>> getNeighborsGreaterThan(
+    /**
+     * Retrieves the neighbors with labels greater than (or, if inclusive is
+     * set, equal to) the given label, in ascending label order.
+     */
+    public List<Vertex<L, V>> getNeighborsGreaterThan(
             L label, boolean inclusive) {
-        return edges.tailMap(label, inclusive);
+        Vertex<L, V>[] edges = neighbors();
+        return neighbors(edges, rank(edges, label, !inclusive), edges.length);
     }
 
     /**
      * Retrieve the labels of all neighboring vertices.
      *
-     * @return Neighbor Vertex labels.
+     * @return Neighbor Vertex labels, in ascending order.
      */
     public Set<L> getNeighborLabels() {
-        return edges.keySet();
+        Set<L> labels = new LinkedHashSet<>();
+        for (Vertex<L, V> edge : neighbors()) {
+            labels.add(edge.label);
+        }
+        return labels;
     }
 
     /**
      * Traverse all edges to return all neighboring vertices.
      *
-     * @return collection of all neighboring vertices.
+     * @return collection of all neighboring vertices, in ascending label
+     * order.
      */
     public Collection<Vertex<L, V>> getAllNeighbors() {
-        return edges.values();
+        Vertex<L, V>[] edges = neighbors();
+        return neighbors(edges, 0, edges.length);
     }
 
     /**
@@ -124,16 +330,39 @@ public class Vertex<L extends Comparable<L>, V> {
      *
      * @return Connected vertex.
      */
+    @SuppressWarnings("unchecked")
     public Vertex<L, V> connect(Vertex<L, V> vertex) {
-        L label = vertex.getLabel();
-        Vertex<L, V> edge = getNeighbor(label);
-        if (edge == null) {
-            edges.put(label, vertex);
-            return vertex;
-        } else {
+        Vertex<L, V> edge = getNeighbor(vertex.getLabel());
+        if (edge != null) {
             edge.addValues(vertex.getValues());
             return edge;
         }
+
+        Object edges = this.edges;
+        if (edges instanceof WideEdges) {
+            WideEdges<L, V> wide = (WideEdges<L, V>) edges;
+            int index = -(find(wide.pending, vertex.getLabel()) + 1);
+            Vertex<L, V>[] pending = insert(wide.pending, index, vertex);
+            if (pending.length * pending.length > wide.sorted.length) {
+                this.edges = new WideEdges<L, V>(
+                        merge(wide.sorted, pending),
+                        (Vertex<L, V>[]) NO_EDGES);
+            } else {
+                this.edges = new WideEdges<L, V>(wide.sorted, pending);
+            }
+            return vertex;
+        }
+
+        Vertex<L, V>[] array = (Vertex<L, V>[]) edges;
+        int index = -(find(array, vertex.getLabel()) + 1);
+        Vertex<L, V>[] updated = insert(array, index, vertex);
+        if (updated.length > WIDE_EDGES) {
+            this.edges = new WideEdges<L, V>(
+                    updated, (Vertex<L, V>[]) NO_EDGES);
+        } else {
+            this.edges = updated;
+        }
+        return vertex;
     }
 
     /**
@@ -155,16 +384,107 @@ public class Vertex<L extends Comparable<L>, V> {
         this.label = label;
     }
 
+    /**
+     * Determines whether any values are associated with this Vertex.
+     */
+    public boolean hasValues() {
+        return values != null;
+    }
+
+    /**
+     * Retrieves a read-only view of the values associated with this Vertex.
+     */
+    @SuppressWarnings("unchecked")
     public Set<V> getValues() {
-        return values;
+        Object values = this.values;
+        if (values == null) {
+            return Collections.emptySet();
+        } else if (values instanceof Object[]) {
+            return new SmallValueSet((Object[]) values);
+        } else {
+            return Collections.unmodifiableSet((Set<V>) values);
+        }
     }
 
+    @SuppressWarnings("unchecked")
     public void addValue(V value) {
-        this.values.add(value);
+        Object values = this.values;
+        if (values == null) {
+            this.values = new Object[] { value };
+        } else if (values instanceof Object[]) {
+            Object[] array = (Object[]) values;
+            for (Object item : array) {
+                if (item == null ? value == null : item.equals(value)) {
+                    return;
+                }
+            }
+
+            if (array.length < SMALL_VALUE_SET) {
+                array = Arrays.copyOf(array, array.length + 1);
+                array[array.length - 1] = value;
+                this.values = array;
+            } else {
+                /* Large sets are updated in place, so they must tolerate
+                 * concurrent iteration */
+                Set<V> set = ConcurrentHashMap.newKeySet();
+                for (Object item : array) {
+                    set.add((V) item);
+                }
+                set.add(value);
+                this.values = set;
+            }
+        } else {
+            ((Set<V>) values).add(value);
+        }
     }
 
     public void addValues(Collection<V> values) {
-        this.values.addAll(values);
+        for (V value : values) {
+            addValue(value);
+        }
+    }
+
+    /**
+     * A read-only Set backed by the small array of values.
+     */
+    private class SmallValueSet extends AbstractSet<V> {
+
+        private Object[] array;
+
+        public SmallValueSet(Object[] array) {
+            this.array = array;
+        }
+
+        @Override
+        public int size() {
+            return array.length;
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new Iterator<V>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < array.length;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public V next() {
+                    if (index >= array.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return (V) array[index++];
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
     }
 
     /**
@@ -200,8 +520,10 @@ public class Vertex<L extends Comparable<L>, V> {
         p.add(new Vertex<>(vertex));
 
         if (vertex.getValues().size() > 0) {
-            /* If the vertex has values, we've found a path endpoint. */
-            p.setPayload(vertex.getValues());
+            /* If the vertex has values, we've found a path endpoint.  The
+             * values are copied so the resulting Path is not affected by
+             * subsequent insertions into the graph. */
+            p.setPayload(new HashSet<>(vertex.getValues()));
             paths.add(p);
         }
 
@@ -250,14 +572,14 @@ public class Vertex<L extends Comparable<L>, V> {
      * neighboring vertices.
      */
     public void clearEdges() {
-        edges.clear();
+        edges = NO_EDGES;
     }
 
     /**
      * Clears all values associated with this Vertex.
      */
     public void clearValues() {
-        values.clear();
+        values = null;
     }
 
     /**
@@ -265,7 +587,7 @@ public class Vertex<L extends Comparable<L>, V> {
      */
     protected String toString(int indent) {
         String ls = System.lineSeparator();
-        String str = "(" + getLabel() + " " + values + ")" + ls;
+        String str = "(" + getLabel() + " " + getValues() + ")" + ls;
 
         String space = " ";
         for (int i = 0; i < indent; ++i) {
@@ -274,7 +596,7 @@ public class Vertex<L extends Comparable<L>, V> {
         space += "|-";
         ++indent;
 
-        for (Vertex<L, V> vertex : edges.values()) {
+        for (Vertex<L, V> vertex : getAllNeighbors()) {
             str += space + vertex.toString(indent);
         }
 
@@ -0,0 +1,117 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.dht.partitioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+
+import galileo.dataset.Metadata;
+import galileo.dataset.TemporalProperties;
+import galileo.dht.GroupInfo;
+import galileo.dht.NetworkInfo;
+import galileo.dht.NodeInfo;
+import galileo.dht.PartitionException;
+import galileo.dht.TemporalHierarchyPartitioner;
+import galileo.dht.hash.HashException;
+import galileo.dht.hash.HashTopologyException;
+
+import org.junit.Test;
+
+/**
+ * Tests the destinations the {@link TemporalHierarchyPartitioner} chooses for
+ * temporal queries.
+ */
+public class TemporalHierarchy {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private NetworkInfo ni;
+    private TemporalHierarchyPartitioner partitioner;
+
+    public TemporalHierarchy()
+    throws HashException, HashTopologyException, PartitionException {
+        ni = new NetworkInfo();
+        for (int g = 0; g < 4; ++g) {
+            GroupInfo group = new GroupInfo("group" + g);
+            group.addNode(new NodeInfo("lattice-" + (2 * g + 1), 5555));
+            group.addNode(new NodeInfo("lattice-" + (2 * g + 2), 5555));
+            ni.addGroup(group);
+        }
+        partitioner = new TemporalHierarchyPartitioner(null, ni,
+                Calendar.DAY_OF_MONTH);
+    }
+
+    private Set<NodeInfo> destinations(long start, long end)
+    throws HashException {
+        Metadata data = new Metadata();
+        data.setTemporalProperties(start == end
+                ? new TemporalProperties(start)
+                : new TemporalProperties(start, end));
+        return new HashSet<>(partitioner.findDestinations(data));
+    }
+
+    private long time(int year, int month, int day, int hour) {
+        Calendar c = Calendar.getInstance();
+        c.clear();
+        c.set(year, month, day, hour, 0);
+        return c.getTimeInMillis();
+    }
+
+    @Test
+    public void testSingleDay() throws Exception {
+        long noon = time(2015, Calendar.JANUARY, 10, 12);
+        Set<NodeInfo> nodes = destinations(noon, noon);
+        /* Both nodes of a single group */
+        assertEquals(2, nodes.size());
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        /* A range reaches every group holding one of its days, including the
+         * partly covered last day */
+        long start = time(2015, Calendar.JANUARY, 10, 12);
+        long end = time(2015, Calendar.JANUARY, 20, 6);
+        Set<NodeInfo> expected = new HashSet<>();
+        for (long t = start; t < end + DAY; t += DAY) {
+            long day = Math.min(t, end);
+            expected.addAll(destinations(day, day));
+        }
+        assertEquals(expected, destinations(start, end));
+        assertTrue(expected.size() > 2);
+
+        /* A month reaches every group */
+        assertEquals(new HashSet<>(ni.getAllNodes()),
+                destinations(time(2015, Calendar.FEBRUARY, 1, 0),
+                    time(2015, Calendar.FEBRUARY, 28, 23)));
+        assertEquals(new HashSet<>(ni.getAllNodes()),
+                destinations(time(2014, Calendar.JANUARY, 1, 0),
+                    time(2015, Calendar.DECEMBER, 31, 0)));
+    }
+}
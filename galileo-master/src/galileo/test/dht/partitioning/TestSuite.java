@@ -32,5 +32,6 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({
     SpatialHierarchy.class,
+    TemporalHierarchy.class,
 })
 public class TestSuite { }
@@ -0,0 +1,99 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import galileo.dataset.Metadata;
+import galileo.dataset.feature.FeatureType;
+import galileo.fs.BlockCache;
+import galileo.fs.BlockFile;
+import galileo.fs.ColumnSegment;
+import galileo.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BlockCacheTests {
+
+    private BlockFile block(int rows) {
+        List<Pair<String, FeatureType>> schema = new ArrayList<>();
+        schema.add(new Pair<>("temperature", FeatureType.DOUBLE));
+        ColumnSegment.Builder builder = new ColumnSegment.Builder(schema);
+        for (int i = 0; i < rows; ++i) {
+            builder.addRow(new String[] { Integer.toString(i) });
+        }
+        List<ColumnSegment> segments = new ArrayList<>();
+        segments.add(builder.build());
+        return BlockFile.fromSegments("test", new Metadata(), segments);
+    }
+
+    @Test
+    public void testEviction() {
+        long blockSize = block(1000).estimateSize();
+        BlockCache cache = new BlockCache(blockSize * 2);
+
+        cache.put("a", block(1000), cache.getGeneration("a"));
+        cache.put("b", block(1000), cache.getGeneration("b"));
+        assertNotNull(cache.get("a"));
+        /* "b" is now the least recently used block */
+        cache.put("c", block(1000), cache.getGeneration("c"));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(blockSize * 2, cache.getSize());
+    }
+
+    @Test
+    public void testInvalidation() {
+        BlockCache cache = new BlockCache(1024 * 1024);
+        cache.put("a", block(10), cache.getGeneration("a"));
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+
+        /* A block read before an invalidation must not be cached */
+        long generation = cache.getGeneration("b");
+        cache.invalidate("b");
+        cache.put("b", block(10), generation);
+        assertNull(cache.get("b"));
+
+        /* Writes to other blocks do not affect a block being read */
+        generation = cache.getGeneration("c");
+        cache.invalidate("a");
+        cache.invalidate("b");
+        cache.put("c", block(10), generation);
+        assertNotNull(cache.get("c"));
+    }
+}
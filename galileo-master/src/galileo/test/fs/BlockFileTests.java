@@ -0,0 +1,228 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import galileo.dataset.Metadata;
+import galileo.dataset.feature.FeatureType;
+import galileo.fs.BlockFile;
+import galileo.fs.ColumnSegment;
+import galileo.util.Pair;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BlockFileTests {
+
+    private static String blockPath = "/tmp/blockfile.gblock";
+
+    private ColumnSegment segment(String... rows) {
+        List<Pair<String, FeatureType>> schema = new ArrayList<>();
+        schema.add(new Pair<>("temperature", FeatureType.FLOAT));
+        schema.add(new Pair<>("station", FeatureType.STRING));
+        schema.add(new Pair<>("count", FeatureType.INT));
+        ColumnSegment.Builder builder = new ColumnSegment.Builder(schema);
+        for (String row : rows) {
+            builder.addRow(row.split(","));
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testAppendAndCompact() throws Exception {
+        new File(blockPath).delete();
+
+        List<ColumnSegment> initial = new ArrayList<>();
+        initial.add(segment("12.5,fort_collins,3", "8.0,denver,7"));
+        BlockFile.create(blockPath, "test", new Metadata("block"), initial);
+        assertTrue(BlockFile.isBlockFile(blockPath));
+
+        long size = new File(blockPath).length();
+        long appendedSize = BlockFile.append(blockPath,
+                segment("-2.25,boulder,1"));
+        assertTrue(appendedSize > size);
+
+        BlockFile blockFile = BlockFile.read(blockPath);
+        assertEquals("test", blockFile.getFileSystem());
+        assertEquals("block", blockFile.getMetadata().getName());
+        assertEquals(2, blockFile.getSegments().size());
+        assertEquals(3, blockFile.getRowCount());
+
+        ColumnSegment appended = blockFile.getSegments().get(1);
+        assertEquals(-2.25f, appended.getFeature(0, 0).getFloat(), 0.0f);
+        assertEquals("boulder", appended.getFeature(1, 0).getString());
+        assertEquals(1, appended.getFeature(2, 0).getInt());
+
+        assertEquals(1, BlockFile.compact(blockPath));
+        blockFile = BlockFile.read(blockPath);
+        assertEquals(1, blockFile.getSegments().size());
+        assertEquals(3, blockFile.getRowCount());
+        assertEquals("denver",
+                blockFile.getSegments().get(0).getFeature(1, 1).getString());
+        assertEquals("block",
+                BlockFile.readMetadata(blockPath).getName());
+
+        new File(blockPath).delete();
+    }
+
+    @Test
+    public void testSegmentTable() throws Exception {
+        new File(blockPath).delete();
+
+        BlockFile.create(blockPath, "test", new Metadata("block"),
+                new ArrayList<ColumnSegment>());
+        long length = BlockFile.getDataLength(blockPath);
+        assertEquals(new File(blockPath).length(), length);
+
+        /* Garbage left by an interrupted append is not part of the block and
+         * is overwritten by the next append. */
+        Files.write(Paths.get(blockPath), new byte[] { 1, 2, 3 },
+                StandardOpenOption.APPEND);
+        assertEquals(length, BlockFile.getDataLength(blockPath));
+        assertEquals(0, BlockFile.read(blockPath).getSegments().size());
+
+        /* Enough appends to overflow the initial segment table */
+        for (int i = 0; i < 100; ++i) {
+            long appended = BlockFile.append(blockPath,
+                    segment(i + ".0,station" + i + "," + i));
+            assertTrue(appended > length);
+            assertEquals(appended, BlockFile.getDataLength(blockPath));
+            length = appended;
+        }
+
+        BlockFile blockFile = BlockFile.read(blockPath, true);
+        assertEquals(100, blockFile.getSegments().size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, blockFile.getSegments().get(i)
+                    .getFeature(2, 0).getInt());
+        }
+        assertEquals("block",
+                BlockFile.readMetadata(blockPath).getName());
+
+        new File(blockPath).delete();
+    }
+
+    @Test
+    public void testCorruptSegment() throws Exception {
+        new File(blockPath).delete();
+
+        List<ColumnSegment> initial = new ArrayList<>();
+        initial.add(segment("12.5,fort_collins,3"));
+        BlockFile.create(blockPath, "test", new Metadata("block"), initial);
+        long end = BlockFile.getDataLength(blockPath);
+        BlockFile.append(blockPath, segment("8.0,denver,7"));
+        BlockFile.append(blockPath, segment("-2.25,boulder,1"));
+
+        /* Damage the second (committed) segment record */
+        byte[] contents = Files.readAllBytes(Paths.get(blockPath));
+        contents[(int) end + 20] ^= 0xff;
+        Files.write(Paths.get(blockPath), contents);
+
+        /* Only the damaged segment is lost */
+        BlockFile blockFile = BlockFile.read(blockPath);
+        assertEquals(2, blockFile.getSegments().size());
+        assertEquals("fort_collins",
+                blockFile.getSegments().get(0).getFeature(1, 0).getString());
+        assertEquals("boulder",
+                blockFile.getSegments().get(1).getFeature(1, 0).getString());
+
+        new File(blockPath).delete();
+    }
+
+    @Test
+    public void testBlankTableEntry() throws Exception {
+        new File(blockPath).delete();
+
+        List<ColumnSegment> initial = new ArrayList<>();
+        initial.add(segment("12.5,fort_collins,3"));
+        BlockFile.create(blockPath, "test", new Metadata("block"), initial);
+        long end = BlockFile.getDataLength(blockPath);
+
+        /* A segment count that reached the disk before its table entry */
+        byte[] contents = Files.readAllBytes(Paths.get(blockPath));
+        ByteBuffer.wrap(contents).putInt(16, 2);
+        Files.write(Paths.get(blockPath), contents);
+
+        assertEquals(end, BlockFile.getDataLength(blockPath));
+        assertEquals(1, BlockFile.read(blockPath).getSegments().size());
+
+        /* The next append does not overwrite the committed data */
+        BlockFile.append(blockPath, segment("8.0,denver,7"));
+        BlockFile blockFile = BlockFile.read(blockPath);
+        assertEquals(2, blockFile.getSegments().size());
+        assertEquals("fort_collins",
+                blockFile.getSegments().get(0).getFeature(1, 0).getString());
+        assertEquals("denver",
+                blockFile.getSegments().get(1).getFeature(1, 0).getString());
+
+        new File(blockPath).delete();
+    }
+
+    @Test
+    public void testDictionaryEncoding() throws Exception {
+        String[] stations = { "fort_collins", "denver", "boulder" };
+        String[] rows = new String[300];
+        for (int i = 0; i < rows.length; ++i) {
+            rows[i] = i + ".5," + stations[i % stations.length] + "," + i;
+        }
+        ColumnSegment segment = segment(rows);
+
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        segment.encode(new DataOutputStream(bOut));
+        ColumnSegment decoded = ColumnSegment.decode(
+                ByteBuffer.wrap(bOut.toByteArray()));
+
+        assertEquals(rows.length, decoded.getRowCount());
+        for (int i = 0; i < rows.length; ++i) {
+            assertEquals(stations[i % stations.length],
+                    decoded.getString(1, i));
+            assertEquals(i, decoded.getFeature(2, i).getInt());
+        }
+        /* Decoded values share the dictionary's String instances */
+        assertTrue(decoded.getString(1, 0) == decoded.getString(1, 3));
+    }
+
+    @Test
+    public void testMismatchedRow() throws Exception {
+        List<Pair<String, FeatureType>> schema = new ArrayList<>();
+        schema.add(new Pair<>("temperature", FeatureType.FLOAT));
+        ColumnSegment.Builder builder = new ColumnSegment.Builder(schema);
+        assertTrue(builder.addRow(new String[] { "1.0" }));
+        assertEquals(false, builder.addRow(new String[] { "1.0", "2.0" }));
+        assertEquals(1, builder.build().getRowCount());
+    }
+}
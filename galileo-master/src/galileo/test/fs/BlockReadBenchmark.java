@@ -0,0 +1,111 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import galileo.dataset.Metadata;
+import galileo.dataset.feature.FeatureType;
+import galileo.fs.BlockFile;
+import galileo.fs.ColumnSegment;
+import galileo.util.Pair;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Compares reading a large block file onto the heap against decoding it from
+ * a memory mapping.
+ */
+public class BlockReadBenchmark {
+
+    /* Rows per appended segment; each row holds four floats and a double */
+    private static final int SEGMENT_ROWS = 100000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println(
+                    "Usage: BlockReadBenchmark block-file size-mb iterations");
+            System.exit(1);
+        }
+
+        String path = args[0];
+        long targetSize = Long.parseLong(args[1]) * 1024 * 1024;
+        int iters = Integer.parseInt(args[2]);
+
+        generateBlock(path, targetSize);
+        System.out.println("Block size: " + new File(path).length()
+                + " bytes");
+
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < iters; ++i) {
+            for (boolean mapped : new boolean[] { false, true }) {
+                System.gc();
+                long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+                PerformanceTimer pt = new PerformanceTimer(
+                        mapped ? "mmap" : "heap");
+                pt.start();
+                BlockFile blockFile = BlockFile.read(path, mapped);
+                pt.stopAndPrint();
+                long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+                System.out.println("rows=" + blockFile.getRowCount()
+                        + " heap-delta-mb="
+                        + ((heapAfter - heapBefore) / (1024 * 1024)));
+            }
+        }
+
+        new File(path).delete();
+    }
+
+    private static void generateBlock(String path, long targetSize)
+    throws Exception {
+        List<Pair<String, FeatureType>> schema = new ArrayList<>();
+        schema.add(new Pair<>("lat", FeatureType.FLOAT));
+        schema.add(new Pair<>("lon", FeatureType.FLOAT));
+        schema.add(new Pair<>("temperature", FeatureType.FLOAT));
+        schema.add(new Pair<>("humidity", FeatureType.FLOAT));
+        schema.add(new Pair<>("pressure", FeatureType.DOUBLE));
+
+        BlockFile.create(path, "benchmark", new Metadata("benchmark"),
+                new ArrayList<ColumnSegment>());
+
+        Random random = new Random();
+        while (new File(path).length() < targetSize) {
+            ColumnSegment.Builder builder = new ColumnSegment.Builder(schema);
+            for (int r = 0; r < SEGMENT_ROWS; ++r) {
+                String[] row = {
+                    Float.toString(40.0f + random.nextFloat()),
+                    Float.toString(-105.0f + random.nextFloat()),
+                    Float.toString(250.0f + random.nextFloat() * 60.0f),
+                    Float.toString(random.nextFloat() * 100.0f),
+                    Double.toString(900.0 + random.nextDouble() * 200.0) };
+                builder.addRow(row);
+            }
+            BlockFile.append(path, builder.build());
+        }
+    }
+}
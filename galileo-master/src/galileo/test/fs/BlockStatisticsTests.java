@@ -0,0 +1,166 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import galileo.dataset.feature.Feature;
+import galileo.dataset.feature.FeatureType;
+import galileo.fs.BlockStatistics;
+import galileo.fs.ColumnSegment;
+import galileo.fs.SegmentScanner;
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.query.Operator;
+import galileo.query.Query;
+import galileo.util.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class BlockStatisticsTests {
+
+    private ColumnSegment segment(String... rows) {
+        List<Pair<String, FeatureType>> schema = new ArrayList<>();
+        schema.add(new Pair<>("co2", FeatureType.FLOAT));
+        schema.add(new Pair<>("station", FeatureType.STRING));
+        ColumnSegment.Builder builder = new ColumnSegment.Builder(schema);
+        for (String row : rows) {
+            builder.addRow(row.split(","));
+        }
+        return builder.build();
+    }
+
+    private Query query(Operator op, Feature value) {
+        return new Query(new Operation(new Expression(op, value)));
+    }
+
+    @Test
+    public void testPruning() {
+        List<ColumnSegment> segments = Arrays.asList(
+                segment("410.5,a", "420.0,b"),
+                segment("395.25,c"));
+        BlockStatistics stats = BlockStatistics.fromSegments(segments, 0);
+        assertEquals(3, stats.getRowCount());
+        assertEquals(395.25f, stats.getColumn("co2").getMin().getFloat(), 0f);
+        assertEquals(420.0f, stats.getColumn("co2").getMax().getFloat(), 0f);
+
+        assertFalse(stats.mayMatch(query(Operator.GREATER,
+                        new Feature("co2", 500.0f))));
+        assertFalse(stats.mayMatch(query(Operator.LESS,
+                        new Feature("co2", 395.25f))));
+        assertTrue(stats.mayMatch(query(Operator.LESSEQUAL,
+                        new Feature("co2", 395.25f))));
+        assertFalse(stats.mayMatch(query(Operator.EQUAL,
+                        new Feature("station", "z"))));
+        assertTrue(stats.mayMatch(query(Operator.EQUAL,
+                        new Feature("station", "b"))));
+
+        /* Unknown features are ignored, as they are by the scanner */
+        assertTrue(stats.mayMatch(query(Operator.EQUAL,
+                        new Feature("humidity", 1.0f))));
+
+        /* Disjunctions match if any operation can */
+        assertTrue(stats.mayMatch(new Query(
+                        new Operation(new Expression(Operator.GREATER,
+                                new Feature("co2", 500.0f))),
+                        new Operation(new Expression(Operator.EQUAL,
+                                new Feature("station", "c"))))));
+    }
+
+    @Test
+    public void testNullsNeverPruneMatches() {
+        /* Unparseable values become NaN, which orders above all values */
+        List<ColumnSegment> segments = Arrays.asList(
+                segment("410.5,a", "missing,b"));
+        BlockStatistics stats = BlockStatistics.fromSegments(segments, 0);
+        assertEquals(1, stats.getColumn("co2").getNullCount());
+
+        Set<String> features = new HashSet<>(Arrays.asList("co2", "station"));
+        for (Operator op : new Operator[] { Operator.EQUAL, Operator.NOTEQUAL,
+                Operator.LESS, Operator.LESSEQUAL, Operator.GREATER,
+                Operator.GREATEREQUAL }) {
+            for (float value : new float[] { 400.0f, 410.5f, 500.0f }) {
+                Query q = query(op, new Feature("co2", value));
+                int matches = new SegmentScanner(q, features)
+                    .scan(segments.get(0)).cardinality();
+                if (matches > 0) {
+                    assertTrue(op + " " + value, stats.mayMatch(q));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentPersist() throws Exception {
+        /* Queries and writers may persist the statistics of the same block
+         * at the same time */
+        File dir = Files.createTempDirectory("stats").toFile();
+        final String blockPath = dir + File.separator + "block.gblock";
+        final List<ColumnSegment> segments = Arrays.asList(
+                segment("410.5,a", "420.0,b"));
+        final List<IOException> errors = new ArrayList<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    BlockStatistics stats
+                        = BlockStatistics.fromSegments(segments, 0);
+                    for (int i = 0; i < 200; ++i) {
+                        try {
+                            stats.persist(blockPath);
+                        } catch (IOException e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.size());
+        assertEquals(Arrays.asList("block.gblock" + BlockStatistics.EXTENSION),
+                Arrays.asList(dir.list()));
+
+        new File(blockPath + BlockStatistics.EXTENSION).delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+Copyright (c) 2014, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import galileo.fs.GTreeJournal;
+import galileo.graph.GTree;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class GTreeJournalTests {
+
+    private static String journalDir = "/tmp/gtreejournal-test";
+    private static String journalFile = journalDir + "/tree.log";
+
+    private void clean() {
+        File dir = new File(journalDir);
+        if (dir.exists()) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+        }
+        dir.mkdirs();
+    }
+
+    private GTree emptyTree() {
+        return new GTree("fs", journalDir + "/fs");
+    }
+
+    private void addBlock(GTree tree, GTreeJournal journal, String path,
+            String block, int size) throws Exception {
+        tree.addNewPath(path, block, size);
+        journal.logBlock(path, block, size);
+    }
+
+    @Test
+    public void testLogReplay() throws Exception {
+        clean();
+        GTreeJournal journal = new GTreeJournal(journalFile);
+        GTree tree = journal.recover(emptyTree());
+        journal.start();
+        addBlock(tree, journal, "2015/1/1/9xjq", "a.gblock", 10);
+        addBlock(tree, journal, "2015/1/1/9xjq", "b.gblock", 20);
+        addBlock(tree, journal, "2015/1/2/9xjq", "c.gblock", 30);
+        tree.updateBlockSize("2015/1/1/9xjq", "a.gblock", 15);
+        journal.logBlockSize("2015/1/1/9xjq", "a.gblock", 15);
+        journal.shutdown();
+
+        GTree recovered = new GTreeJournal(journalFile).recover(emptyTree());
+        assertEquals(tree.logTree(), recovered.logTree());
+        assertEquals(tree.getNumNodes(), recovered.getNumNodes());
+        assertEquals(15, recovered.getPathToBlockMap()
+                .get("2015/1/1/9xjq").get(0).getBlockSize());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        clean();
+        GTreeJournal journal = new GTreeJournal(journalFile);
+        GTree tree = journal.recover(emptyTree());
+        journal.start();
+        addBlock(tree, journal, "2015/1/1/9xjq", "a.gblock", 10);
+        addBlock(tree, journal, "2015/1/1/s3y7", "b.gblock", 20);
+        journal.snapshot(tree);
+        assertEquals(0, journal.getLogEntries());
+        addBlock(tree, journal, "2015/2/1/9xjq", "c.gblock", 30);
+        journal.shutdown();
+
+        GTree recovered = new GTreeJournal(journalFile).recover(emptyTree());
+        assertEquals(tree.logTree(), recovered.logTree());
+        assertEquals(tree.getNumNodes(), recovered.getNumNodes());
+        assertEquals(30, recovered.getPathToBlockMap()
+                .get("2015/2/1/9xjq").get(0).getBlockSize());
+        assertEquals(60, recovered.getUsage("").getBytes());
+        assertEquals(30, recovered.getUsage("2015/1").getBytes());
+        assertEquals(40, recovered.getLeafPrefixUsage("9xjq").getBytes());
+
+        /* Entries already captured by the snapshot are not added again */
+        journal = new GTreeJournal(journalFile);
+        journal.recover(emptyTree());
+        journal.start();
+        journal.logBlock("2015/1/1/9xjq", "a.gblock", 10);
+        journal.shutdown();
+        recovered = new GTreeJournal(journalFile).recover(emptyTree());
+        assertEquals(tree.logTree(), recovered.logTree());
+    }
+
+    @Test
+    public void testTruncatedLog() throws Exception {
+        clean();
+        GTreeJournal journal = new GTreeJournal(journalFile);
+        GTree tree = journal.recover(emptyTree());
+        journal.start();
+        addBlock(tree, journal, "2015/1/1/9xjq", "a.gblock", 10);
+        journal.logBlock("2015/1/1/9xjq", "b.gblock", 20);
+        journal.shutdown();
+
+        /* Cut the last entry short, as a crash during a write would */
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        GTree recovered = new GTreeJournal(journalFile).recover(emptyTree());
+        assertEquals(tree.logTree(), recovered.logTree());
+        assertTrue(recovered.containsBlock("2015/1/1/9xjq", "a.gblock"));
+        assertEquals(false,
+                recovered.containsBlock("2015/1/1/9xjq", "b.gblock"));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import galileo.dataset.feature.Feature;
+import galileo.fs.PathJournal;
+import galileo.graph.FeaturePath;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Measures PathJournal throughput with concurrent writers at a range of
+ * group commit batch sizes.  A batch size of one syncs every path
+ * individually, which is the baseline group commit improves upon.
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: JournalBenchmark journal-dir paths "
+                    + "threads batch-size...");
+            System.exit(1);
+        }
+
+        File dir = new File(args[0]);
+        final int numPaths = Integer.parseInt(args[1]);
+        int numThreads = Integer.parseInt(args[2]);
+
+        final List<FeaturePath<String>> paths = new ArrayList<>();
+        for (int i = 0; i < numPaths; ++i) {
+            paths.add(new FeaturePath<String>("/block/" + i,
+                        new Feature("plotID", i),
+                        new Feature("temperature", (float) i / 10.0f),
+                        new Feature("sensorType", "irt")));
+        }
+
+        for (int a = 3; a < args.length; ++a) {
+            int batchSize = Integer.parseInt(args[a]);
+            dir.mkdirs();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+
+            final PathJournal journal = new PathJournal(
+                    new File(dir, "metadata.paths").getPath(), batchSize, 2);
+            journal.recover(new ArrayList<FeaturePath<String>>());
+            journal.start();
+
+            PerformanceTimer pt = new PerformanceTimer("batch-" + batchSize);
+            pt.start();
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; ++t) {
+                final int first = t;
+                final int stride = numThreads;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        List<Future<Void>> futures = new ArrayList<>();
+                        try {
+                            for (int i = first; i < numPaths; i += stride) {
+                                futures.add(
+                                        journal.persistPathAsync(paths.get(i)));
+                            }
+                            for (Future<Void> future : futures) {
+                                future.get();
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            pt.stopAndPrint();
+            journal.shutdown();
+
+            System.out.println(String.format("batch-size=%d paths/s=%.0f",
+                        batchSize, numPaths / (pt.getLastResult() / 1000.0)));
+        }
+    }
+}
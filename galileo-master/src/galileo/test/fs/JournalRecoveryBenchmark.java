@@ -0,0 +1,119 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import galileo.dataset.feature.Feature;
+import galileo.fs.PathJournal;
+import galileo.graph.FeaturePath;
+import galileo.graph.MetadataGraph;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Measures how long it takes to rebuild the Metadata Graph of a large file
+ * system by replaying its path journal.  The journal is populated with paths
+ * shaped like those produced by the geospatial file system: a temporal and a
+ * spatial feature followed by block attributes.
+ */
+public class JournalRecoveryBenchmark {
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println(
+                    "Usage: JournalRecoveryBenchmark journal-dir blocks");
+            System.exit(1);
+        }
+
+        File dir = new File(args[0]);
+        int blocks = Integer.parseInt(args[1]);
+        String journalFile = new File(dir, "metadata.paths").getPath();
+
+        if (new File(journalFile).exists() == false) {
+            dir.mkdirs();
+            generateJournal(journalFile, blocks);
+        }
+
+        PerformanceTimer replay = new PerformanceTimer("journal-replay");
+        PerformanceTimer build = new PerformanceTimer("graph-build");
+        replay.start();
+        PathJournal journal = new PathJournal(journalFile);
+        List<FeaturePath<String>> paths = new ArrayList<>();
+        journal.recover(paths);
+        replay.stopAndPrint();
+
+        build.start();
+        MetadataGraph graph = new MetadataGraph();
+        for (int i = 0; i < paths.size(); ++i) {
+            graph.addPath(paths.get(i));
+            paths.set(i, null);
+        }
+        build.stopAndPrint();
+
+        double seconds = (replay.getLastResult() + build.getLastResult())
+            / 1000.0;
+        System.out.println(String.format("paths=%d recovery-s=%.1f "
+                    + "blocks/s=%.0f", paths.size(), seconds,
+                    paths.size() / seconds));
+    }
+
+    private static void generateJournal(String journalFile, int blocks)
+    throws Exception {
+        PathJournal journal = new PathJournal(journalFile, 0, 0);
+        journal.recover(new ArrayList<FeaturePath<String>>());
+        journal.start();
+
+        List<FeaturePath<String>> batch = new ArrayList<>();
+        for (int i = 0; i < blocks; ++i) {
+            String date = String.format("%d-%d-%d",
+                    2010 + (i / 365) % 10, 1 + (i / 28) % 12, 1 + i % 28);
+            StringBuilder geohash = new StringBuilder();
+            int cell = i / 3650;
+            for (int c = 0; c < 4; ++c) {
+                geohash.append(BASE32.charAt(cell % 32));
+                cell /= 32;
+            }
+            String blockPath = "/galileo/fs/" + geohash + "/" + date + "-"
+                + geohash + ".gblock";
+            batch.add(new FeaturePath<String>(blockPath,
+                        new Feature("x__temporal__x", date),
+                        new Feature("x__spatial__x", geohash.toString()),
+                        new Feature("plotID", i % 5000),
+                        new Feature("sensorType", "irt")));
+
+            if (batch.size() == 10000) {
+                journal.persistPaths(batch);
+                batch.clear();
+            }
+        }
+        journal.persistPaths(batch);
+        journal.shutdown();
+    }
+}
@@ -25,11 +25,17 @@ software, even if advised of the possibility of such damage.
 
 package galileo.test.fs;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import galileo.dataset.feature.Feature;
 import galileo.fs.PathJournal;
 import galileo.graph.FeaturePath;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -37,6 +43,7 @@ public class PathJournalTests {
 
     private static String journal = "/tmp/pathjournal";
     private static String index = "/tmp/pathjournal.index";
+    private static String journalDir = "/tmp/pathjournal-test";
 
     public PathJournalTests() {
         removeJournal();
@@ -72,4 +79,132 @@ public class PathJournalTests {
 
         System.out.println("=======");
     }
+
+    private FeaturePath<String> path(int id) {
+        return new FeaturePath<String>("block" + id,
+                new Feature("plotID", id), new Feature("sensor", "irt"));
+    }
+
+    private void clean() {
+        File dir = new File(journalDir);
+        if (dir.exists()) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+        }
+        dir.mkdirs();
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        clean();
+        String journalFile = journalDir + "/metadata.paths";
+
+        PathJournal journal = new PathJournal(journalFile);
+        assertEquals(false, journal.recover(new ArrayList<FeaturePath<String>>()));
+        journal.start();
+        journal.persistPath(path(0));
+        journal.persistPath(path(1));
+        assertEquals(1, journal.rotate());
+        journal.persistPath(path(2));
+        journal.shutdown();
+
+        /* Replaying all segments */
+        journal = new PathJournal(journalFile);
+        List<FeaturePath<String>> paths = new ArrayList<>();
+        assertTrue(journal.recover(paths));
+        assertEquals(3, paths.size());
+        journal.start();
+        assertEquals(1, journal.getSegment());
+        journal.persistPath(path(3));
+        journal.shutdown();
+
+        /* Replaying only the tail after a snapshot at segment 1 */
+        journal = new PathJournal(journalFile);
+        paths = new ArrayList<>();
+        assertTrue(journal.recover(paths, 1));
+        assertEquals(2, paths.size());
+        assertTrue(paths.get(0).getPayload().contains("block2"));
+        assertTrue(paths.get(1).getPayload().contains("block3"));
+        assertEquals(false, new File(journalFile).exists());
+        journal.shutdown();
+
+        clean();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        clean();
+        String journalFile = journalDir + "/metadata.paths";
+
+        final PathJournal journal = new PathJournal(journalFile, 16, 2);
+        journal.recover(new ArrayList<FeaturePath<String>>());
+        journal.start();
+
+        final List<Future<Void>> futures = new ArrayList<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int offset = t * 25;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 25; ++i) {
+                        try {
+                            Future<Void> future
+                                = journal.persistPathAsync(path(offset + i));
+                            synchronized (futures) {
+                                futures.add(future);
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, futures.size());
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        journal.persistPath(path(100));
+        journal.shutdown();
+
+        PathJournal recovered = new PathJournal(journalFile);
+        List<FeaturePath<String>> paths = new ArrayList<>();
+        assertTrue(recovered.recover(paths));
+        assertEquals(101, paths.size());
+
+        clean();
+    }
+
+    @Test
+    public void testSegmentRollover() throws Exception {
+        clean();
+        String journalFile = journalDir + "/metadata.paths";
+
+        System.setProperty("galileo.fs.PathJournal.segmentSize", "1024");
+        PathJournal journal = new PathJournal(journalFile);
+        System.clearProperty("galileo.fs.PathJournal.segmentSize");
+        journal.recover(new ArrayList<FeaturePath<String>>());
+        journal.start();
+        for (int i = 0; i < 200; ++i) {
+            journal.persistPath(path(i));
+        }
+        assertTrue(journal.getSegment() > 1);
+        journal.shutdown();
+
+        PathJournal recovered = new PathJournal(journalFile);
+        List<FeaturePath<String>> paths = new ArrayList<>();
+        assertTrue(recovered.recover(paths));
+        assertEquals(200, paths.size());
+        for (int i = 0; i < 200; ++i) {
+            assertTrue(paths.get(i).getPayload().contains("block" + i));
+        }
+
+        clean();
+    }
 }
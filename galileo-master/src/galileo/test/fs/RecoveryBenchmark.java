@@ -0,0 +1,133 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import galileo.dataset.Metadata;
+import galileo.dataset.feature.Feature;
+import galileo.fs.BlockFile;
+import galileo.fs.ColumnSegment;
+import galileo.fs.FileSystem;
+import galileo.fs.FileSystemException;
+import galileo.serialization.SerializationException;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Measures full recovery throughput: how quickly block metadata can be
+ * scanned from a storage directory with varying levels of parallelism.
+ */
+public class RecoveryBenchmark {
+
+    /**
+     * A file system that recovers an existing storage directory and counts
+     * the metadata it would index.
+     */
+    private static class RecoveringFileSystem extends FileSystem {
+
+        private AtomicLong stored = new AtomicLong();
+
+        public RecoveringFileSystem(String storageRoot, String name)
+        throws FileSystemException, IOException {
+            super(storageRoot, name);
+        }
+
+        @Override
+        protected void initialize(String storageRoot, String name) {
+            storageDirectory = new File(storageRoot + "/" + name);
+        }
+
+        @Override
+        public Metadata loadMetadata(String blockPath)
+        throws IOException, SerializationException {
+            return BlockFile.readMetadata(blockPath);
+        }
+
+        @Override
+        public void storeMetadata(Metadata metadata, String blockPath) {
+            stored.incrementAndGet();
+        }
+
+        @Override
+        public void shutdown() { }
+
+        public long recoverAll() {
+            stored.set(0);
+            fullRecovery();
+            return stored.get();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println(
+                    "Usage: RecoveryBenchmark storage-dir blocks threads...");
+            System.exit(1);
+        }
+
+        String root = args[0];
+        int blocks = Integer.parseInt(args[1]);
+        generateBlocks(new File(root + "/recovery"), blocks);
+
+        RecoveringFileSystem fs = new RecoveringFileSystem(root, "recovery");
+        for (int i = 2; i < args.length; ++i) {
+            System.setProperty("galileo.fs.FileSystem.recoveryParallelism",
+                    args[i]);
+            PerformanceTimer pt = new PerformanceTimer(
+                    "recovery-" + args[i] + "-threads");
+            pt.start();
+            long recovered = fs.recoverAll();
+            pt.stopAndPrint();
+            System.out.println("recovered=" + recovered);
+        }
+    }
+
+    /**
+     * Creates block files spread across a two-level directory hierarchy,
+     * similar to the layout produced by the geospatial file system.
+     */
+    private static void generateBlocks(File directory, int blocks)
+    throws IOException {
+        List<ColumnSegment> segments = new ArrayList<>();
+        for (int i = 0; i < blocks; ++i) {
+            File dir = new File(directory, "9x" + (i % 32) + "/" + (i % 365));
+            File block = new File(dir, i + FileSystem.BLOCK_EXTENSION);
+            if (block.exists()) {
+                continue;
+            }
+            dir.mkdirs();
+
+            Metadata meta = new Metadata("block" + i);
+            meta.putAttribute(new Feature("plotID", i));
+            meta.putAttribute(new Feature("sensorType", "irt"));
+            BlockFile.create(block.getPath(), "recovery", meta, segments);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import galileo.dataset.feature.Feature;
+import galileo.dataset.feature.FeatureType;
+import galileo.fs.ColumnSegment;
+import galileo.fs.SegmentScanner;
+import galileo.graph.FeaturePath;
+import galileo.graph.MetadataGraph;
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.query.Operator;
+import galileo.query.Query;
+import galileo.util.Pair;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Compares evaluating a query by building a temporary {@link MetadataGraph}
+ * from a block's rows against scanning the block's columns directly with a
+ * {@link SegmentScanner}.
+ */
+public class ScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: ScanBenchmark rows iterations");
+            System.exit(1);
+        }
+
+        int rows = Integer.parseInt(args[0]);
+        int iters = Integer.parseInt(args[1]);
+
+        ColumnSegment segment = generateSegment(rows);
+        Set<String> features = new HashSet<>();
+        for (int c = 0; c < segment.getColumnCount(); ++c) {
+            features.add(segment.getColumnName(c));
+        }
+
+        Query query = new Query(new Operation(
+                    new Expression(Operator.GREATER,
+                        new Feature("temperature", 280.0f)),
+                    new Expression(Operator.LESS,
+                        new Feature("humidity", 50.0f))));
+
+        PerformanceTimer graphTimer = new PerformanceTimer("temporary-graph");
+        PerformanceTimer scanTimer = new PerformanceTimer("column-scan");
+        for (int i = 0; i < iters; ++i) {
+            graphTimer.start();
+            MetadataGraph graph = new MetadataGraph();
+            for (int r = 0; r < segment.getRowCount(); ++r) {
+                Feature[] row = new Feature[segment.getColumnCount()];
+                for (int c = 0; c < row.length; ++c) {
+                    row[c] = segment.getFeature(c, r);
+                }
+                graph.addPath(new FeaturePath<String>("block", row));
+            }
+            int graphMatches = graph.evaluateQuery(query).size();
+            graphTimer.stopAndPrint();
+
+            scanTimer.start();
+            BitSet matches = new SegmentScanner(query, features).scan(segment);
+            scanTimer.stopAndPrint();
+
+            System.out.println("matches: graph=" + graphMatches
+                    + " scan=" + matches.cardinality());
+        }
+    }
+
+    private static ColumnSegment generateSegment(int rows) {
+        List<Pair<String, FeatureType>> schema = new ArrayList<>();
+        schema.add(new Pair<>("lat", FeatureType.FLOAT));
+        schema.add(new Pair<>("lon", FeatureType.FLOAT));
+        schema.add(new Pair<>("temperature", FeatureType.FLOAT));
+        schema.add(new Pair<>("humidity", FeatureType.FLOAT));
+        schema.add(new Pair<>("station", FeatureType.STRING));
+
+        Random random = new Random();
+        ColumnSegment.Builder builder = new ColumnSegment.Builder(schema);
+        for (int r = 0; r < rows; ++r) {
+            String[] row = {
+                Float.toString(40.0f + random.nextFloat()),
+                Float.toString(-105.0f + random.nextFloat()),
+                Float.toString(250.0f + random.nextFloat() * 60.0f),
+                Float.toString(random.nextFloat() * 100.0f),
+                "station" + random.nextInt(64) };
+            builder.addRow(row);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import static org.junit.Assert.assertEquals;
+
+import galileo.dataset.feature.Feature;
+import galileo.dataset.feature.FeatureType;
+import galileo.fs.ColumnSegment;
+import galileo.fs.SegmentScanner;
+import galileo.graph.FeaturePath;
+import galileo.graph.MetadataGraph;
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.query.Operator;
+import galileo.query.Query;
+import galileo.util.Pair;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Verifies that {@link SegmentScanner} selects the same rows as evaluating a
+ * query against a {@link MetadataGraph} built from the segment.
+ */
+public class SegmentScannerTests {
+
+    private static final String[] stations = { "a", "b", "c", "d" };
+
+    private ColumnSegment segment;
+    private MetadataGraph graph = new MetadataGraph();
+    private Set<String> features = new HashSet<>();
+
+    public SegmentScannerTests() throws Exception {
+        List<Pair<String, FeatureType>> schema = new ArrayList<>();
+        schema.add(new Pair<>("temperature", FeatureType.FLOAT));
+        schema.add(new Pair<>("station", FeatureType.STRING));
+        schema.add(new Pair<>("count", FeatureType.INT));
+        for (Pair<String, FeatureType> column : schema) {
+            features.add(column.a);
+        }
+
+        Random random = new Random(6);
+        ColumnSegment.Builder builder = new ColumnSegment.Builder(schema);
+        for (int i = 0; i < 500; ++i) {
+            String[] row = {
+                Integer.toString(random.nextInt(40)),
+                stations[random.nextInt(stations.length)],
+                Integer.toString(i) };
+            builder.addRow(row);
+        }
+        segment = builder.build();
+
+        for (int r = 0; r < segment.getRowCount(); ++r) {
+            graph.addPath(new FeaturePath<String>("row" + r,
+                        segment.getFeature(0, r),
+                        segment.getFeature(1, r),
+                        segment.getFeature(2, r)));
+        }
+    }
+
+    private void compare(Query query) {
+        BitSet matches = new SegmentScanner(query, features).scan(segment);
+        assertEquals(graph.evaluateQuery(query).size(),
+                matches.cardinality());
+    }
+
+    @Test
+    public void testSingleExpressions() {
+        for (Operator op : new Operator[] { Operator.EQUAL, Operator.NOTEQUAL,
+                Operator.LESS, Operator.LESSEQUAL, Operator.GREATER,
+                Operator.GREATEREQUAL }) {
+            compare(new Query(new Operation(
+                            new Expression(op, new Feature("temperature",
+                                    20.0f)))));
+            compare(new Query(new Operation(
+                            new Expression(op, new Feature("station", "b")))));
+        }
+    }
+
+    @Test
+    public void testConjunctionsAndDisjunctions() {
+        compare(new Query(new Operation(
+                        new Expression(Operator.GREATER,
+                            new Feature("temperature", 10.0f)),
+                        new Expression(Operator.LESSEQUAL,
+                            new Feature("temperature", 30.0f)),
+                        new Expression(Operator.EQUAL,
+                            new Feature("station", "c")))));
+
+        compare(new Query(
+                    new Operation(new Expression(Operator.LESS,
+                            new Feature("count", 100))),
+                    new Operation(new Expression(Operator.GREATEREQUAL,
+                            new Feature("count", 400)))));
+    }
+
+    @Test
+    public void testUnknownFeature() {
+        Query query = new Query(new Operation(
+                    new Expression(Operator.EQUAL,
+                        new Feature("humidity", 1.0f))));
+        assertEquals(segment.getRowCount(),
+                new SegmentScanner(query, features).scan(segment)
+                .cardinality());
+    }
+}
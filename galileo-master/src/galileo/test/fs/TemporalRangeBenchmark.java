@@ -0,0 +1,172 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.fs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import galileo.comm.PrecisionLimit;
+import galileo.dataset.Metadata;
+import galileo.dataset.TemporalProperties;
+import galileo.dataset.feature.Feature;
+import galileo.fs.FileSystemException;
+import galileo.fs.GeospatialFileSystem;
+import galileo.serialization.SerializationException;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Compares listing the blocks of a week, month, or year with a single
+ * interval in listBlocks against listing them one day at a time, which is
+ * how clients had to issue such queries when listBlocks only matched
+ * single days.
+ */
+public class TemporalRangeBenchmark {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * A file system that indexes block metadata without writing blocks.
+     */
+    private static class IndexingFileSystem extends GeospatialFileSystem {
+
+        public IndexingFileSystem(String storageRoot, String name)
+        throws FileSystemException, IOException, SerializationException {
+            super(storageRoot, name, new PrecisionLimit(1f, 1f));
+        }
+
+        public void index(List<Metadata> metadata, List<String> blockPaths)
+        throws FileSystemException, IOException {
+            storeMetadata(metadata, blockPaths);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: TemporalRangeBenchmark storage-dir "
+                    + "days geohashes [iterations]");
+            System.exit(1);
+        }
+
+        int days = Integer.parseInt(args[1]);
+        int geohashes = Integer.parseInt(args[2]);
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        IndexingFileSystem fs = new IndexingFileSystem(args[0], "range");
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        c.clear();
+        c.set(2015, Calendar.JANUARY, 1);
+        long first = c.getTimeInMillis();
+
+        /* Temporal labels use the unpadded format of older blocks, so the
+         * labels are also normalized as they are indexed. */
+        List<Metadata> metadata = new ArrayList<>();
+        List<String> blockPaths = new ArrayList<>();
+        for (int d = 0; d < days; ++d) {
+            c.setTimeInMillis(first + d * DAY);
+            String time = String.format("%d-%d-%d", c.get(Calendar.YEAR),
+                    c.get(Calendar.MONTH) + 1, c.get(Calendar.DAY_OF_MONTH));
+            for (int g = 0; g < geohashes; ++g) {
+                String geohash = String.format("9x%02d", g);
+                Metadata meta = new Metadata();
+                meta.putAttribute(new Feature("x__temporal__x", time));
+                meta.putAttribute(new Feature("x__spatial__x", geohash));
+                metadata.add(meta);
+                blockPaths.add("/" + time + "/" + geohash + ".gblock");
+            }
+        }
+        PerformanceTimer pt = new PerformanceTimer("index");
+        pt.start();
+        fs.index(metadata, blockPaths);
+        pt.stopAndPrint();
+
+        int[] windows = { 7, 30, 365 };
+        String[] names = { "week", "month", "year" };
+        /* The first pass warms up the JIT and is not reported */
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int w = 0; w < windows.length; ++w) {
+                String result = listWindows(fs, first, days,
+                        Math.min(windows[w], days), iterations);
+                if (pass > 0) {
+                    System.out.println(String.format("%-6s %s",
+                                names[w], result));
+                }
+            }
+        }
+        fs.shutdown();
+    }
+
+    /**
+     * Lists the blocks of windows of the given number of days, both with a
+     * single interval and one day at a time.
+     */
+    private static String listWindows(GeospatialFileSystem fs, long first,
+            int days, int window, int iterations) {
+        long rangeBlocks = 0;
+        long dailyBlocks = 0;
+
+        PerformanceTimer range = new PerformanceTimer();
+        range.start();
+        for (int i = 0; i < iterations; ++i) {
+            long start = first + (i % (days - window + 1)) * DAY;
+            Metadata query = new Metadata();
+            query.setTemporalProperties(new TemporalProperties(
+                        start, start + (window - 1) * DAY));
+            rangeBlocks += countBlocks(fs.listBlocks(query));
+        }
+        range.stop();
+
+        PerformanceTimer daily = new PerformanceTimer();
+        daily.start();
+        for (int i = 0; i < iterations; ++i) {
+            long start = first + (i % (days - window + 1)) * DAY;
+            for (int d = 0; d < window; ++d) {
+                Metadata query = new Metadata();
+                query.setTemporalProperties(
+                        new TemporalProperties(start + d * DAY));
+                dailyBlocks += countBlocks(fs.listBlocks(query));
+            }
+        }
+        daily.stop();
+
+        return String.format("range: %.3f ms/query, per-day: %.3f ms/query, "
+                + "blocks: %d/%d",
+                range.getLastResult() / iterations,
+                daily.getLastResult() / iterations,
+                rangeBlocks / iterations, dailyBlocks / iterations);
+    }
+
+    private static long countBlocks(Map<String, List<String>> blockMap) {
+        long count = 0;
+        for (List<String> blocks : blockMap.values()) {
+            count += blocks.size();
+        }
+        return count;
+    }
+}
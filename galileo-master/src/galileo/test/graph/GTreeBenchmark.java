@@ -0,0 +1,120 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.graph;
+
+import java.util.Random;
+
+import galileo.graph.GNode;
+import galileo.graph.GTree;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Measures GTree insertion and lookup throughput for a file system laid out
+ * like the geospatial file system: year/month/day/geohash directories, each
+ * holding one block.
+ */
+public class GTreeBenchmark {
+
+    private static final String GEOHASH_CHARS
+        = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    public static void main(String[] args) throws Exception {
+        int numBlocks = 1000000;
+        int geohashes = 1024;
+        if (args.length > 0) {
+            numBlocks = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            geohashes = Integer.parseInt(args[1]);
+        }
+
+        String[] paths = new String[numBlocks];
+        String[] names = new String[numBlocks];
+        for (int i = 0; i < numBlocks; ++i) {
+            int day = i / geohashes;
+            int g = i % geohashes;
+            String geohash = "9" + GEOHASH_CHARS.charAt(g / 32 % 32)
+                + GEOHASH_CHARS.charAt(g % 32);
+            paths[i] = (2000 + day / 365) + "/" + (day % 365 / 31 + 1) + "/"
+                + (day % 31 + 1) + "/" + geohash;
+            names[i] = day + "-" + geohash + ".gblock";
+        }
+
+        GTree tree = new GTree("benchmark", "/benchmark");
+
+        PerformanceTimer pt = new PerformanceTimer();
+        pt.start();
+        for (int i = 0; i < numBlocks; ++i) {
+            tree.addNewPath(paths[i], names[i], i);
+        }
+        pt.stop();
+        report("insert", numBlocks, pt.getLastResult());
+
+        Random random = new Random(0);
+        int lookups = numBlocks;
+        int found = 0;
+        pt.start();
+        for (int i = 0; i < lookups; ++i) {
+            int b = random.nextInt(numBlocks);
+            if (tree.updateBlockSize(paths[b], names[b], b + 1)) {
+                found++;
+            }
+        }
+        pt.stop();
+        report("block-lookup", lookups, pt.getLastResult());
+
+        int numNodes = tree.getNumNodes();
+        pt.start();
+        for (int i = 0; i < lookups; ++i) {
+            if (tree.getNode(random.nextInt(numNodes) + 1) != null) {
+                found++;
+            }
+        }
+        pt.stop();
+        report("node-lookup", lookups, pt.getLastResult());
+
+        pt.start();
+        for (int i = 0; i < lookups; ++i) {
+            int b = random.nextInt(numBlocks);
+            GNode node = tree.getRootNode();
+            for (String element : paths[b].split("/")) {
+                node = node.getChild(element);
+            }
+            if (node != null) {
+                found++;
+            }
+        }
+        pt.stop();
+        report("path-lookup", lookups, pt.getLastResult());
+
+        System.out.println("nodes=" + numNodes + " found=" + found);
+    }
+
+    private static void report(String name, int operations, double ms) {
+        System.out.println(String.format("%-12s %10.0f ops/s (%.1f ms)",
+                    name, operations / (ms / 1000.0), ms));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import galileo.graph.GNode;
+import galileo.graph.GTree;
+
+public class GTreeTests {
+
+    private GTree emptyTree() {
+        return new GTree("fs", "/tmp/fs");
+    }
+
+    @Test
+    public void testIndexes() {
+        GTree tree = emptyTree();
+        tree.addNewPath("2015/1/1/9xjq", "a.gblock", 10);
+        tree.addNewPath("2015/1/1/9xjq", "b.gblock", 20);
+        tree.addNewPath("2015/1/2/9xjq", "c.gblock", 30);
+        /* root, 2015, 1, 1, 9xjq, 2, 9xjq */
+        assertEquals(7, tree.getNumNodes());
+        assertEquals(7, tree.getNodes().size());
+
+        for (int id = 1; id <= tree.getNumNodes(); ++id) {
+            assertEquals(id, tree.getNode(id).getNodeNum());
+        }
+        assertNull(tree.getNode(8));
+
+        GNode year = tree.getRootNode().getChild("2015");
+        GNode month = year.getChild("1");
+        assertEquals(2, month.getChildren().size());
+        assertSame(month.getChildren().get(1), month.getChild("2"));
+        assertNull(month.getChild("3"));
+        assertEquals(2, month.getChild("1").getChild("9xjq")
+                .getBlocks().size());
+
+        assertTrue(tree.containsBlock("2015/1/1/9xjq", "b.gblock"));
+        assertEquals(false, tree.containsBlock("2015/1/2/9xjq", "b.gblock"));
+        assertTrue(tree.updateBlockSize("2015/1/1/9xjq", "b.gblock", 25));
+        assertEquals(false, tree.updateBlockSize("2015/1/3/9xjq", "b.gblock", 1));
+        assertEquals(25, tree.getBlock("2015/1/1/9xjq", "b.gblock")
+                .getBlockSize());
+        assertEquals(25, tree.getPathToBlockMap().get("2015/1/1/9xjq")
+                .get(1).getBlockSize());
+    }
+
+    @Test
+    public void testUsage() {
+        GTree tree = emptyTree();
+        tree.addNewPath("2015/1/1/9xjq", "a.gblock", 10);
+        tree.addNewPath("2015/1/1/9xjq", "b.gblock", 20);
+        tree.addNewPath("2015/1/1/s3y7", "c.gblock", 40);
+        tree.addNewPath("2015/2/1/9xjr", "d.gblock", 80);
+
+        assertEquals(4, tree.getUsage("").getBlocks());
+        assertEquals(150, tree.getUsage("").getBytes());
+        assertEquals(3, tree.getUsage("2015/1").getBlocks());
+        assertEquals(70, tree.getUsage("2015/1").getBytes());
+        assertEquals(30, tree.getUsage("2015/1/1/9xjq").getBytes());
+        assertNull(tree.getUsage("2015/3"));
+
+        assertEquals(3, tree.getLeafPrefixUsage("9xj").getBlocks());
+        assertEquals(110, tree.getLeafPrefixUsage("9xj").getBytes());
+        assertEquals(80, tree.getLeafPrefixUsage("9xjr").getBytes());
+        assertNull(tree.getLeafPrefixUsage("dr"));
+
+        tree.updateBlockSize("2015/1/1/9xjq", "a.gblock", 15);
+        assertEquals(75, tree.getUsage("2015/1").getBytes());
+        assertEquals(155, tree.getUsage("").getBytes());
+        assertEquals(115, tree.getLeafPrefixUsage("9").getBytes());
+        assertEquals(4, tree.getUsage("").getBlocks());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.graph;
+
+import galileo.dataset.feature.Feature;
+import galileo.graph.FeaturePath;
+import galileo.graph.MetadataGraph;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Measures the heap footprint of a {@link MetadataGraph} populated with
+ * paths shaped like those of the geospatial file system: a temporal and a
+ * spatial feature, followed by block attributes.
+ */
+public class GraphFootprintBenchmark {
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: GraphFootprintBenchmark paths");
+            System.exit(1);
+        }
+
+        int numPaths = Integer.parseInt(args[0]);
+        long before = usedHeap();
+
+        PerformanceTimer pt = new PerformanceTimer("build");
+        pt.start();
+        MetadataGraph graph = new MetadataGraph();
+        for (int i = 0; i < numPaths; ++i) {
+            String date = String.format("%d-%d-%d",
+                    2010 + (i / 365) % 10, 1 + (i / 28) % 12, 1 + i % 28);
+            StringBuilder geohash = new StringBuilder();
+            int cell = i / 3650;
+            for (int c = 0; c < 4; ++c) {
+                geohash.append(BASE32.charAt(cell % 32));
+                cell /= 32;
+            }
+            graph.addPath(new FeaturePath<String>(
+                        "/galileo/fs/" + geohash + "/" + i + ".gblock",
+                        new Feature("x__temporal__x", date),
+                        new Feature("x__spatial__x", geohash.toString()),
+                        new Feature("plotID", i % 5000),
+                        new Feature("temperature", (float) (i % 1000) / 10),
+                        new Feature("sensorType", "irt")));
+        }
+        pt.stopAndPrint();
+
+        long after = usedHeap();
+        long vertices = graph.numVertices();
+        System.out.println(String.format("paths=%d vertices=%d heap-mb=%.1f "
+                    + "bytes/vertex=%.1f", numPaths, vertices,
+                    (after - before) / (1024.0 * 1024.0),
+                    (double) (after - before) / vertices));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
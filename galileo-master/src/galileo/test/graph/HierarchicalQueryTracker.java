@@ -0,0 +1,239 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.graph;
+
+import java.util.ArrayList;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import galileo.dataset.feature.Feature;
+import galileo.dataset.feature.FeatureType;
+import galileo.graph.HierarchicalGraph;
+import galileo.graph.Path;
+import galileo.graph.Vertex;
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.util.Pair;
+
+/**
+ * Tracks a {@link galileo.query.Query} as it traverses through a graph
+ * hierarchy.  Along with {@link #evaluateOperation(HierarchicalGraph,
+ * Operation)}, this is the level-by-level query evaluation that
+ * {@link HierarchicalGraph} used to perform; it is kept as a reference for
+ * checking and benchmarking the graph's query traversal.
+ *
+ * @author malensek
+ */
+public class HierarchicalQueryTracker<T> {
+
+    public List<List<Path<Feature, T>>> results = new ArrayList<>();
+    private int farthestEvaluatedExpression = 0;
+    private int currentLevel = 0;
+
+    private Path<Feature, T> rootPath;
+
+    public HierarchicalQueryTracker(Vertex<Feature, T> root, int numFeatures) {
+        int size = numFeatures + 1;
+        results = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            results.add(new ArrayList<Path<Feature, T>>());
+        }
+
+        rootPath = new Path<Feature, T>(root);
+        List<Path<Feature, T>> l = new ArrayList<>(1);
+        l.add(rootPath);
+        results.get(0).add(rootPath);
+    }
+
+    public void addResults(Path<Feature, T> previousPath,
+            Collection<Vertex<Feature, T>> results) {
+
+        for (Vertex<Feature, T> vertex : results) {
+            Path<Feature, T> path = new Path<>(previousPath);
+            path.add(vertex);
+
+            /* Copy over the payload */
+            if (vertex.getValues().size() > 0) {
+                path.setPayload(new HashSet<>(vertex.getValues()));
+            }
+
+            this.results.get(getCurrentLevel()).add(path);
+        }
+    }
+
+    public void nextLevel() {
+        ++currentLevel;
+    }
+
+    /**
+     * Retrieves the current level being processed.
+     */
+    public int getCurrentLevel() {
+        return currentLevel;
+    }
+
+    /**
+     * Retrieves the results that are currently being processed. In other words,
+     * get the results from the last level in the hierarchy.
+     */
+    public List<Path<Feature, T>> getCurrentResults() {
+        return results.get(getCurrentLevel() - 1);
+    }
+
+    public void markEvaluated() {
+        farthestEvaluatedExpression = getCurrentLevel();
+    }
+
+    public List<Path<Feature, T>> getQueryResults() {
+        List<Path<Feature, T>> paths = new ArrayList<>();
+        for (int i = farthestEvaluatedExpression; i < results.size(); ++i) {
+            for (Path<Feature, T> path : results.get(i)) {
+                if (path.hasPayload()) {
+                    paths.add(path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Evaluates an {@link Operation} against a graph one level of the
+     * hierarchy at a time.
+     */
+    public static <T> List<Path<Feature, T>> evaluateOperation(
+            HierarchicalGraph<T> graph, Operation operation) {
+        HierarchicalQueryTracker<T> tracker = new HierarchicalQueryTracker<>(
+                graph.getRoot(), graph.getFeatureHierarchy().size());
+
+        for (Pair<String, FeatureType> feature : graph.getFeatureHierarchy()) {
+            tracker.nextLevel();
+
+            /* Find all expressions related to the current Feature (operand) */
+            List<Expression> expressions = operation.getOperand(feature.a);
+
+            if (expressions == null) {
+                /* No expressions deal with the current feature.  Traverse all
+                 * neighbors. */
+                for (Path<Feature, T> path : tracker.getCurrentResults()) {
+                    Vertex<Feature, T> vertex = path.getTail();
+                    tracker.addResults(path, vertex.getAllNeighbors());
+                }
+            } else {
+                /* Note that we are evaluating an Expression at this level */
+                tracker.markEvaluated();
+
+                for (Path<Feature, T> path : tracker.getCurrentResults()) {
+                    Vertex<Feature, T> vertex = path.getTail();
+                    tracker.addResults(path,
+                            evaluateExpressions(expressions, vertex));
+                }
+            }
+        }
+        return tracker.getQueryResults();
+    }
+
+    /**
+     * Evaluate query {@link Expression}s at a particular vertex.  Neighboring
+     * vertices that match every Expression are returned.
+     */
+    private static <T> Collection<Vertex<Feature, T>> evaluateExpressions(
+            List<Expression> expressions, Vertex<Feature, T> vertex) {
+
+        Set<Vertex<Feature, T>> resultSet = null;
+
+        for (Expression expression : expressions) {
+            Set<Vertex<Feature, T>> evalSet = new HashSet<>();
+            Feature value = expression.getValue();
+
+            switch (expression.getOperator()) {
+                case EQUAL: {
+                    Vertex<Feature, T> equalTo = vertex.getNeighbor(value);
+                    if (equalTo != null) {
+                        evalSet.add(equalTo);
+                    }
+                    break;
+                }
+
+                case NOTEQUAL:
+                    evalSet.addAll(vertex.getAllNeighbors());
+                    evalSet.remove(vertex.getNeighbor(value));
+                    break;
+
+                case LESS:
+                    evalSet.addAll(removeWildcard(
+                                vertex.getNeighborsLessThan(value, false)));
+                    break;
+
+                case LESSEQUAL:
+                    evalSet.addAll(removeWildcard(
+                                vertex.getNeighborsLessThan(value, true)));
+                    break;
+
+                case GREATER:
+                    evalSet.addAll(
+                            vertex.getNeighborsGreaterThan(value, false));
+                    break;
+
+                case GREATEREQUAL:
+                    evalSet.addAll(
+                            vertex.getNeighborsGreaterThan(value, true));
+                    break;
+
+                default:
+                    break;
+            }
+
+            if (resultSet == null) {
+                resultSet = evalSet;
+            } else {
+                resultSet.retainAll(evalSet);
+            }
+        }
+
+        return resultSet;
+    }
+
+    /**
+     * Removes the NULL "wildcard" vertex, which sorts first, from the results
+     * of a 'less than' comparison.
+     */
+    private static <T> List<Vertex<Feature, T>> removeWildcard(
+            List<Vertex<Feature, T>> neighbors) {
+        if (neighbors.size() > 0
+                && neighbors.get(0).getLabel().getType() == FeatureType.NULL) {
+            return neighbors.subList(1, neighbors.size());
+        }
+        return neighbors;
+    }
+
+    @Override
+    public String toString() {
+        return "";
+    }
+}
@@ -0,0 +1,144 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.graph;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import galileo.dataset.feature.Feature;
+import galileo.graph.FeaturePath;
+import galileo.graph.HierarchicalGraph;
+import galileo.graph.Path;
+import galileo.graph.PathVisitor;
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.query.Query;
+import galileo.util.PerformanceTimer;
+
+/**
+ * Compares query latency and allocation of {@link HierarchicalGraph}'s query
+ * traversal (with and without fork-join parallelism) and the level-by-level
+ * {@link HierarchicalQueryTracker}, using QueryTest-style conjunctions of
+ * expressions over a synthetic graph.  Allocation is measured on the calling
+ * thread only, so the parallel figures exclude fork-join workers.
+ */
+public class QueryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: QueryBenchmark paths iterations");
+            System.exit(1);
+        }
+
+        int numPaths = Integer.parseInt(args[0]);
+        int iterations = Integer.parseInt(args[1]);
+
+        HierarchicalGraph<String> graph = new HierarchicalGraph<>();
+        for (int i = 0; i < numPaths; ++i) {
+            graph.addPath(new FeaturePath<String>("block" + i,
+                        new Feature("total_precipitation", (float) (i % 20)),
+                        new Feature("precipitable_water", (float) (i % 97)),
+                        new Feature("temperature_surface",
+                            250.0f + (i % 503) / 10.0f)));
+        }
+
+        Query[] queries = {
+            new Query(new Operation(
+                    new Expression("==",
+                        new Feature("total_precipitation", 0.0f)),
+                    new Expression("==",
+                        new Feature("precipitable_water", 0.0f)),
+                    new Expression("==",
+                        new Feature("temperature_surface", 250.0f)))),
+            new Query(new Operation(
+                    new Expression("<",
+                        new Feature("total_precipitation", 5.0f)),
+                    new Expression(">=",
+                        new Feature("temperature_surface", 290.0f)))),
+            new Query(new Operation(
+                    new Expression("!=",
+                        new Feature("total_precipitation", 0.0f)),
+                    new Expression("<",
+                        new Feature("precipitable_water", 10.0f)))),
+            new Query(new Operation(
+                    new Expression(">",
+                        new Feature("temperature_surface", 298.0f)))),
+        };
+
+        for (int q = 0; q < queries.length; ++q) {
+            System.out.println("Query " + q + ": " + queries[q] + " -> "
+                    + graph.evaluateQuery(queries[q]).size() + " paths");
+
+            /* Warm up each implementation before measuring */
+            for (int round = 0; round < 2; ++round) {
+                run(graph, queries[q], iterations, "traversal");
+                run(graph, queries[q], iterations, "sequential");
+                run(graph, queries[q], iterations, "tracker");
+            }
+        }
+    }
+
+    private static void run(HierarchicalGraph<String> graph, Query query,
+            int iterations, String name) {
+        com.sun.management.ThreadMXBean threads
+            = (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        PerformanceTimer pt = new PerformanceTimer(name);
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long results = 0;
+        pt.start();
+        for (int i = 0; i < iterations; ++i) {
+            if (name.equals("tracker")) {
+                for (Operation operation : query.getOperations()) {
+                    results += HierarchicalQueryTracker.evaluateOperation(
+                            graph, operation).size();
+                }
+            } else if (name.equals("sequential")) {
+                /* Streaming evaluation always walks the graph on this thread */
+                final List<Path<Feature, String>> paths = new ArrayList<>();
+                graph.evaluateQuery(query, new PathVisitor<String>() {
+                    public boolean visit(Path<Feature, String> path) {
+                        paths.add(path);
+                        return true;
+                    }
+                });
+                results += paths.size();
+            } else {
+                List<Path<Feature, String>> paths = graph.evaluateQuery(query);
+                results += paths.size();
+            }
+        }
+        pt.stop();
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        System.out.println(String.format("  %-10s %10.3f ms/query %12d "
+                    + "bytes/query (%d results)", name,
+                    pt.getLastResult() / iterations, allocated / iterations, results));
+    }
+}
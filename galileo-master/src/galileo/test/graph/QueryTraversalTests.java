@@ -0,0 +1,236 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import galileo.dataset.feature.Feature;
+import galileo.dataset.feature.FeatureType;
+import galileo.graph.FeaturePath;
+import galileo.graph.HierarchicalGraph;
+import galileo.graph.MetadataGraph;
+import galileo.graph.Path;
+import galileo.graph.PathVisitor;
+import galileo.graph.Vertex;
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.query.Query;
+
+/**
+ * Checks query evaluation against the level-by-level
+ * {@link HierarchicalQueryTracker} it replaced.
+ */
+public class QueryTraversalTests {
+
+    private static final String[] OPERATORS
+        = { "==", "!=", "<", "<=", ">", ">=" };
+
+    @Test
+    public void testMatchesTracker() throws Exception {
+        Random random = new Random(1);
+        HierarchicalGraph<String> graph = new HierarchicalGraph<>();
+        for (int i = 0; i < 2000; ++i) {
+            List<Feature> features = new ArrayList<>();
+            features.add(new Feature("a", random.nextInt(10)));
+            /* Leave some features out so the graph contains wildcards */
+            if (random.nextInt(4) > 0) {
+                features.add(new Feature("b", random.nextInt(10)));
+            }
+            if (random.nextInt(4) > 0) {
+                features.add(new Feature("c", (float) random.nextInt(10)));
+            }
+            graph.addPath(new FeaturePath<String>("p" + i,
+                        features.toArray(new Feature[features.size()])));
+        }
+
+        for (int q = 0; q < 500; ++q) {
+            Operation operation = new Operation();
+            int numExpressions = 1 + random.nextInt(3);
+            for (int e = 0; e < numExpressions; ++e) {
+                String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+                Feature value;
+                switch (random.nextInt(3)) {
+                    case 0: value = new Feature("a", random.nextInt(10));
+                            break;
+                    case 1: value = new Feature("b", random.nextInt(10));
+                            break;
+                    default: value = new Feature("c",
+                                     (float) random.nextInt(10));
+                }
+                operation.addExpressions(new Expression(operator, value));
+            }
+
+            Query query = new Query(operation);
+            assertEquals(query.toString(), describe(track(graph, operation)),
+                    describe(graph.evaluateQuery(query)));
+        }
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        MetadataGraph graph = new MetadataGraph();
+        for (int i = 0; i < 100; ++i) {
+            graph.addPath(new FeaturePath<String>("p" + i,
+                        new Feature("a", i % 10),
+                        new Feature("b", i)));
+        }
+
+        final List<Path<Feature, String>> visited = new ArrayList<>();
+        PathVisitor<String> collector = new PathVisitor<String>() {
+            public boolean visit(Path<Feature, String> path) {
+                visited.add(path);
+                return true;
+            }
+        };
+
+        Query query = new Query(new Operation(
+                    new Expression("<", new Feature("a", 5))));
+        assertEquals(50, graph.evaluateQuery(query).size());
+        assertEquals(20, graph.evaluateQuery(query, 20, collector));
+        assertEquals(20, visited.size());
+
+        /* The visitor can also end the query on its own */
+        visited.clear();
+        graph.evaluateQuery(query, new PathVisitor<String>() {
+            public boolean visit(Path<Feature, String> path) {
+                visited.add(path);
+                return visited.size() < 3;
+            }
+        });
+        assertEquals(3, visited.size());
+
+        visited.clear();
+        graph.visitAllPaths(collector);
+        assertEquals(describe(graph.getAllPaths()), describe(visited));
+    }
+
+    @Test
+    public void testParallelOrder() throws Exception {
+        /* Wide enough at each level to be split among fork-join tasks */
+        HierarchicalGraph<String> graph = new HierarchicalGraph<>();
+        graph.setParallelFanout(16);
+        for (int i = 0; i < 20000; ++i) {
+            graph.addPath(new FeaturePath<String>("p" + i,
+                        new Feature("a", i % 1000),
+                        new Feature("b", i % 997)));
+        }
+
+        Query[] queries = {
+            new Query(new Operation(
+                        new Expression(">=", new Feature("a", 10)))),
+            new Query(new Operation(
+                        new Expression("!=", new Feature("a", 500)),
+                        new Expression("<", new Feature("b", 700)))),
+        };
+        for (Query query : queries) {
+            final List<Path<Feature, String>> sequential = new ArrayList<>();
+            graph.evaluateQuery(query, new PathVisitor<String>() {
+                public boolean visit(Path<Feature, String> path) {
+                    sequential.add(path);
+                    return true;
+                }
+            });
+
+            List<Path<Feature, String>> parallel = graph.evaluateQuery(query);
+            assertEquals(sequential.size(), parallel.size());
+            for (int i = 0; i < parallel.size(); ++i) {
+                assertEquals(sequential.get(i).toString(),
+                        parallel.get(i).toString());
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentInsertion() throws Exception {
+        final MetadataGraph graph = new MetadataGraph();
+        final int numPaths = 20000;
+        final Throwable[] failure = new Throwable[1];
+
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < numPaths; ++i) {
+                        graph.addPath(new FeaturePath<String>("p" + i,
+                                    new Feature("a", i % 50),
+                                    new Feature("b", i)));
+                    }
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+        writer.start();
+
+        /* Queries run alongside the writer, and never see paths disappear */
+        Query query = new Query(new Operation(
+                    new Expression(">=", new Feature("a", 0))));
+        int previous = 0;
+        while (writer.isAlive()) {
+            int count = graph.evaluateQuery(query).size();
+            assertTrue(count >= previous);
+            previous = count;
+        }
+        writer.join();
+
+        assertEquals(null, failure[0]);
+        assertEquals(numPaths, graph.evaluateQuery(query).size());
+    }
+
+    private List<Path<Feature, String>> track(
+            HierarchicalGraph<String> graph, Operation operation) {
+        return HierarchicalQueryTracker.evaluateOperation(graph, operation);
+    }
+
+    /**
+     * Produces a canonical, order-independent description of query results,
+     * excluding wildcards.
+     */
+    private List<String> describe(List<Path<Feature, String>> paths) {
+        List<String> descriptions = new ArrayList<>();
+        for (Path<Feature, String> path : paths) {
+            String str = "";
+            for (Vertex<Feature, String> vertex : path) {
+                Feature label = vertex.getLabel();
+                if (label != null && label.getType() != FeatureType.NULL) {
+                    str += label + " ";
+                }
+            }
+            List<String> payload = new ArrayList<>(path.getPayload());
+            Collections.sort(payload);
+            descriptions.add(str + payload);
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+}
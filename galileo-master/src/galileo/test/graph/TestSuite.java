@@ -33,5 +33,8 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({
     FeaturePathQuery.class,
     VariableTickHashing.class,
+    VertexTests.class,
+    QueryTraversalTests.class,
+    GTreeTests.class,
 })
 public class TestSuite { }
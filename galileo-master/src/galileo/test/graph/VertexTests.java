@@ -0,0 +1,166 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import galileo.dataset.feature.Feature;
+import galileo.graph.FeaturePath;
+import galileo.graph.HierarchicalGraph;
+import galileo.graph.MetadataGraph;
+import galileo.graph.Path;
+import galileo.graph.Vertex;
+import galileo.query.Expression;
+import galileo.query.Operation;
+import galileo.query.Query;
+
+public class VertexTests {
+
+    @Test
+    public void testSortedNeighbors() {
+        Vertex<Integer, String> root = new Vertex<>(0);
+        int[] labels = { 5, 1, 9, 3, 7, 3 };
+        for (int label : labels) {
+            root.connect(new Vertex<Integer, String>(label, "v" + label));
+        }
+
+        assertEquals(5, root.getAllNeighbors().size());
+        assertTrue(root.connectedTo(7));
+        assertEquals(false, root.connectedTo(4));
+
+        List<Integer> order = new ArrayList<>();
+        for (Vertex<Integer, String> v : root.getAllNeighbors()) {
+            order.add(v.getLabel());
+        }
+        assertEquals("[1, 3, 5, 7, 9]", order.toString());
+
+        assertEquals(2, root.getNeighborsLessThan(5, false).size());
+        assertEquals(3, root.getNeighborsLessThan(5, true).size());
+        assertEquals(2, root.getNeighborsLessThan(4, true).size());
+        assertEquals(2, root.getNeighborsGreaterThan(5, false).size());
+        assertEquals(3, root.getNeighborsGreaterThan(5, true).size());
+        assertEquals(0, root.getNeighborsGreaterThan(9, false).size());
+        assertEquals(5, root.getNeighborsGreaterThan(0, false).size());
+    }
+
+    @Test
+    public void testWideVertex() {
+        /* Enough neighbors for several merges of pending insertions */
+        Vertex<Integer, String> root = new Vertex<>(0);
+        List<Integer> labels = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            labels.add(i * 2);
+        }
+        Collections.shuffle(labels, new Random(1));
+        for (int label : labels) {
+            root.connect(new Vertex<Integer, String>(label, "v" + label));
+        }
+        root.connect(new Vertex<Integer, String>(10, "dup"));
+
+        assertEquals(5000, root.getAllNeighbors().size());
+        int expected = 0;
+        for (Vertex<Integer, String> v : root.getAllNeighbors()) {
+            assertEquals(expected, (int) v.getLabel());
+            expected += 2;
+        }
+        assertEquals(2, root.getNeighbor(10).getValues().size());
+        assertTrue(root.connectedTo(9998));
+        assertEquals(false, root.connectedTo(9999));
+        assertEquals(1500, root.getNeighborsLessThan(3000, false).size());
+        assertEquals(1499, root.getNeighborsGreaterThan(7000, false).size());
+    }
+
+    @Test
+    public void testValueSetUpgrade() {
+        Vertex<Integer, String> vertex = new Vertex<>(0);
+        assertEquals(0, vertex.getValues().size());
+
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 20; ++i) {
+            vertex.addValue("value" + i);
+            vertex.addValue("value" + i);
+            expected.add("value" + i);
+            assertEquals(expected, vertex.getValues());
+        }
+        vertex.clearValues();
+        assertEquals(0, vertex.getValues().size());
+    }
+
+    @Test
+    public void testWildcardsRemainAfterQuery() throws Exception {
+        MetadataGraph graph = new MetadataGraph();
+        graph.addPath(new FeaturePath<String>("a",
+                    new Feature("humidity", 10.0f),
+                    new Feature("temperature", 1.0f)));
+        /* No humidity: stored under a wildcard vertex */
+        graph.addPath(new FeaturePath<String>("b",
+                    new Feature("temperature", 2.0f)));
+
+        Query less = new Query(new Operation(
+                    new Expression("<", new Feature("humidity", 50.0f))));
+        for (int i = 0; i < 2; ++i) {
+            List<Path<Feature, String>> results = graph.evaluateQuery(less);
+            assertEquals(1, results.size());
+        }
+
+        Query all = new Query(new Operation(
+                    new Expression(">", new Feature("temperature", 0.0f))));
+        assertEquals(2, graph.evaluateQuery(all).size());
+    }
+
+    @Test
+    public void testInternedLabels() throws Exception {
+        HierarchicalGraph<String> graph = new HierarchicalGraph<>();
+        graph.addPath(new FeaturePath<String>("a",
+                    new Feature("plotID", 1),
+                    new Feature("sensorType", "irt")));
+        graph.addPath(new FeaturePath<String>("b",
+                    new Feature("plotID", 2),
+                    new Feature("sensorType", "irt")));
+
+        Vertex<Feature, String> root = graph.getRoot();
+        Feature a = root.getNeighbor(new Feature("plotID", 1))
+            .getNeighbor(new Feature("sensorType", "irt")).getLabel();
+        Feature b = root.getNeighbor(new Feature("plotID", 2))
+            .getNeighbor(new Feature("sensorType", "irt")).getLabel();
+        assertSame(a, b);
+
+        Query irt = new Query(new Operation(
+                    new Expression("==", new Feature("sensorType", "irt"))));
+        assertEquals(2, graph.evaluateQuery(irt).size());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import galileo.dataset.Coordinates;
+import galileo.util.GeoHash;
+
+/**
+ * Compares the breadth-first flood that GeoHash previously used to find the
+ * cells intersecting a polygon against the hierarchical cover, on
+ * state-sized polygons.  The flood is skipped at precisions above the given
+ * limit, since its cost grows with the square of the number of cells.
+ */
+public class GeoCoverBenchmark {
+
+    private static long time(Runnable r, int iterations) {
+        r.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            r.run();
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    public static void main(String[] args) {
+        int maxFloodPrecision = 5;
+        if (args.length > 0) {
+            maxFloodPrecision = Integer.parseInt(args[0]);
+        }
+
+        List<Coordinates> colorado = Arrays.asList(
+                new Coordinates(41.0f, -109.05f),
+                new Coordinates(41.0f, -102.05f),
+                new Coordinates(37.0f, -102.05f),
+                new Coordinates(37.0f, -109.05f));
+        List<Coordinates> irregular = GeoHashTests.randomPolygon(
+                new Random(0), 31.0f, -99.0f, 10.0f, 40);
+
+        String[] names = { "colorado", "irregular" };
+        List<List<Coordinates>> polygons = Arrays.asList(colorado, irregular);
+        for (int p = 0; p < polygons.size(); ++p) {
+            final List<Coordinates> polygon = polygons.get(p);
+            for (int precision = 4; precision <= 6; ++precision) {
+                final int prec = precision;
+                final int[] sizes = new int[3];
+                int iterations = precision < 6 ? 20 : 3;
+
+                long cover = time(new Runnable() {
+                    public void run() {
+                        sizes[0] = GeoHash.getIntersectingGeohashes(polygon,
+                                prec).length;
+                    }
+                }, iterations);
+                long compact = time(new Runnable() {
+                    public void run() {
+                        sizes[1] = GeoHash.getGeohashCover(polygon,
+                                prec).length;
+                    }
+                }, iterations);
+                String flood = "skipped";
+                if (precision <= maxFloodPrecision) {
+                    flood = (time(new Runnable() {
+                        public void run() {
+                            sizes[2] = GeoHashTests
+                                .referenceIntersectingGeohashes(polygon,
+                                        prec).length;
+                        }
+                    }, 1) / 1000000) + " ms";
+                }
+
+                System.out.println(names[p] + " precision " + precision
+                        + ": flood " + flood + " (" + sizes[2] + " cells)"
+                        + ", cover " + (cover / 1000000) + " ms"
+                        + " (" + sizes[0] + " cells)"
+                        + ", compact cover " + (compact / 1000000) + " ms"
+                        + " (" + sizes[1] + " cells)");
+            }
+        }
+    }
+}
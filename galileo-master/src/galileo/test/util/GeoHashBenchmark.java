@@ -0,0 +1,148 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import galileo.dataset.SpatialRange;
+import galileo.util.GeoHash;
+
+/**
+ * Measures the time and memory allocated per GeoHash encode, decode, and
+ * neighbour computation, through both the String and the long APIs.
+ */
+public class GeoHashBenchmark {
+
+    private abstract static class Benchmark {
+        public String name;
+
+        public Benchmark(String name) {
+            this.name = name;
+        }
+
+        /** Runs one operation; the result keeps it from being optimized away */
+        public abstract long run(int i);
+    }
+
+    private static final int POINTS = 4096;
+    private static float[] latitudes = new float[POINTS];
+    private static float[] longitudes = new float[POINTS];
+    private static String[] strings = new String[POINTS];
+    private static long[] hashes = new long[POINTS];
+
+    public static void main(String[] args) {
+        int iterations = 2000000;
+        final int precision = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        if (args.length > 0) {
+            iterations = Integer.parseInt(args[0]);
+        }
+
+        Random random = new Random(0);
+        for (int i = 0; i < POINTS; ++i) {
+            latitudes[i] = random.nextFloat() * 180f - 90f;
+            longitudes[i] = random.nextFloat() * 360f - 180f;
+            strings[i] = GeoHash.encode(latitudes[i], longitudes[i], precision);
+            hashes[i] = GeoHash.encodeLong(latitudes[i], longitudes[i],
+                    precision);
+        }
+
+        final float[] bounds = new float[4];
+        final long[] neighbours = new long[8];
+        Benchmark[] benchmarks = {
+            new Benchmark("encode-string") {
+                public long run(int i) {
+                    return GeoHash.encode(latitudes[i], longitudes[i],
+                            precision).length();
+                }
+            },
+            new Benchmark("encode-long") {
+                public long run(int i) {
+                    return GeoHash.encodeLong(latitudes[i], longitudes[i],
+                            precision);
+                }
+            },
+            new Benchmark("decode-string") {
+                public long run(int i) {
+                    SpatialRange range = GeoHash.decodeHash(strings[i]);
+                    return (long) (range.getLowerBoundForLatitude()
+                            + range.getUpperBoundForLatitude()
+                            + range.getLowerBoundForLongitude()
+                            + range.getUpperBoundForLongitude());
+                }
+            },
+            new Benchmark("decode-long") {
+                public long run(int i) {
+                    GeoHash.decodeLong(hashes[i], precision, bounds);
+                    return (long) (bounds[0] + bounds[1] + bounds[2]
+                            + bounds[3]);
+                }
+            },
+            new Benchmark("neighbours-string") {
+                public long run(int i) {
+                    return GeoHash.getNeighbours(strings[i])[7].length();
+                }
+            },
+            new Benchmark("neighbours-long") {
+                public long run(int i) {
+                    GeoHash.getNeighbours(hashes[i], precision, neighbours);
+                    return neighbours[7];
+                }
+            },
+        };
+
+        /* The first pass warms up the JIT and is not reported */
+        for (int pass = 0; pass < 2; ++pass) {
+            for (Benchmark benchmark : benchmarks) {
+                measure(benchmark, iterations, pass > 0);
+            }
+        }
+    }
+
+    private static void measure(Benchmark benchmark, int iterations,
+            boolean print) {
+        com.sun.management.ThreadMXBean threads
+            = (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long check = 0;
+        for (int i = 0; i < iterations; ++i) {
+            check += benchmark.run(i & (POINTS - 1));
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        if (print) {
+            System.out.println(String.format(
+                        "%-18s %8.1f ns/op %8.1f bytes/op (%d)",
+                        benchmark.name, (double) elapsed / iterations,
+                        (double) allocated / iterations, check));
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+Copyright (c) 2013, Colorado State University
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+This software is provided by the copyright holders and contributors "as is" and
+any express or implied warranties, including, but not limited to, the implied
+warranties of merchantability and fitness for a particular purpose are
+disclaimed. In no event shall the copyright holder or contributors be liable for
+any direct, indirect, incidental, special, exemplary, or consequential damages
+(including, but not limited to, procurement of substitute goods or services;
+loss of use, data, or profits; or business interruption) however caused and on
+any theory of liability, whether in contract, strict liability, or tort
+(including negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+*/
+
+package galileo.test.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import galileo.dataset.Coordinates;
+import galileo.dataset.Point;
+import galileo.dataset.SpatialRange;
+import galileo.util.GeoHash;
+import galileo.util.Pair;
+
+public class GeoHashTests {
+
+    /**
+     * Finds the neighbours of a GeoHash by encoding points in the
+     * neighbouring cells, as GeoHash did before neighbours were computed on
+     * the bits of the hash.
+     */
+    private String[] referenceNeighbours(String geoHash) {
+        int precision = geoHash.length();
+        SpatialRange box = GeoHash.decodeHash(geoHash);
+        Coordinates centroid = box.getCenterPoint();
+        float width = box.getUpperBoundForLongitude() - centroid.getLongitude();
+        float height = box.getUpperBoundForLatitude() - centroid.getLatitude();
+        float north = box.getUpperBoundForLatitude() + height;
+        float south = box.getLowerBoundForLatitude() - height;
+        float west = box.getLowerBoundForLongitude() - width;
+        float east = box.getUpperBoundForLongitude() + width;
+        return new String[] {
+            GeoHash.encode(north, west, precision),
+            GeoHash.encode(north, centroid.getLongitude(), precision),
+            GeoHash.encode(north, east, precision),
+            GeoHash.encode(centroid.getLatitude(), west, precision),
+            GeoHash.encode(centroid.getLatitude(), east, precision),
+            GeoHash.encode(south, west, precision),
+            GeoHash.encode(south, centroid.getLongitude(), precision),
+            GeoHash.encode(south, east, precision),
+        };
+    }
+
+    /**
+     * Finds the GeoHashes intersecting a polygon with a breadth-first flood
+     * from its centroid, as GeoHash did before the cover was computed
+     * hierarchically.
+     */
+    static String[] referenceIntersectingGeohashes(List<Coordinates> polygon,
+            int precision) {
+        Set<String> hashes = new HashSet<String>();
+        Polygon geometry = new Polygon();
+        for (Coordinates coords : polygon) {
+            Point<Integer> point = GeoHash.coordinatesToXY(coords);
+            geometry.addPoint(point.X(), point.Y());
+        }
+        Coordinates spatialCenter = new SpatialRange(polygon).getCenterPoint();
+        Rectangle2D box = geometry.getBounds2D();
+        String geohash = GeoHash.encode(spatialCenter, precision);
+        Queue<String> hashQue = new LinkedList<String>();
+        Set<String> computedHashes = new HashSet<String>();
+        hashQue.offer(geohash);
+        while (!hashQue.isEmpty()) {
+            String hash = hashQue.poll();
+            computedHashes.add(hash);
+            SpatialRange hashRange = GeoHash.decodeHash(hash);
+            Pair<Coordinates, Coordinates> coordsPair
+                = hashRange.get2DCoordinates();
+            Point<Integer> upLeft = GeoHash.coordinatesToXY(coordsPair.a);
+            Point<Integer> lowRight = GeoHash.coordinatesToXY(coordsPair.b);
+            Rectangle2D hashRect = new Rectangle(upLeft.X(), upLeft.Y(),
+                    lowRight.X() - upLeft.X(), lowRight.Y() - upLeft.Y());
+            if (hash.equals(geohash) && hashRect.contains(box)) {
+                hashes.add(hash);
+                break;
+            }
+            if (geometry.intersects(hashRect)) {
+                hashes.add(hash);
+                for (String neighbour : GeoHash.getNeighbours(hash)) {
+                    if (!computedHashes.contains(neighbour)
+                            && !hashQue.contains(neighbour)) {
+                        hashQue.offer(neighbour);
+                    }
+                }
+            }
+        }
+        return hashes.toArray(new String[hashes.size()]);
+    }
+
+    /**
+     * Creates an irregular, star-shaped polygon with the given number of
+     * vertices around a center point.
+     */
+    static List<Coordinates> randomPolygon(Random random, float latitude,
+            float longitude, float radius, int vertices) {
+        List<Coordinates> polygon = new ArrayList<>();
+        for (int i = 0; i < vertices; ++i) {
+            double angle = 2 * Math.PI * i / vertices;
+            float r = radius * (0.3f + 0.7f * random.nextFloat());
+            polygon.add(new Coordinates(
+                    latitude + (float) (r * Math.sin(angle)) / 2,
+                    longitude + (float) (r * Math.cos(angle))));
+        }
+        return polygon;
+    }
+
+    private static Set<String> asSet(String[] hashes) {
+        return new HashSet<>(Arrays.asList(hashes));
+    }
+
+    @Test
+    public void testKnownHashes() {
+        assertEquals("9xjq", GeoHash.encode(40.5f, -105.1f, 4));
+        assertEquals("9xjq2k", GeoHash.encode(40.5f, -105.1f, 6));
+        assertEquals("s000", GeoHash.encode(0.01f, 0.01f, 4));
+        assertEquals(GeoHash.hashToLong("9xjq"), GeoHash.toLong("9xjq"));
+        assertEquals("9xjq", GeoHash.toString(GeoHash.toLong("9XJQ"), 4));
+
+        SpatialRange range = GeoHash.decodeHash("9xjq");
+        assertEquals(40.429688f, range.getLowerBoundForLatitude(), 0.00001f);
+        assertEquals(40.605469f, range.getUpperBoundForLatitude(), 0.00001f);
+        assertEquals(-105.11719f, range.getLowerBoundForLongitude(), 0.00001f);
+        assertEquals(-104.765625f, range.getUpperBoundForLongitude(), 0.00001f);
+
+        assertArrayEquals(new String[] {
+            "9xjp", "9xjr", "9xjx", "9xjn", "9xjw", "9xjj", "9xjm", "9xjt" },
+            GeoHash.getNeighbours("9xjq"));
+    }
+
+    @Test
+    public void testRandomHashes() {
+        Random random = new Random(8);
+        float[] bounds = new float[4];
+        for (int i = 0; i < 20000; ++i) {
+            float latitude = random.nextFloat() * 180f - 90f;
+            float longitude = random.nextFloat() * 360f - 180f;
+            int precision = random.nextInt(GeoHash.MAX_LONG_PRECISION) + 1;
+
+            String geoHash = GeoHash.encode(latitude, longitude, precision);
+            long hash = GeoHash.encodeLong(latitude, longitude, precision);
+            assertEquals(geoHash, GeoHash.toString(hash, precision));
+            assertEquals(hash, GeoHash.toLong(geoHash));
+
+            GeoHash.decodeLong(hash, precision, bounds);
+            SpatialRange range = GeoHash.decodeHash(geoHash);
+            assertEquals(range.getLowerBoundForLatitude(), bounds[0], 0f);
+            assertEquals(range.getUpperBoundForLatitude(), bounds[1], 0f);
+            assertEquals(range.getLowerBoundForLongitude(), bounds[2], 0f);
+            assertEquals(range.getUpperBoundForLongitude(), bounds[3], 0f);
+
+            if (precision <= 8) {
+                assertArrayEquals(geoHash, referenceNeighbours(geoHash),
+                        GeoHash.getNeighbours(geoHash));
+            }
+        }
+    }
+
+    @Test
+    public void testWrapping() {
+        /* Longitudes wrap at the antimeridian, latitudes at the poles */
+        String[] neighbours = GeoHash.getNeighbours("b");
+        assertArrayEquals(referenceNeighbours("b"), neighbours);
+        assertEquals("z", GeoHash.getNeighbour("b", "w"));
+        assertEquals("3", GeoHash.getNeighbour("2", "e"));
+        assertEquals("0", GeoHash.getNeighbour("b", "n"));
+        assertEquals("b", GeoHash.getNeighbour("0", "s"));
+    }
+
+    @Test
+    public void testPolygonCover() {
+        /* Roughly the state of Colorado */
+        List<Coordinates> colorado = Arrays.asList(
+                new Coordinates(41.0f, -109.05f),
+                new Coordinates(41.0f, -102.05f),
+                new Coordinates(37.0f, -102.05f),
+                new Coordinates(37.0f, -109.05f));
+        assertEquals(asSet(new String[] { "9w", "9x" }),
+                asSet(GeoHash.getIntersectingGeohashes(colorado, 2)));
+
+        Random random = new Random(25);
+        List<List<Coordinates>> polygons = new ArrayList<>();
+        polygons.add(colorado);
+        for (int i = 0; i < 40; ++i) {
+            polygons.add(randomPolygon(random,
+                    random.nextFloat() * 120f - 60f,
+                    random.nextFloat() * 300f - 150f,
+                    random.nextFloat() * 10f + 0.01f,
+                    random.nextInt(20) + 3));
+        }
+
+        for (List<Coordinates> polygon : polygons) {
+            for (int precision = 1; precision <= 4; ++precision) {
+                Set<String> expected = asSet(
+                        referenceIntersectingGeohashes(polygon, precision));
+                String[] hashes
+                    = GeoHash.getIntersectingGeohashes(polygon, precision);
+                assertEquals(expected.size(), hashes.length);
+                assertEquals(expected, asSet(hashes));
+
+                /* Expanding the compact cover yields the same cells */
+                Set<String> expanded = new HashSet<>();
+                for (String cell : GeoHash.getGeohashCover(polygon, precision)) {
+                    assertTrue(cell.length() <= precision);
+                    expand(cell, precision, expanded);
+                }
+                assertEquals(expected, expanded);
+            }
+        }
+    }
+
+    private static void expand(String hash, int precision, Set<String> out) {
+        if (hash.length() == precision) {
+            assertTrue(hash, out.add(hash));
+            return;
+        }
+        long prefix = GeoHash.toLong(hash);
+        for (long child = 0; child < 32; ++child) {
+            expand(GeoHash.toString(prefix << 5 | child, hash.length() + 1),
+                    precision, out);
+        }
+    }
+}
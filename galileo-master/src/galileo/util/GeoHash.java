@@ -46,6 +46,12 @@ import galileo.dataset.SpatialRange;
  * algorithm.
  *
  * See http://en.wikipedia.org/wiki/Geohash for implementation details.
+ * <p>
+ * GeoHashes of up to {@link #MAX_LONG_PRECISION} characters can also be
+ * handled as longs holding their interleaved bits (5 per character, with the
+ * last bit of the hash in the least significant position), along with their
+ * precision.  The long-based methods do not allocate; the String-based
+ * methods convert to and from the long form.
  */
 public class GeoHash {
 
@@ -54,6 +60,11 @@ public class GeoHash {
 	public final static int LONGITUDE_RANGE = 180;
 	public final static int MAX_PRECISION = 24;
 
+	/**
+	 * Maximum number of GeoHash characters that can be stored in a long.
+	 */
+	public final static int MAX_LONG_PRECISION = 12;
+
 	/**
 	 * This character array maps integer values (array indices) to their GeoHash
 	 * base32 alphabet equivalents.
@@ -75,6 +86,27 @@ public class GeoHash {
 		}
 	}
 
+	/**
+	 * Maps GeoHash characters (in either case) to their integer values, or to
+	 * -1 for characters outside of the base32 alphabet.
+	 */
+	private final static int[] charValues = new int[128];
+
+	static {
+		Arrays.fill(charValues, -1);
+		for (int i = 0; i < charMap.length; ++i) {
+			charValues[charMap[i]] = i;
+			charValues[Character.toUpperCase(charMap[i])] = i;
+		}
+	}
+
+	/**
+	 * Latitude and longitude offsets of the neighbours returned by
+	 * {@link #getNeighbours(String)}: nw, n, ne, w, e, sw, s, se.
+	 */
+	private final static int[] NEIGHBOUR_LATITUDE = { 1, 1, 1, 0, 0, -1, -1, -1 };
+	private final static int[] NEIGHBOUR_LONGITUDE = { -1, 0, 1, -1, 1, -1, 0, 1 };
+
 	/**
 	 * Encode a set of {@link Coordinates} into a GeoHash string.
 	 *
@@ -124,6 +156,9 @@ public class GeoHash {
 	 * @return resulting GeoHash String.
 	 */
 	public static String encode(float latitude, float longitude, int precision) {
+		if (precision > 0 && precision <= MAX_LONG_PRECISION)
+			return toString(encodeLong(latitude, longitude, precision), precision);
+
 		while (latitude < -90f || latitude > 90f)
 			latitude = latitude < -90f ? 180.0f + latitude : latitude > 90f ? -180f + latitude : latitude;
 		while (longitude < -180f || longitude > 180f)
@@ -169,6 +204,194 @@ public class GeoHash {
 		return hash;
 	}
 
+	/**
+	 * Encode latitude and longitude into the long form of a GeoHash.
+	 *
+	 * @param latitude
+	 *            Latitude coordinate, in degrees.
+	 *
+	 * @param longitude
+	 *            Longitude coordinate, in degrees.
+	 *
+	 * @param precision
+	 *            Number of GeoHash characters, up to
+	 *            {@link #MAX_LONG_PRECISION}.
+	 *
+	 * @return GeoHash bits.
+	 */
+	public static long encodeLong(float latitude, float longitude, int precision) {
+		checkLongPrecision(precision);
+		while (latitude < -90f || latitude > 90f)
+			latitude = latitude < -90f ? 180.0f + latitude : latitude > 90f ? -180f + latitude : latitude;
+		while (longitude < -180f || longitude > 180f)
+			longitude = longitude < -180f ? 360.0f + longitude : longitude > 180f ? -360f + longitude : longitude;
+
+		/* Longitude and latitude are bisected separately, and their bits are
+		 * interleaved afterwards */
+		int bits = precision * BITS_PER_CHAR;
+		long lon = bisect(longitude, -LONGITUDE_RANGE, LONGITUDE_RANGE, (bits + 1) / 2);
+		long lat = bisect(latitude, -LATITUDE_RANGE, LATITUDE_RANGE, bits / 2);
+		return interleave(lon, lat, bits);
+	}
+
+	/**
+	 * Repeatedly halves the range [low, high], recording a 1 bit each time
+	 * the value lies in the upper half.
+	 */
+	private static long bisect(float value, float low, float high, int bits) {
+		long result = 0;
+		for (int b = 0; b < bits; ++b) {
+			float middle = (high + low) / 2;
+			boolean upper = value > middle;
+			result = (result << 1) | (upper ? 1 : 0);
+			low = upper ? middle : low;
+			high = upper ? high : middle;
+		}
+		return result;
+	}
+
+	/**
+	 * Interleaves longitude and latitude bits into a hash with the given
+	 * number of bits; the first (most significant) bit of a hash is a
+	 * longitude bit.
+	 */
+	private static long interleave(long lon, long lat, int bits) {
+		if ((bits & 1) == 0)
+			return (spreadBits(lon) << 1) | spreadBits(lat);
+		return (spreadBits(lat) << 1) | spreadBits(lon);
+	}
+
+	/**
+	 * Converts a GeoHash String of up to {@link #MAX_LONG_PRECISION}
+	 * characters to its long form; the precision of the result is the length
+	 * of the String.
+	 */
+	public static long toLong(String geoHash) {
+		checkLongPrecision(geoHash.length());
+		long hash = 0;
+		for (int i = 0; i < geoHash.length(); ++i) {
+			hash = (hash << BITS_PER_CHAR) | charValue(geoHash.charAt(i));
+		}
+		return hash;
+	}
+
+	/**
+	 * Converts the long form of a GeoHash to a String.
+	 */
+	public static String toString(long hash, int precision) {
+		checkLongPrecision(precision);
+		char[] chars = new char[precision];
+		for (int i = precision - 1; i >= 0; --i) {
+			chars[i] = charMap[(int) (hash & 0x1f)];
+			hash >>>= BITS_PER_CHAR;
+		}
+		return new String(chars);
+	}
+
+	private static int charValue(char c) {
+		int value = c < charValues.length ? charValues[c] : -1;
+		if (value < 0)
+			throw new IllegalArgumentException("Invalid GeoHash character: " + c);
+		return value;
+	}
+
+	private static void checkLongPrecision(int precision) {
+		if (precision < 1 || precision > MAX_LONG_PRECISION)
+			throw new IllegalArgumentException("GeoHash precision must be between 1 and " + MAX_LONG_PRECISION);
+	}
+
+	/**
+	 * Decodes the long form of a GeoHash to the bounding box that contains
+	 * the original GeoHashed point.
+	 *
+	 * @param bounds
+	 *            Array of at least four elements that receives the lower and
+	 *            upper bounds of the latitude, followed by those of the
+	 *            longitude.
+	 */
+	public static void decodeLong(long hash, int precision, float[] bounds) {
+		checkLongPrecision(precision);
+		int bits = precision * BITS_PER_CHAR;
+		boolean even = (bits & 1) == 0;
+		long lon = compactBits(even ? hash >>> 1 : hash);
+		long lat = compactBits(even ? hash : hash >>> 1);
+		unbisect(lat, bits / 2, -LATITUDE_RANGE, LATITUDE_RANGE, bounds, 0);
+		unbisect(lon, (bits + 1) / 2, -LONGITUDE_RANGE, LONGITUDE_RANGE, bounds, 2);
+	}
+
+	/**
+	 * Reverses {@link #bisect}, storing the low and high ends of the range
+	 * selected by the bits at the given position of the bounds array.
+	 */
+	private static void unbisect(long value, int bits, float low, float high, float[] bounds, int position) {
+		for (int b = bits - 1; b >= 0; --b) {
+			float middle = (high + low) / 2;
+			boolean upper = ((value >>> b) & 1) == 1;
+			low = upper ? middle : low;
+			high = upper ? high : middle;
+		}
+		bounds[position] = low;
+		bounds[position + 1] = high;
+	}
+
+	/**
+	 * Retrieves the GeoHash that is the given number of cells north (or
+	 * south, if negative) and east (or west) of a GeoHash, computed directly
+	 * on its bits.  Longitudes wrap around the antimeridian, and latitudes
+	 * wrap from one pole to the other.
+	 */
+	public static long getNeighbour(long hash, int precision, int latitudeOffset, int longitudeOffset) {
+		int bits = precision * BITS_PER_CHAR;
+		long lonMask = (1L << ((bits + 1) / 2)) - 1;
+		long latMask = (1L << (bits / 2)) - 1;
+		/* The first (most significant) bit of a hash is a longitude bit */
+		boolean even = (bits & 1) == 0;
+		long lon = compactBits(even ? hash >>> 1 : hash);
+		long lat = compactBits(even ? hash : hash >>> 1);
+		lon = (lon + longitudeOffset) & lonMask;
+		lat = (lat + latitudeOffset) & latMask;
+		return interleave(lon, lat, bits);
+	}
+
+	/**
+	 * Retrieves the eight neighbours of a GeoHash, in the order nw, n, ne, w,
+	 * e, sw, s, se.
+	 *
+	 * @param neighbours
+	 *            Array of at least eight elements that receives the
+	 *            neighbours.
+	 */
+	public static void getNeighbours(long hash, int precision, long[] neighbours) {
+		for (int i = 0; i < 8; ++i)
+			neighbours[i] = getNeighbour(hash, precision, NEIGHBOUR_LATITUDE[i], NEIGHBOUR_LONGITUDE[i]);
+	}
+
+	/**
+	 * Gathers the even bits of a long into its lower 32 bits.
+	 */
+	private static long compactBits(long x) {
+		x &= 0x5555555555555555L;
+		x = (x | (x >>> 1)) & 0x3333333333333333L;
+		x = (x | (x >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+		x = (x | (x >>> 4)) & 0x00ff00ff00ff00ffL;
+		x = (x | (x >>> 8)) & 0x0000ffff0000ffffL;
+		x = (x | (x >>> 16)) & 0x00000000ffffffffL;
+		return x;
+	}
+
+	/**
+	 * Spreads the lower 32 bits of a long over its even bits.
+	 */
+	private static long spreadBits(long x) {
+		x &= 0x00000000ffffffffL;
+		x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+		x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+		x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+
 	/**
 	 * Convert a GeoHash String to a long integer.
 	 *
@@ -185,9 +408,9 @@ public class GeoHash {
 			hash = hash.substring(0, 12);
 		}
 
-		for (char c : hash.toCharArray()) {
+		for (int i = 0; i < hash.length(); ++i) {
 			longForm <<= BITS_PER_CHAR;
-			longForm |= charLookupTable.get(c);
+			longForm |= charValue(hash.charAt(i));
 		}
 
 		return longForm;
@@ -203,12 +426,17 @@ public class GeoHash {
 	 * @return Spatial Range (bounding box) of the GeoHash.
 	 */
 	public static SpatialRange decodeHash(String geoHash) {
-		ArrayList<Boolean> bits = getBits(geoHash);
+		if (geoHash.length() == 0 || geoHash.length() > MAX_LONG_PRECISION) {
+			ArrayList<Boolean> bits = getBits(geoHash);
 
-		float[] longitude = decodeBits(bits, false);
-		float[] latitude = decodeBits(bits, true);
+			float[] longitude = decodeBits(bits, false);
+			float[] latitude = decodeBits(bits, true);
 
-		return new SpatialRange(latitude[0], latitude[1], longitude[0], longitude[1]);
+			return new SpatialRange(latitude[0], latitude[1], longitude[0], longitude[1]);
+		}
+		float[] bounds = new float[4];
+		decodeLong(toLong(geoHash), geoHash.length(), bounds);
+		return new SpatialRange(bounds[0], bounds[1], bounds[2], bounds[3]);
 	}
 
 	/**
@@ -222,6 +450,66 @@ public class GeoHash {
 		if (geohash == null || geohash.trim().length() == 0)
 			throw new IllegalArgumentException("Invalid Geohash");
 		geohash = geohash.trim();
+		int precision = geohash.length();
+		if (precision > MAX_LONG_PRECISION)
+			return getNeighbourFromBounds(geohash, direction);
+		int neighbour;
+		switch (direction) {
+		case "nw":
+			neighbour = 0;
+			break;
+		case "n":
+			neighbour = 1;
+			break;
+		case "ne":
+			neighbour = 2;
+			break;
+		case "w":
+			neighbour = 3;
+			break;
+		case "e":
+			neighbour = 4;
+			break;
+		case "sw":
+			neighbour = 5;
+			break;
+		case "s":
+			neighbour = 6;
+			break;
+		case "se":
+			neighbour = 7;
+			break;
+		default:
+			return "";
+		}
+		return toString(getNeighbour(toLong(geohash), precision, NEIGHBOUR_LATITUDE[neighbour],
+				NEIGHBOUR_LONGITUDE[neighbour]), precision);
+	}
+
+	public static String[] getNeighbours(String geoHash) {
+		if (geoHash == null || geoHash.trim().length() == 0)
+			throw new IllegalArgumentException("Invalid Geohash");
+		geoHash = geoHash.trim();
+		int precision = geoHash.length();
+		String[] neighbors = new String[8];
+		if (precision > MAX_LONG_PRECISION) {
+			String[] directions = { "nw", "n", "ne", "w", "e", "sw", "s", "se" };
+			for (int i = 0; i < neighbors.length; ++i)
+				neighbors[i] = getNeighbourFromBounds(geoHash, directions[i]);
+			return neighbors;
+		}
+		long hash = toLong(geoHash);
+		for (int i = 0; i < neighbors.length; ++i)
+			neighbors[i] = toString(getNeighbour(hash, precision, NEIGHBOUR_LATITUDE[i], NEIGHBOUR_LONGITUDE[i]),
+					precision);
+		return neighbors;
+	}
+
+	/**
+	 * Finds a neighbour of a GeoHash that is too long to be handled as a
+	 * long by encoding a point within the neighbouring cell.
+	 */
+	private static String getNeighbourFromBounds(String geohash, String direction) {
 		int precision = geohash.length();
 		SpatialRange boundingBox = decodeHash(geohash);
 		Coordinates centroid = boundingBox.getCenterPoint();
@@ -253,45 +541,27 @@ public class GeoHash {
 		}
 	}
 
-	public static String[] getNeighbours(String geoHash) {
-		String[] neighbors = new String[8];
-		if (geoHash == null || geoHash.trim().length() == 0)
-			throw new IllegalArgumentException("Invalid Geohash");
-		geoHash = geoHash.trim();
-		int precision = geoHash.length();
-		SpatialRange boundingBox = decodeHash(geoHash);
-		Coordinates centroid = boundingBox.getCenterPoint();
-		float widthDiff = boundingBox.getUpperBoundForLongitude() - centroid.getLongitude();
-		float heightDiff = boundingBox.getUpperBoundForLatitude() - centroid.getLatitude();
-		neighbors[0] = encode(boundingBox.getUpperBoundForLatitude() + heightDiff,
-				boundingBox.getLowerBoundForLongitude() - widthDiff, precision);
-		neighbors[1] = encode(boundingBox.getUpperBoundForLatitude() + heightDiff, centroid.getLongitude(), precision);
-		neighbors[2] = encode(boundingBox.getUpperBoundForLatitude() + heightDiff,
-				boundingBox.getUpperBoundForLongitude() + widthDiff, precision);
-		neighbors[3] = encode(centroid.getLatitude(), boundingBox.getLowerBoundForLongitude() - widthDiff, precision);
-		neighbors[4] = encode(centroid.getLatitude(), boundingBox.getUpperBoundForLongitude() + widthDiff, precision);
-		neighbors[5] = encode(boundingBox.getLowerBoundForLatitude() - heightDiff,
-				boundingBox.getLowerBoundForLongitude() - widthDiff, precision);
-		neighbors[6] = encode(boundingBox.getLowerBoundForLatitude() - heightDiff, centroid.getLongitude(), precision);
-		neighbors[7] = encode(boundingBox.getLowerBoundForLatitude() - heightDiff,
-				boundingBox.getUpperBoundForLongitude() + widthDiff, precision);
-		return neighbors;
-	}
-
 	/**
 	 * @param coordinates
 	 *            - latitude and longitude values
 	 * @return Point - x, y pair obtained from a geohash precision of 12. x,y values range from [0, 4096)
 	 */
 	public static Point<Integer> coordinatesToXY(Coordinates coords) {
+		return new Point<>(longitudeToX(coords.getLongitude()), latitudeToY(coords.getLatitude()));
+	}
+
+	private static int longitudeToX(float longitude) {
 		int width = 1 << MAX_PRECISION;
 		float xdp = 360f / width;
+		float xDiff = longitude + 180;
+		return (int) (xDiff / xdp);
+	}
+
+	private static int latitudeToY(float latitude) {
+		int width = 1 << MAX_PRECISION;
 		float ydp = 180f / width;
-		float xDiff = coords.getLongitude() + 180;
-		float yDiff = 90 - coords.getLatitude();
-		int x = (int) (xDiff / xdp);
-		int y = (int) (yDiff / ydp);
-		return new Point<>(x, y);
+		float yDiff = 90 - latitude;
+		return (int) (yDiff / ydp);
 	}
 
 	public static Coordinates xyToCoordinates(int x, int y) {
@@ -308,40 +578,104 @@ public class GeoHash {
 	 * @return
 	 */
 	public static String[] getIntersectingGeohashes(List<Coordinates> polygon, int precision) {
-		Set<String> hashes = new HashSet<String>();
+		return getPolygonCover(polygon, precision, false);
+	}
+
+	/**
+	 * Gives a compact set of geohashes covering a polygon: cells that lie
+	 * entirely inside the polygon are returned at the coarsest precision at
+	 * which they are interior, while cells on the polygon boundary are refined
+	 * down to the requested precision.  Every location of the polygon falls
+	 * within exactly one of the returned geohashes.
+	 */
+	public static String[] getGeohashCover(List<Coordinates> polygon, int precision) {
+		return getPolygonCover(polygon, precision, true);
+	}
+
+	private static String[] getPolygonCover(List<Coordinates> polygon, int precision, boolean compact) {
 		Polygon geometry = new Polygon();
 		for (Coordinates coords : polygon) {
 			Point<Integer> point = coordinatesToXY(coords);
 			geometry.addPoint(point.X(), point.Y());
 		}
 		Coordinates spatialCenter = new SpatialRange(polygon).getCenterPoint();
-		Rectangle2D box = geometry.getBounds2D();
 		String geohash = encode(spatialCenter, precision);
+		if (getHashRectangle(decodeHash(geohash)).contains(geometry.getBounds2D()))
+			return new String[] { geohash };
+		if (precision <= 0 || precision > MAX_LONG_PRECISION)
+			return floodIntersectingGeohashes(geometry, geohash);
+
+		List<String> hashes = new ArrayList<String>();
+		float[] bounds = new float[4];
+		for (long prefix = 0; prefix < (1 << BITS_PER_CHAR); ++prefix)
+			coverCell(geometry, prefix, 1, precision, compact, bounds, hashes);
+		return hashes.toArray(new String[hashes.size()]);
+	}
+
+	/**
+	 * Classifies a cell against the polygon geometry.  Cells outside of the
+	 * polygon are pruned, interior cells are emitted without further geometry
+	 * tests and boundary cells are split into their 32 children until the
+	 * requested precision is reached.  Since child cells are nested within
+	 * their parents in the XY space, the result is the same set of cells a
+	 * flood fill at the requested precision would find.
+	 */
+	private static void coverCell(Polygon geometry, long hash, int precision, int targetPrecision,
+			boolean compact, float[] bounds, List<String> hashes) {
+		decodeLong(hash, precision, bounds);
+		int x = longitudeToX(bounds[2]);
+		int y = latitudeToY(bounds[1]);
+		int width = longitudeToX(bounds[3]) - x;
+		int height = latitudeToY(bounds[0]) - y;
+		if (!geometry.intersects(x, y, width, height))
+			return;
+		if (precision == targetPrecision) {
+			hashes.add(toString(hash, precision));
+		} else if (geometry.contains(x, y, width, height)) {
+			if (compact) {
+				hashes.add(toString(hash, precision));
+			} else {
+				int shift = (targetPrecision - precision) * BITS_PER_CHAR;
+				long first = hash << shift;
+				long last = first + (1L << shift);
+				for (long child = first; child < last; ++child)
+					hashes.add(toString(child, targetPrecision));
+			}
+		} else {
+			long first = hash << BITS_PER_CHAR;
+			for (long child = first; child < first + (1 << BITS_PER_CHAR); ++child)
+				coverCell(geometry, child, precision + 1, targetPrecision, compact, bounds, hashes);
+		}
+	}
+
+	/**
+	 * Breadth-first flood of the cells intersecting the polygon geometry,
+	 * starting at the given geohash.  Used for precisions that do not fit the
+	 * long form of a geohash.
+	 */
+	private static String[] floodIntersectingGeohashes(Polygon geometry, String geohash) {
+		Set<String> hashes = new HashSet<String>();
 		Queue<String> hashQue = new LinkedList<String>();
 		Set<String> computedHashes = new HashSet<String>();
 		hashQue.offer(geohash);
+		computedHashes.add(geohash);
 		while (!hashQue.isEmpty()) {
 			String hash = hashQue.poll();
-			computedHashes.add(hash);
-			SpatialRange hashRange = decodeHash(hash);
-			Pair<Coordinates, Coordinates> coordsPair = hashRange.get2DCoordinates();
-			Point<Integer> upLeft = coordinatesToXY(coordsPair.a);
-			Point<Integer> lowRight = coordinatesToXY(coordsPair.b);
-			Rectangle2D hashRect = new Rectangle(upLeft.X(), upLeft.Y(), lowRight.X() - upLeft.X(),
-					lowRight.Y() - upLeft.Y());
-			if (hash.equals(geohash) && hashRect.contains(box)) {
-				hashes.add(hash);
-				break;
-			} 
-			if (geometry.intersects(hashRect)) {
+			if (geometry.intersects(getHashRectangle(decodeHash(hash)))) {
 				hashes.add(hash);
-				String[] neighbors = getNeighbours(hash);
-				for (String neighbour : neighbors)
-					if (!computedHashes.contains(neighbour) && !hashQue.contains(neighbour))
+				for (String neighbour : getNeighbours(hash))
+					if (computedHashes.add(neighbour))
 						hashQue.offer(neighbour);
 			}
 		}
-		return hashes.size() > 0 ? hashes.toArray(new String[hashes.size()]) : new String[] {};
+		return hashes.toArray(new String[hashes.size()]);
+	}
+
+	private static Rectangle2D getHashRectangle(SpatialRange hashRange) {
+		Pair<Coordinates, Coordinates> coordsPair = hashRange.get2DCoordinates();
+		Point<Integer> upLeft = coordinatesToXY(coordsPair.a);
+		Point<Integer> lowRight = coordinatesToXY(coordsPair.b);
+		return new Rectangle(upLeft.X(), upLeft.Y(), lowRight.X() - upLeft.X(), lowRight.Y() - upLeft.Y());
 	}
 
 	/**